@@ -3,6 +3,7 @@ package edu.umass.cs.surveyman;
 import com.github.fge.jsonschema.core.exceptions.ProcessingException;
 import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
 import edu.umass.cs.surveyman.analyses.DynamicAnalysis;
+import edu.umass.cs.surveyman.analyses.ReportCache;
 import edu.umass.cs.surveyman.analyses.StaticAnalysis;
 import edu.umass.cs.surveyman.analyses.AbstractRule;
 import edu.umass.cs.surveyman.input.csv.CSVLexer;
@@ -12,6 +13,7 @@ import edu.umass.cs.surveyman.qc.Classifier;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 import edu.umass.cs.surveyman.utils.ArgReader;
+import edu.umass.cs.surveyman.utils.RandomSource;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.Argument;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -20,6 +22,7 @@ import net.sourceforge.argparse4j.inf.Namespace;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -50,6 +53,10 @@ public class SurveyMan {
     private static final String analysisArg = "analysis";
     private static final String resultsfileArg = "resultsfile";
     private static final String smoothingArg = "smoothing";
+    private static final String threadsArg = "threads";
+    private static final String seedArg = "seed";
+    private static final String cacheArg = "cache";
+    private static final String cachedirArg = "cachedir";
 
     private SurveyMan()
     {
@@ -110,10 +117,76 @@ public class SurveyMan {
             String resultsfile,
             boolean smoothing)
             throws IOException, SurveyException, ProcessingException {
+        analyze(survey, analyses, classifier, n, granularity, alpha, outputFile, resultsfile, smoothing, 1);
+    }
+
+    /**
+     * Analyzes the survey, classifying respondents with the given number of threads. See the other analyze method.
+     * @param survey The survey object.
+     * @param analyses The type of analysis to run: static or dynamic.
+     * @param classifier The type of classifier to use for bad actors.
+     * @param n The total number of respondents to simulate (if running static analysis).
+     * @param granularity The granularity of random respondents to increment by, for static analysis.
+     * @param alpha The cutoff.
+     * @param outputFile The file to write results to.
+     * @param resultsfile The file containing results from running a survey (if running dynamic analyses).
+     * @param smoothing Boolean indicating whether the system should use Laplace smoothing for question options.
+     * @param threads The number of threads to use for static analysis simulations and for classifying respondents.
+     * @throws IOException
+     * @throws com.github.fge.jsonschema.core.exceptions.ProcessingException
+     * @throws SurveyException
+     */
+    public static void analyze(
+            Survey survey,
+            Analyses analyses,
+            Classifier classifier,
+            int n,
+            double granularity,
+            double alpha,
+            String outputFile,
+            String resultsfile,
+            boolean smoothing,
+            int threads)
+            throws IOException, SurveyException, ProcessingException {
+        analyze(survey, analyses, classifier, n, granularity, alpha, outputFile, resultsfile, smoothing, threads, null);
+    }
+
+    /**
+     * Analyzes the survey, reading and writing static analysis reports through a cache. See the other analyze method.
+     * @param survey The survey object.
+     * @param analyses The type of analysis to run: static or dynamic.
+     * @param classifier The type of classifier to use for bad actors.
+     * @param n The total number of respondents to simulate (if running static analysis).
+     * @param granularity The granularity of random respondents to increment by, for static analysis.
+     * @param alpha The cutoff.
+     * @param outputFile The file to write results to.
+     * @param resultsfile The file containing results from running a survey (if running dynamic analyses).
+     * @param smoothing Boolean indicating whether the system should use Laplace smoothing for question options.
+     * @param threads The number of threads to use for static analysis simulations and for classifying respondents.
+     * @param cache The cache of static analysis reports; null to bypass it.
+     * @throws IOException
+     * @throws com.github.fge.jsonschema.core.exceptions.ProcessingException
+     * @throws SurveyException
+     */
+    public static void analyze(
+            Survey survey,
+            Analyses analyses,
+            Classifier classifier,
+            int n,
+            double granularity,
+            double alpha,
+            String outputFile,
+            String resultsfile,
+            boolean smoothing,
+            int threads,
+            ReportCache cache)
+            throws IOException, SurveyException, ProcessingException {
         LOGGER.info(survey.jsonize());
         OutputStream out = null;
+        long seed = RandomSource.current().nextLong();
         if (analyses.equals(Analyses.STATIC)) {
-            StaticAnalysis.Report report = StaticAnalysis.staticAnalysis(survey, classifier, n, granularity, alpha);
+            StaticAnalysis.Report report = StaticAnalysis.staticAnalysis(
+                    survey, classifier, n, granularity, alpha, threads, seed, cache);
             out = new FileOutputStream(outputFile);
             report.print(out);
         } else if (analyses.equals(Analyses.DYNAMIC)) {
@@ -122,7 +195,7 @@ public class SurveyMan {
             List<AbstractSurveyResponse> responses = DynamicAnalysis.readSurveyResponses(survey, resultsfile);
             out = new FileOutputStream(outputFile);
             DynamicAnalysis.Report report = DynamicAnalysis.dynamicAnalysis(
-                    survey, responses, classifier, smoothing, alpha);
+                    survey, responses, classifier, smoothing, alpha, threads, seed);
             report.print(out);
         }
         out.close();
@@ -147,7 +220,7 @@ public class SurveyMan {
      *    <code>AbstractRule.getDefaultRules();</code>
      *    </li>
      *    <li>Then call analyze:<br/>
-     *    <code>SurveyMan.analyze(survey, analyses, classifier, n, granularity, alpha, outputfile, resultsfile, smoothing);</code>
+     *    <code>SurveyMan.analyze(survey, analyses, classifier, n, granularity, alpha, outputfile, resultsfile, smoothing, threads);</code>
      *    </li>
      *    </ol>
      * @param args Arguments the top-level program. Execute <code>java -jar target/surveyman-x.y.jar</code> for guidance.
@@ -163,13 +236,27 @@ public class SurveyMan {
             double granularity = Double.parseDouble((String) ns.get(granularityArg));
             double alpha = Double.parseDouble((String) ns.get(alphaArg));
             boolean smoothing = Boolean.parseBoolean((String) ns.get(smoothingArg));
+            int threads = Integer.parseInt((String) ns.get(threadsArg));
+            String seed = ns.getString(seedArg);
+            boolean seeded = seed != null && !seed.equals("");
+            if (seeded)
+                RandomSource.setMasterSeed(Long.parseLong(seed));
+            // without a fixed seed no two runs share a report, so there is nothing to cache
+            ReportCache cache = null;
+            if (seeded && Boolean.parseBoolean(ns.getString(cacheArg))) {
+                String cachedir = ns.getString(cachedirArg);
+                cache = cachedir == null || cachedir.equals("")
+                        ? ReportCache.getDefault()
+                        : new ReportCache(new File(cachedir), ReportCache.DEFAULT_MAX_BYTES);
+            }
             String outputfile = (String) ns.get(outputFileArg);
             String resultsfile = ns.getString(resultsfileArg);
             CSVLexer lexer = new CSVLexer((String) ns.get(surveyArg), (String) ns.get(separatorArg));
             CSVParser parser = new CSVParser(lexer);
             Survey survey = parser.parse();
             AbstractRule.getDefaultRules();
-            analyze(survey, analyses, classifier, n, granularity, alpha, outputfile, resultsfile, smoothing);
+            analyze(survey, analyses, classifier, n, granularity, alpha, outputfile, resultsfile, smoothing, threads,
+                    cache);
        } catch (ArgumentParserException e) {
             System.out.println(e.getMessage());
             argumentParser.printHelp();
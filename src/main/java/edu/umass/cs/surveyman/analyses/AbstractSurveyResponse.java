@@ -3,19 +3,67 @@ package edu.umass.cs.surveyman.analyses;
 import edu.umass.cs.surveyman.survey.Component;
 import edu.umass.cs.surveyman.survey.Question;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 public abstract class AbstractSurveyResponse {
 
-    private List<IQuestionResponse> responses = new ArrayList<IQuestionResponse>();
+    private List<IQuestionResponse> responses = new ResponseList(new ArrayList<IQuestionResponse>());
     private boolean recorded = false;
     private String srid = "";
     private String workerid = "";
     private double score;
     private double threshold;
     private KnownValidityStatus status;
+    // Cached non-custom view and question index; rebuilt when the underlying responses change.
+    private List<IQuestionResponse> nonCustomResponses = null;
+    private Map<Question, IQuestionResponse> questionIndex = null;
+    private List<IQuestionResponse> indexedResponses = null;
+    private int indexedSize = -1;
+    private int indexedModifications = -1;
+    private int modifications = 0;
+
+    /**
+     * The list handed out by {@link #getAllResponses()}. It writes through to the list it wraps and counts every
+     * change, so that the cached view and index also notice responses replaced in place.
+     */
+    private class ResponseList extends AbstractList<IQuestionResponse> {
+
+        private final List<IQuestionResponse> backing;
+
+        ResponseList(List<IQuestionResponse> backing) {
+            this.backing = backing;
+        }
+
+        @Override
+        public IQuestionResponse get(int i) {
+            return backing.get(i);
+        }
+
+        @Override
+        public int size() {
+            return backing.size();
+        }
+
+        @Override
+        public IQuestionResponse set(int i, IQuestionResponse qr) {
+            IQuestionResponse old = backing.set(i, qr);
+            modifications++;
+            return old;
+        }
+
+        @Override
+        public void add(int i, IQuestionResponse qr) {
+            backing.add(i, qr);
+            modifications++;
+        }
+
+        @Override
+        public IQuestionResponse remove(int i) {
+            IQuestionResponse old = backing.remove(i);
+            modifications++;
+            return old;
+        }
+    }
 
     public AbstractSurveyResponse(){}
 
@@ -33,23 +81,74 @@ public abstract class AbstractSurveyResponse {
     }
 
     /**
-     * Returns a filtered copy of the resposnes, with the custom identifiers removed.
+     * Returns a read-only view of the responses, with the custom identifiers removed. The view is cached until the
+     * responses change.
      * @return A List of IQuestionResponses, containing only questions in the original survey.
      */
     public List<IQuestionResponse> getNonCustomResponses() {
-        List<IQuestionResponse> retval = new ArrayList<IQuestionResponse>();
-        for (IQuestionResponse iqr : this.getAllResponses())
-            if (!Question.customQuestion(iqr.getQuestion().quid))
-                retval.add(iqr);
-        return retval;
+        if (this.nonCustomResponses == null || isStale()) {
+            List<IQuestionResponse> retval = new ArrayList<IQuestionResponse>();
+            for (IQuestionResponse iqr : this.getAllResponses())
+                if (!Question.customQuestion(iqr.getQuestion().quid))
+                    retval.add(iqr);
+            this.nonCustomResponses = Collections.unmodifiableList(retval);
+            this.questionIndex = null;
+            markIndexed();
+        }
+        return this.nonCustomResponses;
     }
 
     public void setResponses(List<IQuestionResponse> responses) {
-        this.responses = responses;
+        this.responses = new ResponseList(responses);
+        invalidateIndex();
     }
 
     public void addResponse(IQuestionResponse questionResponse) {
         this.responses.add(questionResponse);
+        invalidateIndex();
+    }
+
+    /**
+     * Discards the cached non-custom view and question index. Subclasses that supply their responses some other way
+     * than through {@link #setResponses(List)}, {@link #addResponse(IQuestionResponse)} or the list returned by
+     * {@link #getAllResponses()} should call this whenever those responses change.
+     */
+    protected void invalidateIndex() {
+        this.nonCustomResponses = null;
+        this.questionIndex = null;
+    }
+
+    // Catches changes made through the list returned by getAllResponses, or to a list passed to setResponses.
+    private boolean isStale() {
+        List<IQuestionResponse> all = this.getAllResponses();
+        return this.indexedResponses != all
+                || this.indexedSize != all.size()
+                || this.indexedModifications != this.modifications;
+    }
+
+    private void markIndexed() {
+        this.indexedResponses = this.getAllResponses();
+        this.indexedSize = this.indexedResponses.size();
+        this.indexedModifications = this.modifications;
+    }
+
+    /**
+     * Returns an index from questions to the response to that question. Questions are matched by
+     * {@link Question#equals(Object)}, as a scan of the responses would match them. When a question was answered more
+     * than once, the first response is indexed.
+     * @return The question index.
+     */
+    private Map<Question, IQuestionResponse> getQuestionIndex() {
+        if (this.questionIndex == null || isStale()) {
+            List<IQuestionResponse> questionResponses = this.getNonCustomResponses();
+            Map<Question, IQuestionResponse> index = new HashMap<Question, IQuestionResponse>();
+            for (IQuestionResponse qr : questionResponses)
+                if (!index.containsKey(qr.getQuestion()))
+                    index.put(qr.getQuestion(), qr);
+            this.questionIndex = index;
+            markIndexed();
+        }
+        return this.questionIndex;
     }
 
     public boolean isRecorded(){
@@ -101,17 +200,13 @@ public abstract class AbstractSurveyResponse {
     }
 
     public boolean hasResponseForQuestion(Question q) {
-        for (IQuestionResponse qr : this.getNonCustomResponses())
-            if (qr.getQuestion().equals(q))
-                return true;
-        return false;
+        return this.getQuestionIndex().containsKey(q);
     }
 
     public IQuestionResponse getResponseForQuestion(Question q) {
-        for (IQuestionResponse qr : this.getNonCustomResponses()) {
-            if (qr.getQuestion().equals(q))
-                return qr;
-        }
+        IQuestionResponse qr = this.getQuestionIndex().get(q);
+        if (qr != null)
+            return qr;
         throw new RuntimeException("Could not find question %s" + q){};
     }
 
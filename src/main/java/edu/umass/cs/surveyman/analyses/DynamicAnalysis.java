@@ -94,24 +94,26 @@ public class DynamicAnalysis {
                         sr.setSrid((String) headerMap.get("responseid"));
                     }
                     // fill out the individual question responses
-                    IQuestionResponse questionResponse =
-                            new QuestionResponse(
-                                    s,
-                                    (String) headerMap.get("questionid"),
-                                    (Integer) headerMap.get("questionpos"));
-                    for (IQuestionResponse qr : sr.getNonCustomResponses())
+                    IQuestionResponse questionResponse = null;
+                    for (IQuestionResponse qr : sr.getAllResponses())
                         if (qr.getQuestion().quid.equals((String) headerMap.get("questionid"))) {
                         // if we already have a QuestionResponse object matching this id, set it
                             questionResponse = qr;
                             break;
                         }
+                    if (questionResponse == null) {
+                        questionResponse = new QuestionResponse(
+                                s,
+                                (String) headerMap.get("questionid"),
+                                (Integer) headerMap.get("questionpos"));
+                        sr.addResponse(questionResponse);
+                    }
                     Component c;
                     if (!Question.customQuestion(questionResponse.getQuestion().quid))
                         c = questionResponse.getQuestion().getOptById((String) headerMap.get("optionid"));
                     else c = new StringComponent((String) headerMap.get("optionid"), -1, -1);
                     Integer i = (Integer) headerMap.get("optionpos");
                     questionResponse.getOpts().add(new OptTuple(c,i));
-                    sr.getNonCustomResponses().add(questionResponse);
                 }
                 reader.close();
                 return responses;
@@ -193,19 +195,55 @@ public class DynamicAnalysis {
             boolean smoothing,
             double alpha)
             throws SurveyException {
+        ResponseMatrix matrix = new ResponseMatrix(survey, responses);
         return new Report(
                 survey.sourceName,
                 survey.sid,
                 alpha,
                 smoothing,
-                QCMetrics.calculateOrderBiases(survey, responses, alpha),
-                QCMetrics.calculateWordingBiases(survey, responses, alpha),
-                QCMetrics.calculateBreakoffByPosition(survey, responses),
-                QCMetrics.calculateBreakoffByQuestion(survey, responses),
+                QCMetrics.calculateOrderBiases(survey, matrix, alpha),
+                QCMetrics.calculateWordingBiases(survey, matrix, alpha),
+                QCMetrics.calculateBreakoffByPosition(survey, matrix),
+                QCMetrics.calculateBreakoffByQuestion(survey, matrix),
                 QCMetrics.classifyResponses(survey, responses, classifier, smoothing, alpha)
             );
    }
 
+    /**
+     * Runs the dynamic analysis, classifying respondents with the given number of threads.
+     * @param survey The survey these respondents answered.
+     * @param responses The list of actual responses to the survey.
+     * @param classifier The type of classifier to use for bad actors.
+     * @param smoothing Boolean indicating whether the system should use Laplace smoothing for question options.
+     * @param alpha The cutoff.
+     * @param threads The number of threads to classify respondents with.
+     * @param seed The master seed for classification.
+     * @return The dynamic analysis report.
+     * @throws SurveyException
+     */
+    public static Report dynamicAnalysis(
+            Survey survey,
+            List<AbstractSurveyResponse> responses,
+            Classifier classifier,
+            boolean smoothing,
+            double alpha,
+            int threads,
+            long seed)
+            throws SurveyException {
+        ResponseMatrix matrix = new ResponseMatrix(survey, responses);
+        return new Report(
+                survey.sourceName,
+                survey.sid,
+                alpha,
+                smoothing,
+                QCMetrics.calculateOrderBiases(survey, matrix, alpha),
+                QCMetrics.calculateWordingBiases(survey, matrix, alpha),
+                QCMetrics.calculateBreakoffByPosition(survey, matrix),
+                QCMetrics.calculateBreakoffByQuestion(survey, matrix),
+                QCMetrics.classifyResponses(survey, responses, classifier, smoothing, alpha, threads, seed)
+            );
+    }
+
 
     public static List<AbstractSurveyResponse> readSurveyResponses(
             Survey s,
@@ -0,0 +1,377 @@
+package edu.umass.cs.surveyman.analyses;
+
+import edu.umass.cs.surveyman.SurveyMan;
+import edu.umass.cs.surveyman.output.CorrelationStruct;
+import edu.umass.cs.surveyman.qc.Classifier;
+import edu.umass.cs.surveyman.qc.CoefficentsAndTests;
+import edu.umass.cs.surveyman.qc.QCMetrics;
+import edu.umass.cs.surveyman.survey.Block;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A persistent cache of {@link StaticAnalysis.Report}s, one file per report in a local directory.
+ *
+ * Reports are addressed by a SHA-256 hash of the survey's canonical JSON form (its blocks, questions, options and
+ * branching, but not its file name or generated survey id) together with every parameter the analysis depends on,
+ * including the number of false-correlation replicates and the bootstrap settings. The JSON form does not record
+ * where each question and option came from in the source, and the entropy estimate groups an option's variants by
+ * their source rows, so those rows are part of the address too. The number of threads is left out, since the report is
+ * the same for a given seed whatever the number of threads.
+ * Reading a report marks it as recently used; when the directory grows beyond its size bound, the least recently used
+ * reports are evicted.
+ */
+public class ReportCache {
+
+    /**
+     * Bumped whenever the analysis or the file format changes, so that older reports are never read.
+     */
+    public static final int VERSION = 4;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final String SUFFIX = ".report";
+
+    public final File directory;
+    public final long maxBytes;
+
+    /**
+     * @param directory The directory to keep reports in; it is created if it does not exist.
+     * @param maxBytes The total size the reports may take up.
+     */
+    public ReportCache(
+            File directory,
+            long maxBytes)
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new RuntimeException("Could not create report cache directory " + directory);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return The default cache, in ~/surveyman/cache.
+     */
+    public static ReportCache getDefault()
+    {
+        File home = new File(System.getProperty("user.home"));
+        return new ReportCache(new File(new File(home, "surveyman"), "cache"), DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Computes the address of the report for one run of the static analysis.
+     * @param survey The survey to analyze.
+     * @param classifier The type of classifier to use for bad actors.
+     * @param n The total number of respondents to simulate when estimating random correlation.
+     * @param granularity The granularity of random respondents to increment by.
+     * @param alpha The cutoff.
+     * @param seed The master seed for the analysis.
+     * @return A hexadecimal key.
+     * @throws SurveyException
+     */
+    public static String getKey(
+            Survey survey,
+            Classifier classifier,
+            int n,
+            double granularity,
+            double alpha,
+            long seed)
+            throws SurveyException
+    {
+        List<Block> blocks = survey.topLevelBlocks;
+        if (blocks.isEmpty()) {
+            Block b = new Block("");
+            b.questions = survey.questions;
+            b.setIdArray(new int[]{1});
+            blocks = Collections.singletonList(b);
+        }
+        String canonical = String.format("%d\n%s\n%s\n%d\n%s\n%s\n%d\n%d\n%s\n%d\n%b\n%s\n%s",
+                VERSION,
+                classifier.name(),
+                Double.toString(granularity),
+                n,
+                Double.toString(alpha),
+                Boolean.toString(Simulation.smoothing),
+                QCMetrics.falseCorrelationReplicates,
+                QCMetrics.bootstrapIterations,
+                Double.toString(QCMetrics.bootstrapTolerance),
+                seed,
+                survey.permitsBreakoff(),
+                Block.jsonize(blocks),
+                getSourceRows(survey));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest(canonical.getBytes("UTF-8")))
+                key.append(String.format("%02x", b));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String getSourceRows(
+            Survey survey)
+    {
+        Map<String, Question> questions = new TreeMap<String, Question>();
+        for (Question q : survey.questions)
+            questions.put(q.quid, q);
+        StringBuilder rows = new StringBuilder();
+        for (Question q : questions.values()) {
+            rows.append(q.quid).append(':').append(q.getSourceRow());
+            for (Component c : new TreeMap<String, Component>(q.options).values())
+                rows.append(' ').append(c.getCid()).append(':').append(c.getSourceRow());
+            rows.append('\n');
+        }
+        return rows.toString();
+    }
+
+    private File getFile(
+            String key)
+    {
+        return new File(directory, key + SUFFIX);
+    }
+
+    /**
+     * Looks up a report.
+     * @param key The report's address.
+     * @param survey The survey the report was computed for; its questions are substituted into the report.
+     * @return The report, or null if there is none (or it cannot be read).
+     */
+    public StaticAnalysis.Report get(
+            String key,
+            Survey survey)
+    {
+        File file = getFile(key);
+        if (!file.isFile())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                StaticAnalysis.Report report = read(in, survey);
+                file.setLastModified(System.currentTimeMillis());
+                return report;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            SurveyMan.LOGGER.warn(String.format("Discarding unreadable cached report %s: %s", file, e.getMessage()));
+        } catch (SurveyException e) {
+            SurveyMan.LOGGER.warn(String.format("Discarding cached report %s: %s", file, e.getMessage()));
+        }
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Stores a report, then evicts the least recently used reports until the cache fits its size bound.
+     * @param key The report's address.
+     * @param report The report.
+     */
+    public void put(
+            String key,
+            StaticAnalysis.Report report)
+    {
+        File file = getFile(key);
+        try {
+            // write to a temporary file and rename it, so a concurrent reader never sees a partial report
+            File tmp = File.createTempFile(key, ".tmp", directory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                write(out, report);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    throw new IOException("Could not rename " + tmp + " to " + file);
+                }
+            }
+        } catch (IOException e) {
+            SurveyMan.LOGGER.warn(String.format("Could not cache report %s: %s", file, e.getMessage()));
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Removes one report.
+     * @param key The report's address.
+     * @return Whether there was a report to remove.
+     */
+    public boolean invalidate(
+            String key)
+    {
+        return getFile(key).delete();
+    }
+
+    /**
+     * Removes every report.
+     */
+    public void clear()
+    {
+        for (File file : listReports())
+            file.delete();
+    }
+
+    private File[] listReports()
+    {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    private void evict()
+    {
+        File[] files = listReports();
+        long total = 0;
+        final Map<File, Long> lastUsed = new HashMap<File, Long>();
+        for (File file : files) {
+            total += file.length();
+            lastUsed.put(file, file.lastModified());
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b)
+            {
+                return lastUsed.get(a).compareTo(lastUsed.get(b));
+            }
+        });
+        for (int i = 0; i < files.length && total > maxBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete())
+                total -= length;
+        }
+    }
+
+    private static void writeString(
+            DataOutputStream out,
+            String s)
+            throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private static String readString(
+            DataInputStream in)
+            throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void write(
+            DataOutputStream out,
+            StaticAnalysis.Report report)
+            throws IOException
+    {
+        out.writeInt(VERSION);
+        out.writeInt(report.minPathLength);
+        out.writeInt(report.maxPathLength);
+        out.writeDouble(report.avgPathLength);
+        out.writeDouble(report.maxPossibleEntropy);
+        out.writeDouble(report.falseCorrelationRate);
+        out.writeDouble(report.falseCorrelationLower);
+        out.writeDouble(report.falseCorrelationUpper);
+        out.writeInt(report.rocList.size());
+        for (Simulation.ROC roc : report.rocList) {
+            out.writeDouble(roc.percBots);
+            out.writeInt(roc.truePositive);
+            out.writeInt(roc.falsePositive);
+            out.writeInt(roc.trueNegative);
+            out.writeInt(roc.falseNegative);
+            out.writeDouble(roc.empiricalEntropy);
+        }
+        int numCorrelations = 0;
+        for (Map<Question, CorrelationStruct> row : report.frequenciesOfRandomCorrelations.values())
+            numCorrelations += row.size();
+        out.writeInt(numCorrelations);
+        for (Map.Entry<Question, Map<Question, CorrelationStruct>> row :
+                report.frequenciesOfRandomCorrelations.entrySet()) {
+            for (Map.Entry<Question, CorrelationStruct> entry : row.getValue().entrySet()) {
+                CorrelationStruct cs = entry.getValue();
+                out.writeUTF(row.getKey().quid);
+                out.writeUTF(entry.getKey().quid);
+                writeString(out, cs.coefficientType == null ? null : cs.coefficientType.name());
+                out.writeDouble(cs.coefficientValue);
+                out.writeUTF(cs.thingA.quid);
+                out.writeUTF(cs.thingB.quid);
+                out.writeInt(cs.numSamplesA);
+                out.writeInt(cs.numSamplesB);
+            }
+        }
+    }
+
+    private static StaticAnalysis.Report read(
+            DataInputStream in,
+            Survey survey)
+            throws IOException,
+            SurveyException
+    {
+        if (in.readInt() != VERSION)
+            throw new IOException("Report was written by a different version.");
+        int minPathLength = in.readInt();
+        int maxPathLength = in.readInt();
+        double avgPathLength = in.readDouble();
+        double maxPossibleEntropy = in.readDouble();
+        double falseCorrelationRate = in.readDouble();
+        double falseCorrelationLower = in.readDouble();
+        double falseCorrelationUpper = in.readDouble();
+        int numRocs = in.readInt();
+        List<Simulation.ROC> rocList = new ArrayList<Simulation.ROC>(numRocs);
+        for (int i = 0; i < numRocs; i++)
+            rocList.add(new Simulation.ROC(in.readDouble(), in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readDouble()));
+        Map<String, Question> questions = new HashMap<String, Question>();
+        for (Question q : survey.questions)
+            questions.put(q.quid, q);
+        Map<Question, Map<Question, CorrelationStruct>> correlations =
+                new HashMap<Question, Map<Question, CorrelationStruct>>();
+        int numCorrelations = in.readInt();
+        for (int i = 0; i < numCorrelations; i++) {
+            Question q1 = lookup(questions, in.readUTF(), survey);
+            Question q2 = lookup(questions, in.readUTF(), survey);
+            String type = readString(in);
+            double value = in.readDouble();
+            Question thingA = lookup(questions, in.readUTF(), survey);
+            Question thingB = lookup(questions, in.readUTF(), survey);
+            CorrelationStruct cs = new CorrelationStruct(
+                    type == null ? null : CoefficentsAndTests.valueOf(type),
+                    value, thingA, thingB, in.readInt(), in.readInt());
+            Map<Question, CorrelationStruct> row = correlations.get(q1);
+            if (row == null) {
+                row = new HashMap<Question, CorrelationStruct>();
+                correlations.put(q1, row);
+            }
+            row.put(q2, cs);
+        }
+        return new StaticAnalysis.Report(survey.sourceName, survey.sid, minPathLength, maxPathLength, avgPathLength,
+                maxPossibleEntropy, correlations, rocList, falseCorrelationRate, falseCorrelationLower,
+                falseCorrelationUpper);
+    }
+
+    private static Question lookup(
+            Map<String, Question> questions,
+            String quid,
+            Survey survey)
+            throws SurveyException
+    {
+        Question q = questions.get(quid);
+        return q == null ? survey.getQuestionById(quid) : q;
+    }
+}
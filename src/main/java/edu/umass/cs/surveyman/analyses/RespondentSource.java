@@ -0,0 +1,131 @@
+package edu.umass.cs.surveyman.analyses;
+
+import edu.umass.cs.surveyman.qc.ExecutionPlan;
+import edu.umass.cs.surveyman.qc.NonRandomRespondent;
+import edu.umass.cs.surveyman.qc.RandomRespondent;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Produces simulated responses on demand: first the uniform random respondents, then the responses of a single
+ * profiled respondent, the same sequence {@link Simulation#simulate(Survey, int, double, Random)} returns. Only the
+ * response being produced is held, so a caller that folds responses into aggregates as they arrive can simulate
+ * arbitrarily many respondents in constant memory.
+ *
+ * A source can only be traversed once.
+ */
+public class RespondentSource implements Iterator<AbstractSurveyResponse>, Iterable<AbstractSurveyResponse> {
+
+    private final ExecutionPlan plan;
+    private final Random random;
+    private final int numRandomRespondents;
+    private final int numRealRespondents;
+    private NonRandomRespondent profile = null;
+    private int produced = 0;
+
+    /**
+     * @param survey The survey to simulate.
+     * @param totalResponses The number of responses to generate.
+     * @param percRandomRespondents The fraction of responses that come from uniform random respondents.
+     * @param random The stream to draw from.
+     * @throws SurveyException
+     */
+    public RespondentSource(
+            Survey survey,
+            int totalResponses,
+            double percRandomRespondents,
+            Random random)
+            throws SurveyException
+    {
+        this(new ExecutionPlan(survey), totalResponses, percRandomRespondents, random);
+    }
+
+    /**
+     * @param plan The compiled survey to simulate.
+     * @param totalResponses The number of responses to generate.
+     * @param percRandomRespondents The fraction of responses that come from uniform random respondents.
+     * @param random The stream to draw from.
+     */
+    public RespondentSource(
+            ExecutionPlan plan,
+            int totalResponses,
+            double percRandomRespondents,
+            Random random)
+    {
+        this.plan = plan;
+        this.random = random;
+        this.numRandomRespondents = (int) Math.floor(totalResponses * percRandomRespondents);
+        this.numRealRespondents = totalResponses - numRandomRespondents;
+    }
+
+    public int getNumRandomRespondents()
+    {
+        return numRandomRespondents;
+    }
+
+    public int getNumRealRespondents()
+    {
+        return numRealRespondents;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return produced < numRandomRespondents + numRealRespondents;
+    }
+
+    /**
+     * @return The next response. Its known validity status is NO for random respondents and YES for the profile.
+     */
+    @Override
+    public AbstractSurveyResponse next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        AbstractSurveyResponse r;
+        if (produced < numRandomRespondents) {
+            r = new RandomRespondent(plan, RandomRespondent.AdversaryType.UNIFORM, random).getResponse();
+            assert r.getKnownValidityStatus() == KnownValidityStatus.NO : String.format(
+                    "Random respondent's validity status must be NO, was %s", r.getKnownValidityStatus());
+        } else {
+            //TODO(etosch): add parameter so we can have more than one cluster
+            if (profile == null)
+                profile = new NonRandomRespondent(plan, random);
+            r = profile.getResponse();
+            assert r.getKnownValidityStatus() == KnownValidityStatus.YES : String.format(
+                    "Nonrandom respondent's validity status must be YES, was %s", r.getKnownValidityStatus());
+        }
+        produced++;
+        return r;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Simulated responses cannot be removed.");
+    }
+
+    @Override
+    public Iterator<AbstractSurveyResponse> iterator()
+    {
+        return this;
+    }
+
+    /**
+     * Drains the source, offering every response to each of the folders in turn.
+     * @param folders The aggregates to build.
+     */
+    public void fold(
+            ResponseFolder... folders)
+    {
+        while (hasNext()) {
+            AbstractSurveyResponse r = next();
+            for (ResponseFolder folder : folders)
+                folder.accept(r);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package edu.umass.cs.surveyman.analyses;
+
+/**
+ * An aggregate that is built up one response at a time, so that responses can be folded into it as they are produced
+ * (see {@link RespondentSource#fold(ResponseFolder...)}) instead of being collected into a list first.
+ */
+public interface ResponseFolder {
+    public void accept(AbstractSurveyResponse sr);
+}
@@ -0,0 +1,194 @@
+package edu.umass.cs.surveyman.analyses;
+
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+
+import java.util.*;
+
+/**
+ * A response produced by simulating a survey. The questions, in the order they were seen, and the options chosen for
+ * each (with the positions they were displayed at) are recorded once, when the simulation finishes; every accessor
+ * then serves the recorded values without allocating. The recorded list returned by {@link #getAllResponses()} is
+ * read-only. A call to {@link #setResponses(List)} or {@link #addResponse(IQuestionResponse)} discards the recording,
+ * and from then on the response behaves like any other, with its answers held in an ordinary list.
+ */
+public class SimulatedSurveyResponse extends AbstractSurveyResponse {
+
+    private static class SimulatedQuestionResponse implements IQuestionResponse {
+
+        private final Question question;
+        private final List<OptTuple> opts;
+        private final int indexSeen;
+
+        SimulatedQuestionResponse(
+                Question question,
+                List<OptTuple> opts,
+                int indexSeen)
+        {
+            this.question = question;
+            this.opts = opts;
+            this.indexSeen = indexSeen;
+        }
+
+        @Override
+        public Question getQuestion()
+        {
+            return question;
+        }
+
+        @Override
+        public List<OptTuple> getOpts()
+        {
+            return opts;
+        }
+
+        @Override
+        public int getIndexSeen()
+        {
+            return indexSeen;
+        }
+    }
+
+    // The recording; all null once the responses have been changed.
+    private Question[] questions;
+    private Component[][] options;
+    private List<IQuestionResponse> questionResponses;
+    private Map<String, IQuestionResponse> resultsMap;
+
+    /**
+     * Records a simulated response.
+     * @param questions The questions answered, in the order they were seen.
+     * @param options The options chosen for each question, parallel to the questions.
+     * @param positions The positions at which the chosen options were displayed, parallel to the options.
+     */
+    public SimulatedSurveyResponse(
+            Question[] questions,
+            Component[][] options,
+            int[][] positions)
+    {
+        assert questions.length == options.length && questions.length == positions.length;
+        this.questions = Arrays.copyOf(questions, questions.length);
+        this.options = new Component[options.length][];
+        IQuestionResponse[] qrs = new IQuestionResponse[questions.length];
+        Map<String, IQuestionResponse> map = new HashMap<String, IQuestionResponse>();
+        for (int i = 0; i < questions.length; i++) {
+            this.options[i] = Arrays.copyOf(options[i], options[i].length);
+            OptTuple[] opts = new OptTuple[options[i].length];
+            for (int j = 0; j < opts.length; j++)
+                opts[j] = new OptTuple(options[i][j], positions[i][j]);
+            qrs[i] = new SimulatedQuestionResponse(questions[i], Collections.unmodifiableList(Arrays.asList(opts)), i);
+            map.put(questions[i].quid, qrs[i]);
+        }
+        this.questionResponses = Collections.unmodifiableList(Arrays.asList(qrs));
+        this.resultsMap = Collections.unmodifiableMap(map);
+        super.setResponses(this.questionResponses);
+    }
+
+    private boolean hasRecording()
+    {
+        return questions != null;
+    }
+
+    private void discardRecording()
+    {
+        this.questions = null;
+        this.options = null;
+        this.questionResponses = null;
+        this.resultsMap = null;
+    }
+
+    /**
+     * @return The number of questions answered.
+     */
+    public int size()
+    {
+        return hasRecording() ? questions.length : getNonCustomResponses().size();
+    }
+
+    /**
+     * @param i A position in the sequence of questions seen.
+     * @return The question seen at that position.
+     */
+    public Question getQuestion(
+            int i)
+    {
+        return hasRecording() ? questions[i] : getNonCustomResponses().get(i).getQuestion();
+    }
+
+    /**
+     * @param i A position in the sequence of questions seen.
+     * @return The number of options chosen for the question at that position.
+     */
+    public int getNumOptions(
+            int i)
+    {
+        return hasRecording() ? options[i].length : getNonCustomResponses().get(i).getOpts().size();
+    }
+
+    /**
+     * @param i A position in the sequence of questions seen.
+     * @param j The index of the option among those chosen.
+     * @return The chosen option.
+     */
+    public Component getOption(
+            int i,
+            int j)
+    {
+        return hasRecording() ? options[i][j] : getNonCustomResponses().get(i).getOpts().get(j).c;
+    }
+
+    @Override
+    public List<IQuestionResponse> getNonCustomResponses()
+    {
+        return hasRecording() ? questionResponses : super.getNonCustomResponses();
+    }
+
+    @Override
+    public void setResponses(
+            List<IQuestionResponse> responses)
+    {
+        discardRecording();
+        super.setResponses(responses);
+    }
+
+    @Override
+    public void addResponse(
+            IQuestionResponse questionResponse)
+    {
+        if (hasRecording()) {
+            List<IQuestionResponse> responses = new ArrayList<IQuestionResponse>(questionResponses);
+            discardRecording();
+            super.setResponses(responses);
+        }
+        super.addResponse(questionResponse);
+    }
+
+    @Override
+    public Map<String, IQuestionResponse> resultsAsMap()
+    {
+        if (hasRecording())
+            return resultsMap;
+        Map<String, IQuestionResponse> retval = new HashMap<String, IQuestionResponse>();
+        for (IQuestionResponse qr : getNonCustomResponses())
+            retval.put(qr.getQuestion().quid, qr);
+        return retval;
+    }
+
+    @Override
+    public boolean surveyResponseContainsAnswer(
+            List<Component> variants)
+    {
+        if (hasRecording()) {
+            for (Component[] chosen : options)
+                for (Component c : chosen)
+                    if (variants.contains(c))
+                        return true;
+            return false;
+        }
+        for (IQuestionResponse qr : getNonCustomResponses())
+            for (OptTuple opt : qr.getOpts())
+                if (variants.contains(opt.c))
+                    return true;
+        return false;
+    }
+}
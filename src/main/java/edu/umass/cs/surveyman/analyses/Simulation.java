@@ -1,17 +1,21 @@
 package edu.umass.cs.surveyman.analyses;
 
+import edu.umass.cs.surveyman.output.ClassificationStruct;
+import edu.umass.cs.surveyman.output.ClassifiedRespondentsStruct;
 import edu.umass.cs.surveyman.qc.*;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.RandomSource;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 public class Simulation {
 
     public static boolean smoothing = false;
 
-    static class ROC {
+    public static class ROC {
 
         public final double percBots;
         public final int truePositive;
@@ -43,58 +47,95 @@ public class Simulation {
 
     public static List<AbstractSurveyResponse> simulate(Survey survey, int totalResponses, double percRandomRespondents)
             throws SurveyException {
+        return simulate(survey, totalResponses, percRandomRespondents, RandomSource.current());
+    }
 
-        List<AbstractSurveyResponse> randomResponses = new ArrayList<AbstractSurveyResponse>();
-        List<AbstractSurveyResponse> realResponses = new ArrayList<AbstractSurveyResponse>();
-
-        int numRandomRespondents = (int) Math.floor(totalResponses * percRandomRespondents);
-        int numRealRespondents = totalResponses - numRandomRespondents;
-
-        for (int j = 0 ; j < numRandomRespondents ; j++) {
-            AbstractSurveyResponse r = new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse();
-            assert r.getKnownValidityStatus() == KnownValidityStatus.NO : String.format(
-                    "Random respondent's validity status must be NO, was %s", r.getKnownValidityStatus());
-            randomResponses.add(r);
-        }
+    /**
+     * Simulates a mix of random and profiled respondents, drawing every choice from the given stream. Callers that
+     * only aggregate the responses should fold over a {@link RespondentSource} instead of materializing the list.
+     * @param survey The survey to simulate.
+     * @param totalResponses The number of responses to generate.
+     * @param percRandomRespondents The fraction of responses that come from uniform random respondents.
+     * @param random The stream to draw from.
+     * @return The random responses followed by the profiled responses.
+     * @throws SurveyException
+     */
+    public static List<AbstractSurveyResponse> simulate(
+            Survey survey,
+            int totalResponses,
+            double percRandomRespondents,
+            Random random)
+            throws SurveyException {
+        List<AbstractSurveyResponse> allResponses = new ArrayList<AbstractSurveyResponse>(totalResponses);
+        for (AbstractSurveyResponse r : new RespondentSource(survey, totalResponses, percRandomRespondents, random))
+            allResponses.add(r);
+        return allResponses;
+    }
 
-        //TODO(etosch): add parameter so we can have more than one cluster
-        NonRandomRespondent profile = new NonRandomRespondent(survey);
-        for (int j = 0 ; j < numRealRespondents ; j++) {
-            AbstractSurveyResponse r = profile.getResponse();
-            assert r.getKnownValidityStatus() == KnownValidityStatus.YES : String.format(
-                    "Nonrandom respondent's validity status must be YES, was %s", r.getKnownValidityStatus());
-            realResponses.add(r);
-        }
+    public static ROC analyze(Survey survey, List<AbstractSurveyResponse> surveyResponses, Classifier classifier)
+            throws SurveyException {
+        return analyze(survey, surveyResponses, classifier, 1, RandomSource.current().nextLong());
+    }
 
-        List<AbstractSurveyResponse> allResponses = new ArrayList<AbstractSurveyResponse>();
-        allResponses.addAll(randomResponses);
-        allResponses.addAll(realResponses);
-        assert allResponses.size() == randomResponses.size() + realResponses.size();
+    /**
+     * Classifies the simulated responses in parallel and tallies the classifications against their known validity.
+     * @param survey The survey these respondents answered.
+     * @param surveyResponses The simulated responses; all must have a known validity status.
+     * @param classifier The enum corresponding to the classifier type.
+     * @param threads The number of threads to classify with.
+     * @param seed The master seed for the classification workers.
+     * @return The ROC point for this sample.
+     * @throws SurveyException
+     */
+    public static ROC analyze(
+            Survey survey,
+            List<AbstractSurveyResponse> surveyResponses,
+            Classifier classifier,
+            int threads,
+            long seed)
+            throws SurveyException {
+        return analyze(survey, surveyResponses, classifier, threads, seed, new SurveyEntropy(survey));
+    }
 
-        return allResponses;
+    /**
+     * Classifies the simulated responses in parallel and tallies the classifications against their known validity,
+     * reading the empirical entropy off an index built once for the survey.
+     * @param survey The survey these respondents answered.
+     * @param surveyResponses The simulated responses; all must have a known validity status.
+     * @param classifier The enum corresponding to the classifier type.
+     * @param threads The number of threads to classify with.
+     * @param seed The master seed for the classification workers.
+     * @param surveyEntropy The entropy index of the survey, shared by every sample of it.
+     * @return The ROC point for this sample.
+     * @throws SurveyException
+     */
+    public static ROC analyze(
+            Survey survey,
+            List<AbstractSurveyResponse> surveyResponses,
+            Classifier classifier,
+            int threads,
+            long seed,
+            SurveyEntropy surveyEntropy)
+            throws SurveyException {
+        if (classifier != Classifier.LOG_LIKELIHOOD && classifier != Classifier.ENTROPY)
+            throw new RuntimeException(String.format("Unknown classification type %s.", classifier.name()));
+        BatchClassifier batchClassifier = new BatchClassifier(survey, surveyResponses, classifier, smoothing, 0.05);
+        return makeROC(surveyResponses, batchClassifier.classifyResponses(threads, seed), surveyEntropy);
     }
 
-    public static ROC analyze(Survey survey, List<AbstractSurveyResponse> surveyResponses, Classifier classifier)
+    private static ROC makeROC(
+            List<AbstractSurveyResponse> surveyResponses,
+            ClassifiedRespondentsStruct classifications,
+            SurveyEntropy surveyEntropy)
             throws SurveyException {
 
         int ctKnownValid = 0, ctKnownInvalid = 0;
         int ctTruePositive = 0, ctTrueNegative = 0, ctFalsePositive = 0, ctFalseNegative = 0;
         double empiricalEntropy;
 
-        for (AbstractSurveyResponse sr : surveyResponses) {
-            assert sr.getKnownValidityStatus() != null : String.format(
-                    "Survey %s response must have a known validity status", sr.getSrid());
-            boolean classification;
-            switch (classifier) {
-                case LOG_LIKELIHOOD:
-                    classification = QCMetrics.logLikelihoodClassification(survey, sr, surveyResponses, smoothing, 0.05);
-                    break;
-                case ENTROPY:
-                    classification = QCMetrics.entropyClassification(survey, sr, surveyResponses, smoothing, 0.05);
-                    break;
-                default:
-                    throw new RuntimeException(String.format("Unknown classification type %s.", classifier.name()));
-            }
+        for (ClassificationStruct classificationStruct : classifications) {
+            AbstractSurveyResponse sr = classificationStruct.surveyResponse;
+            boolean classification = classificationStruct.valid;
             assert sr.getKnownValidityStatus() != null : String.format(
                     "Survey %s response must have a known validity status", sr.getSrid());
             switch (sr.getKnownValidityStatus()) {
@@ -120,7 +161,7 @@ public class Simulation {
                     break;
             }
         }
-        empiricalEntropy = QCMetrics.surveyEntropy(survey, surveyResponses);
+        empiricalEntropy = surveyEntropy.getEntropy(surveyResponses);
         assert empiricalEntropy > 0 : "Survey must have entropy greater than 0.";
         assert ctKnownInvalid + ctKnownValid == surveyResponses.size();
         return new ROC((double) ctKnownInvalid / surveyResponses.size(),
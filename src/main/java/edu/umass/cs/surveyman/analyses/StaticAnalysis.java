@@ -2,11 +2,16 @@ package edu.umass.cs.surveyman.analyses;
 
 import edu.umass.cs.surveyman.SurveyMan;
 import edu.umass.cs.surveyman.qc.Classifier;
+import edu.umass.cs.surveyman.qc.FalseCorrelation;
 import edu.umass.cs.surveyman.output.CorrelationStruct;
+import edu.umass.cs.surveyman.qc.PathAnalyzer;
 import edu.umass.cs.surveyman.qc.QCMetrics;
+import edu.umass.cs.surveyman.qc.SurveyEntropy;
 import edu.umass.cs.surveyman.survey.Question;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.RandomSource;
+import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
@@ -15,6 +20,8 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
 
 public class StaticAnalysis {
 
@@ -28,6 +35,9 @@ public class StaticAnalysis {
         public final int minPathLength;
         public final Map<Question, Map<Question, CorrelationStruct>> frequenciesOfRandomCorrelations;
         public final List<Simulation.ROC> rocList;
+        public final double falseCorrelationRate;
+        public final double falseCorrelationLower;
+        public final double falseCorrelationUpper;
 
         Report(String surveyName,
                String surveyId,
@@ -36,7 +46,10 @@ public class StaticAnalysis {
                double avgPathLength,
                double maxPossibleEntropy,
                Map<Question, Map<Question, CorrelationStruct>> frequenciesOfRandomCorrelations,
-               List<Simulation.ROC> rocList) {
+               List<Simulation.ROC> rocList,
+               double falseCorrelationRate,
+               double falseCorrelationLower,
+               double falseCorrelationUpper) {
             this.surveyName = surveyName;
             this.surveyId = surveyId;
             this.avgPathLength = avgPathLength;
@@ -45,21 +58,17 @@ public class StaticAnalysis {
             this.minPathLength = minPathLength;
             this.frequenciesOfRandomCorrelations = frequenciesOfRandomCorrelations;
             this.rocList = rocList;
+            this.falseCorrelationRate = falseCorrelationRate;
+            this.falseCorrelationLower = falseCorrelationLower;
+            this.falseCorrelationUpper = falseCorrelationUpper;
         }
 
+        /**
+         * @return The mean fraction of question pairs whose coefficient exceeds the threshold among uniform random
+         * respondents, over replicated samples. See {@link FalseCorrelation}.
+         */
         private double getFrequencyOfRandomCorrelation() {
-            double strongThreshhold = 0.8;
-            int ctAboveString = 0;
-            int numComparisons = 0;
-            for (Map<Question, CorrelationStruct> entry : this.frequenciesOfRandomCorrelations.values()) {
-                for (CorrelationStruct correlationStruct : entry.values()) {
-                    numComparisons++;
-                    if (correlationStruct.coefficientValue > strongThreshhold) {
-                        ctAboveString++;
-                    }
-                }
-            }
-            return ctAboveString / (1.0 * numComparisons);
+            return this.falseCorrelationRate;
         }
 
         public void print(OutputStream stream) {
@@ -70,12 +79,15 @@ public class StaticAnalysis {
                         "Max Path Length:\t%d\n" +
                         "Average Path Length:\t%f\n" +
                         "Max Possible Entropy:\t%f\n" +
-                        "Prob. False Correlation:\t%f\n",
+                        "Prob. False Correlation:\t%f\n" +
+                        "Prob. False Correlation 95%% CI:\t%f,%f\n",
                         this.minPathLength,
                         this.maxPathLength,
                         this.avgPathLength,
                         this.maxPossibleEntropy,
-                        this.getFrequencyOfRandomCorrelation()
+                        this.getFrequencyOfRandomCorrelation(),
+                        this.falseCorrelationLower,
+                        this.falseCorrelationUpper
                 ));
                 osw.write("percentBots,entropy,TP,FP,TN,FN\n");
                 for (Simulation.ROC roc : rocList) {
@@ -127,27 +139,31 @@ public class StaticAnalysis {
                     StringUtils.join(falseNegatives, ",")
                 )
             );
-            return String.format("{ %s }", json);
+            return json.toString();
         }
 
         public String jsonize() {
             String json = String.format(
                     "{" +
                             "\"surveyname\" : \"%s\", " +
+                            "\"surveyid\" : \"%s\", " +
                             "\"minpathlength\" : %d," +
                             "\"maxpathlength\" : %d," +
                             "\"avgpathlength\" : %f," +
                             "\"maxpossibleentropy\" : %f," +
                             "\"probfalsecorr\" : %f," +
-                            "\"badactors : %s \"" +
+                            "\"probfalsecorrci\" : [ %f, %f ]," +
+                            "\"badactors\" : %s" +
                     "}",
-                    this.surveyName,
-                    this.surveyId,
+                    StringEscapeUtils.escapeJson(this.surveyName),
+                    StringEscapeUtils.escapeJson(this.surveyId),
                     this.minPathLength,
                     this.maxPathLength,
                     this.avgPathLength,
                     this.maxPossibleEntropy,
                     this.getFrequencyOfRandomCorrelation(),
+                    this.falseCorrelationLower,
+                    this.falseCorrelationUpper,
                     this.jsonizeBadActors()
                     );
             return json;
@@ -168,21 +184,171 @@ public class StaticAnalysis {
             int n,
             double granularity,
             double alpha) throws SurveyException {
+        return staticAnalysis(survey, classifier, n, granularity, alpha, 1, RandomSource.current().nextLong());
+    }
+
+    /**
+     * Runs the static analysis on a pool of worker threads. Each point of the sweep over the percentage of random
+     * respondents is an independent task, as is each of the report's survey-level statistics; every task that simulates
+     * respondents draws from its own stream, derived from the seed and the task's index. When there are more threads
+     * than sweep points, each point also classifies its sample with its share of the remaining threads. Classification
+     * does not depend on the number of threads it uses, so the report is the same for a given seed whatever the number
+     * of threads.
+     * @param survey The survey to analyze.
+     * @param classifier The type of classifier to use for bad actors.
+     * @param n The total number of respondents to simulate when estimating random correlation.
+     * @param granularity The granularity of random respondents to increment by.
+     * @param alpha The cutoff.
+     * @param threads The size of the worker pool.
+     * @param seed The master seed for the analysis.
+     * @return The static analysis report.
+     * @throws SurveyException
+     */
+    public static Report staticAnalysis(
+            final Survey survey,
+            final Classifier classifier,
+            final int n,
+            double granularity,
+            final double alpha,
+            int threads,
+            final long seed) throws SurveyException {
+        if (threads < 1)
+            throw new RuntimeException("Number of threads must be positive, was "+threads);
         wellFormednessChecks(survey);
-        List<Simulation.ROC> rocList = new ArrayList<Simulation.ROC>();
-        for (double percRandomRespondents = 0.0 ; percRandomRespondents <= 1.0 ; percRandomRespondents += granularity) {
-            List<AbstractSurveyResponse> srs = Simulation.simulate(survey, 100, percRandomRespondents);
-            rocList.add(Simulation.analyze(survey, srs, classifier));
+        List<Double> percentages = new ArrayList<Double>();
+        for (double percRandomRespondents = 0.0 ; percRandomRespondents <= 1.0 ; percRandomRespondents += granularity)
+            percentages.add(percRandomRespondents);
+        final int numPoints = percentages.size();
+        final int classificationThreads = Math.max(1, threads / numPoints);
+        // the block graph is built once and shared by the path statistics, as is the entropy index by the ROC points
+        final PathAnalyzer pathAnalyzer = new PathAnalyzer(survey);
+        final SurveyEntropy surveyEntropy = new SurveyEntropy(survey);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Simulation.ROC>> rocs = new ArrayList<Future<Simulation.ROC>>();
+            for (int i = 0 ; i < numPoints ; i++) {
+                final int task = i;
+                final double percRandomRespondents = percentages.get(i);
+                rocs.add(executorService.submit(new Callable<Simulation.ROC>() {
+                    @Override
+                    public Simulation.ROC call() throws SurveyException {
+                        Random random = RandomSource.stream(seed, task);
+                        List<AbstractSurveyResponse> srs = Simulation.simulate(survey, 100, percRandomRespondents, random);
+                        return Simulation.analyze(survey, srs, classifier, classificationThreads, random.nextLong(),
+                                surveyEntropy);
+                    }
+                }));
+            }
+            Future<Integer> minPathLength = executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return pathAnalyzer.getMinimumPathLength();
+                }
+            });
+            Future<Integer> maxPathLength = executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return pathAnalyzer.getMaximumPathLength();
+                }
+            });
+            Future<Double> avgPathLength = executorService.submit(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return pathAnalyzer.getExpectedPathLength();
+                }
+            });
+            Future<Double> maxPossibleEntropy = executorService.submit(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return pathAnalyzer.getMaxPossibleEntropy();
+                }
+            });
+            Future<Map<Question, Map<Question, CorrelationStruct>>> randomCorrelations = executorService.submit(
+                    new Callable<Map<Question, Map<Question, CorrelationStruct>>>() {
+                        @Override
+                        public Map<Question, Map<Question, CorrelationStruct>> call() throws SurveyException {
+                            return QCMetrics.getFrequenciesOfRandomCorrelation(
+                                    survey, n, alpha, RandomSource.stream(seed, numPoints + 1));
+                        }
+                    });
+            FalseCorrelation falseCorrelation = FalseCorrelation.estimate(survey, n,
+                    QCMetrics.falseCorrelationReplicates, FalseCorrelation.DEFAULT_THRESHOLD, executorService,
+                    RandomSource.mix(seed, numPoints + 2));
+            double[] falseCorrelationInterval = falseCorrelation.getConfidenceInterval(0.95);
+            List<Simulation.ROC> rocList = new ArrayList<Simulation.ROC>();
+            for (Future<Simulation.ROC> roc : rocs)
+                rocList.add(await(roc));
+            return new Report(
+                    survey.sourceName,
+                    survey.sid,
+                    await(minPathLength),
+                    await(maxPathLength),
+                    await(avgPathLength),
+                    await(maxPossibleEntropy),
+                    await(randomCorrelations),
+                    rocList,
+                    falseCorrelation.getRate(),
+                    falseCorrelationInterval[0],
+                    falseCorrelationInterval[1]
+            );
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the static analysis, reusing a cached report when the same survey has already been analyzed with the same
+     * parameters and seed. See the uncached method.
+     * @param survey The survey to analyze.
+     * @param classifier The type of classifier to use for bad actors.
+     * @param n The total number of respondents to simulate when estimating random correlation.
+     * @param granularity The granularity of random respondents to increment by.
+     * @param alpha The cutoff.
+     * @param threads The size of the worker pool.
+     * @param seed The master seed for the analysis.
+     * @param cache The cache to read the report from and write it to; null to bypass the cache.
+     * @return The static analysis report.
+     * @throws SurveyException
+     */
+    public static Report staticAnalysis(
+            Survey survey,
+            Classifier classifier,
+            int n,
+            double granularity,
+            double alpha,
+            int threads,
+            long seed,
+            ReportCache cache) throws SurveyException {
+        if (cache == null)
+            return staticAnalysis(survey, classifier, n, granularity, alpha, threads, seed);
+        String key = ReportCache.getKey(survey, classifier, n, granularity, alpha, seed);
+        Report report = cache.get(key, survey);
+        if (report != null) {
+            // the rules are cheap, and a report should never be served for a survey that no longer passes them
+            wellFormednessChecks(survey);
+            SurveyMan.LOGGER.info("Using cached static analysis report " + key);
+            return report;
+        }
+        report = staticAnalysis(survey, classifier, n, granularity, alpha, threads, seed);
+        cache.put(key, report);
+        return report;
+    }
+
+    private static <T> T await(
+            Future<T> future)
+            throws SurveyException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof SurveyException)
+                throw (SurveyException) ee.getCause();
+            if (ee.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
         }
-        return new Report(
-                survey.sourceName,
-                survey.sid,
-                QCMetrics.minimumPathLength(survey),
-                QCMetrics.maximumPathLength(survey),
-                QCMetrics.averagePathLength(survey),
-                QCMetrics.getMaxPossibleEntropy(survey),
-                QCMetrics.getFrequenciesOfRandomCorrelation(survey, n, alpha),
-                rocList
-        );
     }
 }
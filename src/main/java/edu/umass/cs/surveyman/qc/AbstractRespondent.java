@@ -1,5 +1,6 @@
 package edu.umass.cs.surveyman.qc;
 
+import clojure.lang.IFn;
 import clojure.lang.PersistentVector;
 import clojure.lang.RT;
 import clojure.lang.Symbol;
@@ -7,8 +8,12 @@ import clojure.lang.Var;
 import edu.umass.cs.surveyman.SurveyMan;
 import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
 import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.utils.RandomSource;
+import edu.umass.cs.surveyman.utils.RegexGenerator;
 import org.apache.logging.log4j.Logger;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 
 /**
@@ -17,7 +22,22 @@ import java.util.Random;
 public abstract class AbstractRespondent {
 
     public static final Logger LOGGER = SurveyMan.LOGGER;
-    protected static final Random rng = Interpreter.random;
+    /**
+     * The stream all of this respondent's choices, including those made by its interpreter, are drawn from.
+     */
+    protected final Random rng;
+    // compiled freetext generators, shared by all respondents and keyed by pattern
+    private static final Map<String, RegexGenerator> generators = new HashMap<String, RegexGenerator>();
+    // compiled re-rand forms for the patterns the generators do not support, keyed the same way
+    private static final Map<String, IFn> fallbacks = new HashMap<String, IFn>();
+
+    protected AbstractRespondent() {
+        this(RandomSource.current());
+    }
+
+    protected AbstractRespondent(Random rng) {
+        this.rng = rng;
+    }
 
 
     public abstract AbstractSurveyResponse getResponse();
@@ -31,12 +51,10 @@ public abstract class AbstractRespondent {
 
     protected String generateStringComponent(Question q) {
         if (q.freetextPattern!=null){
-            String pat = String.format("(re-rand/re-rand #\"%s\")", q.freetextPattern.pattern());
-            Var require = RT.var("clojure.core", "require");
-            Var eval = RT.var("clojure.core", "eval");
-            Var readString = RT.var("clojure.core", "read-string");
-            require.invoke(Symbol.intern("re-rand"));
-            Object str = eval.invoke(readString.invoke(pat));
+            RegexGenerator generator = getGenerator(q.freetextPattern.pattern());
+            if (generator != null)
+                return generator.generate(rng);
+            Object str = getFallback(q.freetextPattern.pattern()).invoke();
             if (str instanceof String)
                 return (String) str;
             return (String) ((PersistentVector) str).nth(0);
@@ -45,7 +63,46 @@ public abstract class AbstractRespondent {
         else return "DEFAULT";
     }
 
+    /**
+     * Returns the compiled generator for a freetext pattern, compiling it on first use. Patterns the native generator
+     * cannot handle are remembered and left to re-rand.
+     * @param regex The freetext pattern.
+     * @return The generator, or null if the pattern is not supported.
+     */
+    private static RegexGenerator getGenerator(String regex) {
+        synchronized (generators) {
+            if (generators.containsKey(regex))
+                return generators.get(regex);
+            RegexGenerator generator = null;
+            try {
+                generator = RegexGenerator.compile(regex);
+            } catch (IllegalArgumentException iae) {
+                LOGGER.warn(String.format("Falling back to re-rand for freetext pattern %s: %s", regex, iae.getMessage()));
+            }
+            generators.put(regex, generator);
+            return generator;
+        }
+    }
 
-
+    /**
+     * Returns a re-rand function for a freetext pattern, reading and evaluating it on first use.
+     * @param regex The freetext pattern.
+     * @return A function of no arguments that generates a string matching the pattern.
+     */
+    private static IFn getFallback(String regex) {
+        synchronized (fallbacks) {
+            IFn fallback = fallbacks.get(regex);
+            if (fallback == null) {
+                String pat = String.format("(fn [] (re-rand/re-rand #\"%s\"))", regex);
+                Var require = RT.var("clojure.core", "require");
+                Var eval = RT.var("clojure.core", "eval");
+                Var readString = RT.var("clojure.core", "read-string");
+                require.invoke(Symbol.intern("re-rand"));
+                fallback = (IFn) eval.invoke(readString.invoke(pat));
+                fallbacks.put(regex, fallback);
+            }
+            return fallback;
+        }
+    }
 
 }
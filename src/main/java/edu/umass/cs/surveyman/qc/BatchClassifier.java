@@ -0,0 +1,382 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.SurveyMan;
+import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
+import edu.umass.cs.surveyman.output.ClassificationStruct;
+import edu.umass.cs.surveyman.output.ClassifiedRespondentsStruct;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.RandomSource;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Classifies every response in a sample against a single shared model. The frequency and probability tables are built
+ * once for the whole sample, and every response is compiled against the resulting {@link ProbabilityModel} once, so
+ * the scoring loops run over primitive arrays. Log likelihood reference distributions depend only on which questions
+ * (up to variants) a respondent answered, so they are bootstrapped once per distinct answered-question set and reused
+ * by every respondent having that set. The entropy reference distribution does not depend on the respondent at all and
+ * is bootstrapped once.
+ *
+ * Classification can be split across several threads. Each worker takes a contiguous slice of the responses. The
+ * references are shared by the workers and bootstrapped once each, from a random stream derived from the master seed
+ * and the answered-question set (numbered in order of first appearance in the sample), so the output is identical for
+ * a given seed whatever the number of threads.
+ */
+public class BatchClassifier {
+
+    /**
+     * The bootstrapped reference for one answered-question set.
+     */
+    private static class Reference {
+
+        final boolean discriminating;
+        final double threshold;
+
+        Reference(boolean discriminating, double threshold)
+        {
+            this.discriminating = discriminating;
+            this.threshold = threshold;
+        }
+    }
+
+    public final Survey survey;
+    public final Classifier classifier;
+    public final double alpha;
+    private final List<AbstractSurveyResponse> responses;
+    private final ProbabilityModel model;
+    private final Map<Question, Integer> variantSetOrdinals = new HashMap<Question, Integer>();
+    private final CompiledResponse[] compiledResponses;
+    // the answered-question sets of the sample, numbered in order of first appearance; they index the seeded streams
+    private final Map<BitSet, Integer> answeredOrdinals = new HashMap<BitSet, Integer>();
+    private Worker defaultWorker = null;
+
+    /**
+     * Builds the shared model for the input responses.
+     * @param survey The survey these respondents answered.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param classifier The enum corresponding to the classifier type.
+     * @param smoothing A boolean value indicating whether the frequencies of responses should be smoothed.
+     * @param alpha The cutoff used for determining whether validity is exceptionally low.
+     */
+    public BatchClassifier(
+            Survey survey,
+            List<AbstractSurveyResponse> responses,
+            Classifier classifier,
+            boolean smoothing,
+            double alpha)
+    {
+        if (classifier != Classifier.LOG_LIKELIHOOD && classifier != Classifier.ENTROPY)
+            throw new RuntimeException("Unknown classification policy: "+classifier);
+        this.survey = survey;
+        this.responses = responses;
+        this.classifier = classifier;
+        this.alpha = alpha;
+        this.model = new ProbabilityModel(
+                QCMetrics.makeProbabilities(QCMetrics.makeFrequencies(responses, smoothing ? survey : null)));
+        this.compiledResponses = new CompiledResponse[responses.size()];
+        for (int i = 0; i < compiledResponses.length; i++) {
+            compiledResponses[i] = new CompiledResponse(responses.get(i), model, variantSetOrdinals);
+            if (!answeredOrdinals.containsKey(compiledResponses[i].answered))
+                answeredOrdinals.put(compiledResponses[i].answered, answeredOrdinals.size());
+        }
+    }
+
+    /**
+     * Classifies a slice of the responses. References, and the entropy threshold, are memoized in tables that may be
+     * shared with other workers; whichever worker first needs one computes it, and the others wait for it.
+     */
+    private class Worker implements Callable<List<ClassificationStruct>> {
+
+        // the stream every bootstrap is drawn from, or null if each reference draws from its own seeded stream
+        private final Bootstrap bootstrap;
+        private final long seed;
+        private final int from;
+        private final int to;
+        private final ConcurrentMap<BitSet, FutureTask<Reference>> references;
+        private final FutureTask<Double> entropyThreshold;
+
+        /**
+         * A worker that draws every bootstrap from one stream, in the order its references are first needed.
+         */
+        Worker(Random random, int from, int to)
+        {
+            this.bootstrap = new Bootstrap(random);
+            this.seed = 0L;
+            this.from = from;
+            this.to = to;
+            this.references = new ConcurrentHashMap<BitSet, FutureTask<Reference>>();
+            this.entropyThreshold = newEntropyThreshold(bootstrap, seed);
+        }
+
+        /**
+         * A worker that shares seeded references with the other workers over the same sample.
+         */
+        Worker(
+                long seed,
+                int from,
+                int to,
+                ConcurrentMap<BitSet, FutureTask<Reference>> references,
+                FutureTask<Double> entropyThreshold)
+        {
+            this.bootstrap = null;
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+            this.references = references;
+            this.entropyThreshold = entropyThreshold;
+        }
+
+        /**
+         * Resamples the input scores with replacement and returns the alpha quantile of the resampled means.
+         * @param scores One score per response in the sample.
+         * @param task The index of the seeded stream to draw from, if this worker does not have a stream of its own.
+         * @return The threshold below which a score is considered exceptional.
+         */
+        private double bootstrapThreshold(
+                double[] scores,
+                long task)
+        {
+            return BatchClassifier.this.bootstrapThreshold(bootstrap, seed, scores, task);
+        }
+
+        /**
+         * Computes (or retrieves) the reference for the answered-question set of the input response. The log
+         * likelihoods of every response, restricted to the questions the base answered, are computed once; a reference
+         * is only discriminating if those likelihoods take more than five distinct values.
+         * @param base The response whose answered-question set we want the reference for.
+         * @return The shared reference.
+         */
+        private Reference getReference(
+                final CompiledResponse base)
+        {
+            FutureTask<Reference> reference = references.get(base.answered);
+            if (reference == null) {
+                reference = new FutureTask<Reference>(new Callable<Reference>() {
+                    @Override
+                    public Reference call() {
+                        return computeReference(base);
+                    }
+                });
+                FutureTask<Reference> existing = references.putIfAbsent(base.answered, reference);
+                if (existing != null)
+                    reference = existing;
+            }
+            reference.run();
+            return await(reference);
+        }
+
+        private Reference computeReference(
+                CompiledResponse base)
+        {
+            double[] scores = new double[compiledResponses.length];
+            Set<Double> distinct = new HashSet<Double>();
+            for (int i = 0; i < compiledResponses.length; i++) {
+                CompiledResponse sr = compiledResponses[i];
+                scores[i] = sr.subsetLogLikelihood(base, model);
+                if (sr.covers(base))
+                    distinct.add(scores[i]);
+            }
+            if (distinct.size() <= 5)
+                return new Reference(false, 0.0);
+            if (classifier != Classifier.LOG_LIKELIHOOD)
+                return new Reference(true, 0.0);
+            // responses classified one at a time may have answered a set the sample did not
+            Integer ordinal = answeredOrdinals.get(base.answered);
+            return new Reference(true, bootstrapThreshold(scores, ordinal == null ? -1 : ordinal));
+        }
+
+        /**
+         * Returns the entropy threshold, bootstrapping it from the entropies of all responses on first use.
+         * @return The shared entropy threshold.
+         */
+        private double getEntropyThreshold()
+        {
+            entropyThreshold.run();
+            return await(entropyThreshold);
+        }
+
+        /**
+         * Returns true if the response is valid. Sets the response's score and threshold when the reference
+         * distribution is discriminating.
+         * @param compiledResponse The survey response we are classifying.
+         * @return Whether the response is classified as valid.
+         */
+        public boolean classify(
+                CompiledResponse compiledResponse)
+        {
+            AbstractSurveyResponse sr = compiledResponse.response;
+            Reference reference = getReference(compiledResponse);
+            if (!reference.discriminating)
+                return true;
+            switch (classifier) {
+                case LOG_LIKELIHOOD:
+                    double thisLL = model.logLikelihood(compiledResponse.options);
+                    sr.setScore(thisLL);
+                    sr.setThreshold(reference.threshold);
+                    return thisLL > reference.threshold;
+                case ENTROPY:
+                    double thisEnt = model.entropy(compiledResponse.options);
+                    double threshHold = getEntropyThreshold();
+                    sr.setThreshold(threshHold);
+                    sr.setScore(thisEnt);
+                    SurveyMan.LOGGER.debug(String.format("This entropy: %f\tThis threshold:%f", thisEnt, threshHold));
+                    return thisEnt < threshHold;
+                default:
+                    throw new RuntimeException("Unknown classification policy: "+classifier);
+            }
+        }
+
+        @Override
+        public List<ClassificationStruct> call()
+        {
+            List<ClassificationStruct> classificationStructs = new ArrayList<ClassificationStruct>();
+            for (int i = from; i < to; i++) {
+                boolean valid = classify(compiledResponses[i]);
+                AbstractSurveyResponse sr = compiledResponses[i].response;
+                classificationStructs.add(new ClassificationStruct(
+                        sr,
+                        classifier,
+                        compiledResponses[i].numAnswered,
+                        sr.getScore(),
+                        sr.getThreshold(),
+                        valid));
+            }
+            return classificationStructs;
+        }
+    }
+
+    /**
+     * Resamples the input scores with replacement and returns the alpha quantile of the resampled means.
+     * @param bootstrap The bootstrap to draw from, or null to draw from a seeded stream.
+     * @param seed The master seed of the seeded streams.
+     * @param scores One score per response in the sample.
+     * @param task The index of the seeded stream.
+     * @return The threshold below which a score is considered exceptional.
+     */
+    private double bootstrapThreshold(
+            Bootstrap bootstrap,
+            long seed,
+            double[] scores,
+            long task)
+    {
+        Bootstrap b = bootstrap == null ? new Bootstrap(RandomSource.stream(seed, task)) : bootstrap;
+        return b.quantile(scores, alpha);
+    }
+
+    private FutureTask<Double> newEntropyThreshold(
+            final Bootstrap bootstrap,
+            final long seed)
+    {
+        return new FutureTask<Double>(new Callable<Double>() {
+            @Override
+            public Double call() {
+                double[] scores = new double[compiledResponses.length];
+                for (int i = 0; i < compiledResponses.length; i++)
+                    scores[i] = model.entropy(compiledResponses[i].options);
+                assert scores.length > 0 : "Sample size must be greater than 0.";
+                // the stream after those of the answered-question sets
+                return bootstrapThreshold(bootstrap, seed, scores, answeredOrdinals.size());
+            }
+        });
+    }
+
+    private static <T> T await(
+            Future<T> future)
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    private Worker getDefaultWorker()
+    {
+        if (defaultWorker == null)
+            defaultWorker = new Worker(RandomSource.current(), 0, responses.size());
+        return defaultWorker;
+    }
+
+    /**
+     * Returns true if the response is valid. Sets the response's score and threshold when the reference distribution
+     * is discriminating.
+     * @param sr The survey response we are classifying.
+     * @return Whether the response is classified as valid.
+     * @throws SurveyException
+     */
+    public boolean classify(
+            AbstractSurveyResponse sr)
+            throws SurveyException
+    {
+        return getDefaultWorker().classify(new CompiledResponse(sr, model, variantSetOrdinals));
+    }
+
+    /**
+     * Classifies every response in the sample. The AbstractSurveyResponse objects will hold the computed
+     * classification.
+     * @return A ClassifiedRespondentsStruct object containing all of the values just computed.
+     * @throws SurveyException
+     */
+    public ClassifiedRespondentsStruct classifyResponses()
+            throws SurveyException
+    {
+        ClassifiedRespondentsStruct classificationStructs = new ClassifiedRespondentsStruct();
+        classificationStructs.addAll(getDefaultWorker().call());
+        return classificationStructs;
+    }
+
+    /**
+     * Classifies every response in the sample, splitting the work across threads. The output depends only on the
+     * sample and the seed.
+     * @param threads The number of workers to split the responses across.
+     * @param seed The master seed from which the references' random streams are derived.
+     * @return A ClassifiedRespondentsStruct object containing all of the values just computed, in input order.
+     * @throws SurveyException
+     */
+    public ClassifiedRespondentsStruct classifyResponses(
+            int threads,
+            long seed)
+            throws SurveyException
+    {
+        if (threads < 1)
+            throw new RuntimeException("Number of threads must be positive, was "+threads);
+        int sliceSize = (int) Math.ceil(responses.size() / (double) threads);
+        ConcurrentMap<BitSet, FutureTask<Reference>> references =
+                new ConcurrentHashMap<BitSet, FutureTask<Reference>>();
+        FutureTask<Double> entropyThreshold = newEntropyThreshold(null, seed);
+        List<Worker> workers = new ArrayList<Worker>();
+        for (int i = 0; i < threads; i++) {
+            int from = Math.min(i * sliceSize, responses.size());
+            int to = Math.min(from + sliceSize, responses.size());
+            workers.add(new Worker(seed, from, to, references, entropyThreshold));
+        }
+        ClassifiedRespondentsStruct classificationStructs = new ClassifiedRespondentsStruct();
+        if (threads == 1) {
+            classificationStructs.addAll(workers.get(0).call());
+            return classificationStructs;
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<List<ClassificationStruct>> future : executorService.invokeAll(workers))
+                classificationStructs.addAll(future.get());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof SurveyException)
+                throw (SurveyException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            executorService.shutdown();
+        }
+        return classificationStructs;
+    }
+}
@@ -0,0 +1,190 @@
+package edu.umass.cs.surveyman.qc;
+
+import java.util.Random;
+
+/**
+ * Bootstraps the sampling distribution of the mean of a sample of scores. Resamples are drawn by index into the score
+ * array, so no resampled collections are ever built; the resampled means are kept in a primitive buffer that is reused
+ * across calls, and the requested quantile is found by selection rather than by sorting.
+ *
+ * The estimate can stop early: every {@link #checkInterval} iterations (after the first {@link #minIterations}) the
+ * current quantile is compared against the one from the previous check, and resampling stops once it has moved by no
+ * more than {@link #tolerance} standard deviations of the means seen so far. A tolerance of zero always runs the full
+ * number of iterations.
+ *
+ * Instances are not thread safe; each thread should use its own, with its own random stream.
+ */
+public class Bootstrap {
+
+    public final int iterations;
+    public final double tolerance;
+    public final int minIterations;
+    public final int checkInterval;
+    private final Random random;
+    private double[] means;
+    private double[] scratch;
+    private int lastIterations = 0;
+
+    /**
+     * @param random The random stream resample indices are drawn from.
+     * @param iterations The maximum number of resamples.
+     * @param tolerance The convergence tolerance, in standard deviations of the resampled means. Zero disables early
+     *                  stopping.
+     */
+    public Bootstrap(
+            Random random,
+            int iterations,
+            double tolerance)
+    {
+        this(random, iterations, tolerance, Math.min(iterations, 500), 250);
+    }
+
+    /**
+     * @param random The random stream resample indices are drawn from.
+     * @param iterations The maximum number of resamples.
+     * @param tolerance The convergence tolerance, in standard deviations of the resampled means. Zero disables early
+     *                  stopping.
+     * @param minIterations The number of resamples drawn before convergence is first checked.
+     * @param checkInterval The number of resamples between convergence checks.
+     */
+    public Bootstrap(
+            Random random,
+            int iterations,
+            double tolerance,
+            int minIterations,
+            int checkInterval)
+    {
+        if (iterations < 1)
+            throw new RuntimeException("Number of bootstrap iterations must be positive, was "+iterations);
+        if (checkInterval < 1)
+            throw new RuntimeException("Bootstrap check interval must be positive, was "+checkInterval);
+        this.random = random;
+        this.iterations = iterations;
+        this.tolerance = tolerance;
+        this.minIterations = minIterations;
+        this.checkInterval = checkInterval;
+        this.means = new double[iterations];
+        this.scratch = new double[iterations];
+    }
+
+    /**
+     * Uses the iteration count and tolerance in {@link QCMetrics}.
+     * @param random The random stream resample indices are drawn from.
+     */
+    public Bootstrap(
+            Random random)
+    {
+        this(random, QCMetrics.bootstrapIterations, QCMetrics.bootstrapTolerance);
+    }
+
+    /**
+     * Returns the number of resamples drawn by the last call to {@link #quantile(double[], double)}.
+     * @return The number of resamples.
+     */
+    public int getLastIterations()
+    {
+        return lastIterations;
+    }
+
+    /**
+     * Resamples the input scores with replacement and returns the alpha quantile of the resampled means.
+     * @param scores One score per response in the sample.
+     * @param alpha The quantile, between 0 and 1.
+     * @return The score at position floor(alpha * n) of the n ranked resampled means.
+     */
+    public double quantile(
+            double[] scores,
+            double alpha)
+    {
+        assert scores.length > 0 : "Sample size must be greater than 0.";
+        int n = scores.length;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        // running mean and sum of squared deviations of the resampled means (Welford)
+        double mean = 0.0, m2 = 0.0;
+        double previous = Double.NaN;
+        int i = 0;
+        while (i < iterations) {
+            double total = 0.0;
+            for (int j = 0; j < n; j++)
+                total += scores[random.nextInt(n)];
+            double m = total / n;
+            means[i++] = m;
+            min = Math.min(min, m);
+            max = Math.max(max, m);
+            double delta = m - mean;
+            mean += delta / i;
+            m2 += delta * (m - mean);
+            if (tolerance > 0 && i >= minIterations && i < iterations && (i - minIterations) % checkInterval == 0) {
+                double current = select(means, i, alpha);
+                double sd = Math.sqrt(m2 / i);
+                if (!Double.isNaN(previous) && Math.abs(current - previous) <= tolerance * sd)
+                    break;
+                previous = current;
+            }
+        }
+        lastIterations = i;
+        assert min < max :
+                String.format("Ranked means expected mean at position 0 to be less than the mean at %d (%f < %f).",
+                        i, min, max);
+        return select(means, i, alpha);
+    }
+
+    private double select(
+            double[] values,
+            int n,
+            double alpha)
+    {
+        System.arraycopy(values, 0, scratch, 0, n);
+        return select(scratch, n, Math.min((int) Math.floor(alpha * n), n - 1));
+    }
+
+    /**
+     * Returns the k-th smallest of the first n values, partially reordering them in place (Hoare's selection with a
+     * median-of-three pivot).
+     * @param values The array to select from.
+     * @param n The number of leading values to consider.
+     * @param k The zero-based rank to return.
+     * @return The value that would be at index k if the first n values were sorted.
+     */
+    static double select(
+            double[] values,
+            int n,
+            int k)
+    {
+        assert k >= 0 && k < n : String.format("Rank %d out of range for %d values", k, n);
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < values[lo]) swap(values, mid, lo);
+            if (values[hi] < values[lo]) swap(values, hi, lo);
+            if (values[hi] < values[mid]) swap(values, hi, mid);
+            double pivot = values[mid];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else return values[k];
+        }
+        return values[k];
+    }
+
+    private static void swap(
+            double[] values,
+            int i,
+            int j)
+    {
+        double tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+    }
+}
@@ -0,0 +1,100 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.Question;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A survey response translated against a {@link ProbabilityModel}, for use in the classifiers' scoring loops. Every
+ * selected option is stored as a model ordinal together with the ordinal of its question's variant set (the set of
+ * questions {@link Question#getVariants()} considers interchangeable), so that the log likelihood of the subset of
+ * answers matching another response's questions can be computed without looking anything up.
+ */
+class CompiledResponse {
+
+    final AbstractSurveyResponse response;
+    final int[] options;
+    final int[] variantSets;
+    final BitSet answered = new BitSet();
+    final int numAnswered;
+
+    /**
+     * @param response The response to compile.
+     * @param model The model to translate options against.
+     * @param variantSetOrdinals Ordinals of the variant sets seen so far, keyed by the first question of the set. New
+     *                           variant sets are added to this map.
+     */
+    CompiledResponse(
+            AbstractSurveyResponse response,
+            ProbabilityModel model,
+            Map<Question, Integer> variantSetOrdinals)
+    {
+        this.response = response;
+        List<IQuestionResponse> questionResponses = response.getNonCustomResponses();
+        this.numAnswered = questionResponses.size();
+        this.options = model.getOrdinals(questionResponses);
+        this.variantSets = new int[options.length];
+        int i = 0;
+        for (IQuestionResponse qr : questionResponses) {
+            int variantSet = getVariantSetOrdinal(qr.getQuestion(), variantSetOrdinals);
+            answered.set(variantSet);
+            for (OptTuple ignored : qr.getOpts())
+                variantSets[i++] = variantSet;
+        }
+    }
+
+    private static int getVariantSetOrdinal(
+            Question q,
+            Map<Question, Integer> variantSetOrdinals)
+    {
+        Question representative = q.getVariants().get(0);
+        Integer ordinal = variantSetOrdinals.get(representative);
+        if (ordinal == null) {
+            ordinal = variantSetOrdinals.size();
+            variantSetOrdinals.put(representative, ordinal);
+        }
+        return ordinal;
+    }
+
+    /**
+     * Returns true if this response answered every variant set the base answered, i.e. if
+     * {@link QCMetrics#getResponseSubset} would return a non-empty list.
+     * @param base The response whose questions we are matching.
+     * @return Whether the subset is non-empty.
+     */
+    boolean covers(
+            CompiledResponse base)
+    {
+        if (base.numAnswered == 0)
+            return false;
+        for (int i = base.answered.nextSetBit(0); i >= 0; i = base.answered.nextSetBit(i + 1))
+            if (!answered.get(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the log likelihood of this response's answers to the variant sets the base answered; 0 if this response
+     * does not cover the base.
+     * @param base The response whose questions we are matching.
+     * @param model The model this response was compiled against.
+     * @return The subset log likelihood.
+     */
+    double subsetLogLikelihood(
+            CompiledResponse base,
+            ProbabilityModel model)
+    {
+        if (!covers(base))
+            return 0.0;
+        double ll = 0.0;
+        for (int k = 0; k < options.length; k++)
+            if (base.answered.get(variantSets[k]))
+                ll += model.getLogProbability(options[k]);
+        return ll;
+    }
+}
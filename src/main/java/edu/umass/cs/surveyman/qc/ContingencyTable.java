@@ -0,0 +1,197 @@
+package edu.umass.cs.surveyman.qc;
+
+import org.apache.commons.math3.distribution.ChiSquaredDistribution;
+
+/**
+ * A table of counts over two categorical variables, stored row-major in one int array.
+ *
+ * Row and column totals are kept up to date as counts are added, so the expected count of a cell is available in
+ * constant time and the chi-squared statistic, and everything derived from it, costs O(rows * cols). Tables of the
+ * same shape counted separately (for instance, by parallel workers) can be merged.
+ */
+public class ContingencyTable {
+
+    public final int numRows;
+    public final int numCols;
+    private final int[] counts;
+    private final int[] rowTotals;
+    private final int[] colTotals;
+    private int total = 0;
+
+    /**
+     * Creates an empty table.
+     * @param numRows The number of categories of the first variable.
+     * @param numCols The number of categories of the second variable.
+     */
+    public ContingencyTable(
+            int numRows,
+            int numCols)
+    {
+        if ((long) numRows * numCols > Integer.MAX_VALUE)
+            throw new RuntimeException(String.format("Too many contingency cells for %d by %d categories.",
+                    numRows, numCols));
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.counts = new int[numRows * numCols];
+        this.rowTotals = new int[numRows];
+        this.colTotals = new int[numCols];
+    }
+
+    /**
+     * Copies a table of counts.
+     * @param table The counts, indexed by row and then column; every row must have the same length.
+     */
+    public ContingencyTable(
+            int[][] table)
+    {
+        this(table.length, table.length == 0 ? 0 : table[0].length);
+        for (int r = 0; r < numRows; r++)
+            for (int c = 0; c < numCols; c++)
+                add(r, c, table[r][c]);
+    }
+
+    /**
+     * Adds to the count of one cell.
+     * @param row The row category.
+     * @param col The column category.
+     * @param count The number of observations to add.
+     */
+    public void add(
+            int row,
+            int col,
+            int count)
+    {
+        counts[row * numCols + col] += count;
+        rowTotals[row] += count;
+        colTotals[col] += count;
+        total += count;
+    }
+
+    /**
+     * Counts one observation.
+     * @param row The row category.
+     * @param col The column category.
+     */
+    public void increment(
+            int row,
+            int col)
+    {
+        add(row, col, 1);
+    }
+
+    /**
+     * Adds every count of another table of the same shape to this one.
+     * @param that The table to merge in; it is not modified.
+     */
+    public void merge(
+            ContingencyTable that)
+    {
+        if (this.numRows != that.numRows || this.numCols != that.numCols)
+            throw new RuntimeException(String.format("Cannot merge a %d by %d table into a %d by %d table.",
+                    that.numRows, that.numCols, this.numRows, this.numCols));
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += that.counts[i];
+        for (int r = 0; r < numRows; r++)
+            rowTotals[r] += that.rowTotals[r];
+        for (int c = 0; c < numCols; c++)
+            colTotals[c] += that.colTotals[c];
+        total += that.total;
+    }
+
+    public int get(
+            int row,
+            int col)
+    {
+        return counts[row * numCols + col];
+    }
+
+    public int getRowTotal(
+            int row)
+    {
+        return rowTotals[row];
+    }
+
+    public int getColTotal(
+            int col)
+    {
+        return colTotals[col];
+    }
+
+    public int getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * @return A copy of the counts, indexed by row and then column.
+     */
+    public int[][] toArray()
+    {
+        int[][] table = new int[numRows][numCols];
+        for (int r = 0; r < numRows; r++)
+            System.arraycopy(counts, r * numCols, table[r], 0, numCols);
+        return table;
+    }
+
+    /**
+     * Computes Pearson's chi-squared statistic for independence. Cells in empty rows or columns, whose expected count is
+     * 0, are skipped.
+     * @return The statistic.
+     */
+    public double chiSquared()
+    {
+        double testStatistic = 0.0;
+        if (total == 0)
+            return testStatistic;
+        for (int r = 0; r < numRows; r++) {
+            if (rowTotals[r] == 0)
+                continue;
+            for (int c = 0; c < numCols; c++) {
+                double eij = rowTotals[r] * (double) colTotals[c] / total;
+                if (eij == 0.0)
+                    continue;
+                double diff = counts[r * numCols + c] - eij;
+                testStatistic += diff * diff / eij;
+            }
+        }
+        return testStatistic;
+    }
+
+    /**
+     * @return The degrees of freedom of the chi-squared statistic, counting only rows and columns with observations.
+     */
+    public int getDegreesOfFreedom()
+    {
+        int rows = 0, cols = 0;
+        for (int r = 0; r < numRows; r++)
+            if (rowTotals[r] > 0)
+                rows++;
+        for (int c = 0; c < numCols; c++)
+            if (colTotals[c] > 0)
+                cols++;
+        return Math.max(0, rows - 1) * Math.max(0, cols - 1);
+    }
+
+    /**
+     * @return The p-value of the chi-squared test for independence, or 1 if there are no degrees of freedom.
+     */
+    public double getPValue()
+    {
+        int df = getDegreesOfFreedom();
+        if (df < 1)
+            return 1.0;
+        return 1.0 - new ChiSquaredDistribution(df).cumulativeProbability(chiSquared());
+    }
+
+    /**
+     * Computes Cram&eacute;r's V.
+     * @return V, or 0 if either variable has fewer than two categories or the table is empty.
+     */
+    public double cramersV()
+    {
+        int k = Math.min(numRows, numCols);
+        if (k < 2 || total == 0)
+            return 0.0;
+        return Math.sqrt((chiSquared() / total) / (k - 1));
+    }
+}
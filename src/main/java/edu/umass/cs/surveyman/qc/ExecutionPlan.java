@@ -0,0 +1,518 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
+import edu.umass.cs.surveyman.analyses.KnownValidityStatus;
+import edu.umass.cs.surveyman.analyses.SimulatedSurveyResponse;
+import edu.umass.cs.surveyman.survey.Block;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.Gensym;
+
+import java.util.*;
+
+/**
+ * A survey compiled for simulation. Compiling walks the block tree once and records everything the {@link Interpreter}
+ * would otherwise re-derive for every respondent: the randomized and fixed top-level blocks, each block's questions and
+ * sub-blocks, the variant sets of ALL blocks, every question's options in source order and the top-level block each
+ * branch option jumps to. All of these are stored as ordinal arrays, and the plan is never modified after construction,
+ * so one plan can be shared by any number of respondents and threads.
+ *
+ * Respondents walk the plan with a {@link Cursor}, which holds the (small) per-respondent state: the shuffled block
+ * order, the questions of the current block, any pending branch and the answers given so far. A cursor visits questions
+ * with the same distribution as the {@link Interpreter}.
+ *
+ * The plan reflects the survey at the time it was compiled; compile a new plan if the survey changes.
+ */
+public class ExecutionPlan {
+
+    private static final Gensym gensym = new Gensym("sr");
+    private static final int NO_BRANCH = -1;
+
+    /**
+     * A compiled block.
+     */
+    private static class BlockPlan {
+
+        final Block block;
+        // ordinals of the questions directly in this block
+        final int[] questions;
+        // sub-blocks that may float among this block's contents
+        final BlockPlan[] randomizable;
+        // sub-blocks that keep their relative order
+        final BlockPlan[] fixed;
+        // for blocks with the ALL branch paradigm, the ordinals of the interchangeable questions; otherwise null
+        final int[] variants;
+        // the number of questions a respondent sees in this block
+        final int numQuestions;
+
+        BlockPlan(
+                Block block,
+                int[] questions,
+                BlockPlan[] randomizable,
+                BlockPlan[] fixed,
+                int[] variants)
+        {
+            this.block = block;
+            this.questions = questions;
+            this.randomizable = randomizable;
+            this.fixed = fixed;
+            this.variants = variants;
+            int n = questions.length;
+            for (BlockPlan b : randomizable)
+                n += b.variants == null ? b.numQuestions : 1;
+            for (BlockPlan b : fixed)
+                n += b.variants == null ? b.numQuestions : 1;
+            this.numQuestions = n;
+        }
+
+        int size()
+        {
+            return questions.length + randomizable.length + fixed.length;
+        }
+    }
+
+    public final Survey survey;
+    private final Question[] questions;
+    private final Map<Question, Integer> questionOrdinals = new IdentityHashMap<Question, Integer>();
+    // options of each question, indexed by their source position
+    private final Component[][] options;
+    private final boolean[] randomizeOptions;
+    private final boolean[] orderedOptions;
+    // for branch questions, the top-level ordinal each option (by source position) branches to; otherwise null
+    private final int[][] branchTargets;
+    private final BlockPlan[] topLevel;
+    private final int[] floating;
+    private final int[] fixed;
+    private final int maxBlockQuestions;
+
+    /**
+     * Compiles the survey.
+     * @param survey The survey to compile.
+     * @throws SurveyException if a question's options are malformed.
+     */
+    public ExecutionPlan(
+            Survey survey)
+            throws SurveyException
+    {
+        this.survey = survey;
+        List<Question> questionList = new ArrayList<Question>();
+        for (Question q : survey.questions)
+            getOrAddOrdinal(q, questionList);
+        // compile the blocks; questions only reachable through the block tree are given ordinals as they are found
+        this.topLevel = new BlockPlan[survey.topLevelBlocks.size()];
+        Map<Block, Integer> topLevelOrdinals = new HashMap<Block, Integer>();
+        List<Integer> fixedOrdinals = new ArrayList<Integer>();
+        int numFloating = 0;
+        int maxBlockQuestions = 0;
+        for (int i = 0; i < topLevel.length; i++) {
+            Block b = survey.topLevelBlocks.get(i);
+            topLevel[i] = compile(b, questionList);
+            // blocks are equal when their ids are; branches go to the first block with the destination's id
+            if (!topLevelOrdinals.containsKey(b))
+                topLevelOrdinals.put(b, i);
+            maxBlockQuestions = Math.max(maxBlockQuestions, topLevel[i].numQuestions);
+            if (b.isRandomized())
+                numFloating++;
+            else fixedOrdinals.add(i);
+        }
+        this.maxBlockQuestions = maxBlockQuestions;
+        Collections.sort(fixedOrdinals, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                return topLevel[o1].block.compareTo(topLevel[o2].block);
+            }
+        });
+        this.floating = new int[numFloating];
+        this.fixed = new int[fixedOrdinals.size()];
+        for (int i = 0, f = 0; i < topLevel.length; i++)
+            if (topLevel[i].block.isRandomized())
+                floating[f++] = i;
+        for (int i = 0; i < fixed.length; i++)
+            fixed[i] = fixedOrdinals.get(i);
+        // compile the questions
+        this.questions = questionList.toArray(new Question[questionList.size()]);
+        this.options = new Component[questions.length][];
+        this.randomizeOptions = new boolean[questions.length];
+        this.orderedOptions = new boolean[questions.length];
+        this.branchTargets = new int[questions.length][];
+        for (int i = 0; i < questions.length; i++) {
+            Question q = questions[i];
+            options[i] = q.getOptListByIndex();
+            randomizeOptions[i] = q.randomize;
+            orderedOptions[i] = q.ordered;
+            if (q.isBranchQuestion()) {
+                branchTargets[i] = new int[options[i].length];
+                for (int j = 0; j < options[i].length; j++) {
+                    Block dest = q.getBranchDest(options[i][j]);
+                    if (dest == null)
+                        branchTargets[i][j] = NO_BRANCH;
+                    else if (topLevelOrdinals.containsKey(dest))
+                        branchTargets[i][j] = topLevelOrdinals.get(dest);
+                    // a destination that is not a top-level block can never be reached
+                    else branchTargets[i][j] = topLevel.length;
+                }
+            }
+        }
+    }
+
+    private BlockPlan compile(
+            Block block,
+            List<Question> questionList)
+    {
+        int[] blockQuestions = new int[block.questions.size()];
+        for (int i = 0; i < blockQuestions.length; i++)
+            blockQuestions[i] = getOrAddOrdinal(block.questions.get(i), questionList);
+        List<BlockPlan> randomizable = new ArrayList<BlockPlan>();
+        List<BlockPlan> fixed = new ArrayList<BlockPlan>();
+        for (Block b : block.subBlocks)
+            if (b.isRandomized())
+                randomizable.add(compile(b, questionList));
+            else fixed.add(compile(b, questionList));
+        int[] variants = block.branchParadigm.equals(Block.BranchParadigm.ALL) ? blockQuestions : null;
+        BlockPlan retval = new BlockPlan(
+                block,
+                blockQuestions,
+                randomizable.toArray(new BlockPlan[randomizable.size()]),
+                fixed.toArray(new BlockPlan[fixed.size()]),
+                variants);
+        assert retval.size() > 0 : String.format("Block %s in survey %s has no contents", block.getStrId(), survey.sourceName);
+        return retval;
+    }
+
+    private int getOrAddOrdinal(
+            Question q,
+            List<Question> questionList)
+    {
+        Integer ordinal = questionOrdinals.get(q);
+        if (ordinal == null) {
+            ordinal = questionList.size();
+            questionList.add(q);
+            questionOrdinals.put(q, ordinal);
+        }
+        return ordinal;
+    }
+
+    /**
+     * @return The number of distinct questions in the plan.
+     */
+    public int getNumQuestions()
+    {
+        return questions.length;
+    }
+
+    /**
+     * @param q A question in the survey.
+     * @return The question's ordinal in this plan.
+     */
+    public int getOrdinal(
+            Question q)
+    {
+        Integer ordinal = questionOrdinals.get(q);
+        if (ordinal == null)
+            throw new RuntimeException(String.format("Question %s is not in survey %s", q.quid, survey.sourceName));
+        return ordinal;
+    }
+
+    /**
+     * @param ordinal A question ordinal.
+     * @return The question with that ordinal.
+     */
+    public Question getQuestion(
+            int ordinal)
+    {
+        return questions[ordinal];
+    }
+
+    /**
+     * Returns the question's options in source order. The array is shared and must not be modified.
+     * @param ordinal A question ordinal.
+     * @return The options, indexed by source position.
+     */
+    public Component[] getOptions(
+            int ordinal)
+    {
+        return options[ordinal];
+    }
+
+    /**
+     * Starts a new respondent.
+     * @param random The stream every random choice this respondent's walk makes is drawn from.
+     * @return A cursor positioned before the first question.
+     */
+    public Cursor newCursor(
+            Random random)
+    {
+        return new Cursor(random);
+    }
+
+    private static void shuffle(
+            int[] a,
+            int from,
+            int to,
+            Random random)
+    {
+        for (int i = to - 1; i > from; i--) {
+            int j = from + random.nextInt(i - from + 1);
+            int tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
+        }
+    }
+
+    /**
+     * One respondent's walk through an {@link ExecutionPlan}. Mirrors the {@link Interpreter}: call
+     * {@link #getNextQuestion()}, answer it with {@link #answer(Question, List)}, and repeat until {@link #terminated()}.
+     * A cursor is not thread safe.
+     */
+    public class Cursor {
+
+        private final Random random;
+        // top-level ordinals in the order this respondent sees them
+        private final int[] blockOrder;
+        private int blockPos = 0;
+        // question ordinals of the current block
+        private final int[] stack;
+        private int stackPos = 0;
+        private int stackSize = 0;
+        private int branchTo = NO_BRANCH;
+        private int current = -1;
+        // the option order shown to this respondent, for questions whose options are randomized
+        private final Component[][] optionOrders;
+        // answers, in the order they were given
+        private final int[] answerIndex;
+        private final int[] answered;
+        private final Component[][] answers;
+        private int numAnswered = 0;
+
+        private Cursor(
+                Random random)
+        {
+            this.random = random;
+            this.blockOrder = shuffleTopLevel();
+            this.stack = new int[maxBlockQuestions];
+            this.optionOrders = new Component[questions.length][];
+            this.answerIndex = new int[questions.length];
+            Arrays.fill(answerIndex, -1);
+            this.answered = new int[questions.length];
+            this.answers = new Component[questions.length][];
+        }
+
+        /**
+         * Floating blocks are placed at random positions; fixed blocks fill the remaining positions in order. This is the
+         * distribution {@link Block#shuffle(List, Random)} draws from.
+         * @return The top-level ordinals in display order.
+         */
+        private int[] shuffleTopLevel()
+        {
+            int n = topLevel.length;
+            int[] positions = new int[n];
+            for (int i = 0; i < n; i++)
+                positions[i] = i;
+            shuffle(positions, 0, n, random);
+            int[] retval = new int[n];
+            Arrays.fill(retval, -1);
+            for (int i = 0; i < floating.length; i++)
+                retval[positions[i]] = floating[i];
+            for (int i = 0, f = 0; i < n; i++)
+                if (retval[i] == -1)
+                    retval[i] = fixed[f++];
+            return retval;
+        }
+
+        /**
+         * Pushes the block's questions onto the stack. Questions and floating sub-blocks are placed at random positions
+         * among the block's contents, fixed sub-blocks fill the remaining positions in order, and each ALL sub-block
+         * contributes one of its variants.
+         */
+        private void push(
+                BlockPlan block)
+        {
+            if (block.randomizable.length == 0 && block.fixed.length == 0) {
+                System.arraycopy(block.questions, 0, stack, stackSize, block.questions.length);
+                shuffle(stack, stackSize, stackSize + block.questions.length, random);
+                stackSize += block.questions.length;
+                return;
+            }
+            int n = block.size();
+            int numPlaced = block.questions.length + block.randomizable.length;
+            int[] positions = new int[n];
+            for (int i = 0; i < n; i++)
+                positions[i] = i;
+            shuffle(positions, 0, n, random);
+            // contents[slot] is the index of the item at that slot: questions, then floating blocks, then fixed blocks
+            int[] contents = new int[n];
+            Arrays.fill(contents, -1);
+            for (int i = 0; i < numPlaced; i++)
+                contents[positions[i]] = i;
+            for (int i = 0, f = numPlaced; i < n; i++)
+                if (contents[i] == -1)
+                    contents[i] = f++;
+            for (int item : contents) {
+                if (item < block.questions.length)
+                    stack[stackSize++] = block.questions[item];
+                else {
+                    BlockPlan b = item < numPlaced
+                            ? block.randomizable[item - block.questions.length]
+                            : block.fixed[item - numPlaced];
+                    if (b.variants != null)
+                        stack[stackSize++] = b.variants[random.nextInt(b.variants.length)];
+                    else push(b);
+                }
+            }
+        }
+
+        /**
+         * Loads the next block the respondent will see, if the current one is exhausted. A pending branch skips
+         * every fixed block before its destination; floating blocks are always shown.
+         */
+        private void advance()
+        {
+            while (stackPos == stackSize && blockPos < blockOrder.length) {
+                BlockPlan top = topLevel[blockOrder[blockPos++]];
+                if (!top.block.isRandomized() && branchTo != NO_BRANCH) {
+                    if (blockOrder[blockPos - 1] != branchTo)
+                        continue;
+                    branchTo = NO_BRANCH;
+                }
+                stackPos = stackSize = 0;
+                push(top);
+                assert stackSize > 0 : String.format("Survey %s in error : block %s has no questions",
+                        survey.sourceName, top.block.getStrId());
+            }
+        }
+
+        public boolean terminated()
+        {
+            advance();
+            return stackPos == stackSize;
+        }
+
+        /**
+         * @return The next question, with its options shuffled for this respondent if they are randomized.
+         */
+        public Question getNextQuestion()
+        {
+            advance();
+            if (stackPos == stackSize)
+                throw new RuntimeException(String.format("No questions remain in survey %s", survey.sourceName));
+            current = stack[stackPos++];
+            if (randomizeOptions[current]) {
+                Component[] order = options[current].clone();
+                if (orderedOptions[current]) {
+                    if (random.nextBoolean())
+                        for (int i = 0; i < order.length / 2; i++) {
+                            Component foo = order[i];
+                            order[i] = order[order.length - i - 1];
+                            order[order.length - i - 1] = foo;
+                        }
+                } else {
+                    for (int i = order.length - 1; i > 0; i--) {
+                        int j = random.nextInt(i + 1);
+                        Component tmp = order[i];
+                        order[i] = order[j];
+                        order[j] = tmp;
+                    }
+                }
+                optionOrders[current] = order;
+            }
+            return questions[current];
+        }
+
+        private int ordinalOf(
+                Question q)
+        {
+            return current >= 0 && questions[current] == q ? current : getOrdinal(q);
+        }
+
+        /**
+         * Returns the options of the question in the order they were displayed to this respondent. The array is shared
+         * and must not be modified.
+         * @param q A question returned by {@link #getNextQuestion()}.
+         * @return The options, indexed by display position.
+         */
+        public Component[] getOptListByIndex(
+                Question q)
+        {
+            int ordinal = ordinalOf(q);
+            return optionOrders[ordinal] == null ? options[ordinal] : optionOrders[ordinal];
+        }
+
+        public void answer(
+                Question q,
+                List<Component> aList)
+        {
+            answer(q, aList.toArray(new Component[aList.size()]));
+        }
+
+        /**
+         * Records the answer to a question. Answering a question again replaces the earlier answer.
+         * @param q A question returned by {@link #getNextQuestion()}.
+         * @param aList The options chosen.
+         */
+        public void answer(
+                Question q,
+                Component[] aList)
+        {
+            int ordinal = ordinalOf(q);
+            if (answerIndex[ordinal] == -1) {
+                answerIndex[ordinal] = numAnswered;
+                answered[numAnswered++] = ordinal;
+            }
+            answers[answerIndex[ordinal]] = aList;
+            if (branchTargets[ordinal] != null && aList.length > 0) {
+                int position = sourcePosition(ordinal, aList[0]);
+                branchTo = position == -1 ? NO_BRANCH : branchTargets[ordinal][position];
+            }
+        }
+
+        private int sourcePosition(
+                int ordinal,
+                Component c)
+        {
+            Component[] opts = options[ordinal];
+            if (c.index >= 0 && c.index < opts.length && opts[c.index] == c)
+                return c.index;
+            for (int i = 0; i < opts.length; i++)
+                if (opts[i].equals(c))
+                    return i;
+            return -1;
+        }
+
+        private int displayPosition(
+                int ordinal,
+                Component c)
+        {
+            Component[] order = optionOrders[ordinal];
+            if (order != null)
+                for (int i = 0; i < order.length; i++)
+                    if (order[i] == c)
+                        return i;
+            return c.index;
+        }
+
+        /**
+         * @return The response recorded so far, with validity status MAYBE.
+         */
+        public AbstractSurveyResponse getResponse()
+        {
+            Question[] qs = new Question[numAnswered];
+            Component[][] opts = new Component[numAnswered][];
+            int[][] positions = new int[numAnswered][];
+            for (int i = 0; i < numAnswered; i++) {
+                int ordinal = answered[i];
+                qs[i] = questions[ordinal];
+                opts[i] = answers[i];
+                positions[i] = new int[opts[i].length];
+                for (int j = 0; j < opts[i].length; j++)
+                    positions[i][j] = displayPosition(ordinal, opts[i][j]);
+            }
+            AbstractSurveyResponse abstractSurveyResponse = new SimulatedSurveyResponse(qs, opts, positions);
+            abstractSurveyResponse.setSrid(gensym.next());
+            abstractSurveyResponse.setKnownValidityStatus(KnownValidityStatus.MAYBE);
+            return abstractSurveyResponse;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.RespondentSource;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.RandomSource;
+import org.apache.commons.math3.distribution.TDistribution;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The null distribution of the correlation coefficients {@link QCMetrics#getFrequenciesOfRandomCorrelation} computes,
+ * estimated by Monte Carlo: each replicate simulates a fresh sample of uniform random respondents and computes the
+ * coefficient of every pair of exclusive questions, as that method does. A replicate's false-correlation rate is the
+ * fraction of pairs whose coefficient exceeds the threshold; the estimate is the mean rate over the replicates, with a
+ * t confidence interval.
+ *
+ * Replicates run in parallel, each with its own stream derived from the seed and its index, so the estimate is the same
+ * for a given seed whatever the number of threads. Coefficients are not kept: each replicate's are binned into a
+ * fixed-width histogram per pair as soon as the replicate finishes, so memory does not grow with the number of
+ * replicates.
+ */
+public class FalseCorrelation {
+
+    /**
+     * The number of histogram bins over [-1, 1].
+     */
+    public static final int NUM_BINS = 200;
+    /**
+     * The coefficient above which a pair is reported as correlated.
+     */
+    public static final double DEFAULT_THRESHOLD = 0.8;
+
+    /**
+     * The coefficients of one replicate, packed like the histograms.
+     */
+    private static class Replicate {
+
+        final int index;
+        final double[] coefficients;
+
+        Replicate(
+                int index,
+                double[] coefficients)
+        {
+            this.index = index;
+            this.coefficients = coefficients;
+        }
+    }
+
+    public final int numReplicates;
+    public final double threshold;
+    private final List<Question> questions;
+    private final double[] rates;
+    // per-pair histograms, packed triangularly like PairwiseContingency: pair (i, j), i < j, is j * (j - 1) / 2 + i
+    private final int[][] histograms;
+
+    private FalseCorrelation(
+            List<Question> questions,
+            int numReplicates,
+            double threshold)
+    {
+        int n = questions.size();
+        this.questions = questions;
+        this.numReplicates = numReplicates;
+        this.threshold = threshold;
+        this.rates = new double[numReplicates];
+        this.histograms = new int[n * (n - 1) / 2][NUM_BINS];
+    }
+
+    /**
+     * Runs the replicates.
+     * @param survey The survey to simulate.
+     * @param sampleSize The number of respondents in each replicate.
+     * @param numReplicates The number of replicates.
+     * @param threshold The coefficient above which a pair counts as falsely correlated.
+     * @param threads The number of replicates to run at once.
+     * @param seed The seed replicates derive their streams from.
+     * @return The estimated null distribution.
+     * @throws SurveyException
+     */
+    public static FalseCorrelation estimate(
+            Survey survey,
+            int sampleSize,
+            int numReplicates,
+            double threshold,
+            int threads,
+            long seed)
+            throws SurveyException
+    {
+        if (threads < 1)
+            throw new RuntimeException("Number of threads must be positive, was " + threads);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            return estimate(survey, sampleSize, numReplicates, threshold, executorService, seed);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the replicates as tasks on an existing pool. The caller must not be one of the pool's threads, since it
+     * waits for the replicates to finish.
+     * @param survey The survey to simulate.
+     * @param sampleSize The number of respondents in each replicate.
+     * @param numReplicates The number of replicates.
+     * @param threshold The coefficient above which a pair counts as falsely correlated.
+     * @param executorService The pool to run the replicates on; it is not shut down.
+     * @param seed The seed replicates derive their streams from.
+     * @return The estimated null distribution.
+     * @throws SurveyException
+     */
+    public static FalseCorrelation estimate(
+            Survey survey,
+            final int sampleSize,
+            int numReplicates,
+            double threshold,
+            ExecutorService executorService,
+            final long seed)
+            throws SurveyException
+    {
+        if (numReplicates < 1)
+            throw new RuntimeException("Number of replicates must be positive, was " + numReplicates);
+        final List<Question> exclusive = new ArrayList<Question>();
+        for (Question q : survey.questions)
+            if (q.exclusive != null && q.exclusive)
+                exclusive.add(q);
+        final ExecutionPlan plan = new ExecutionPlan(survey);
+        FalseCorrelation retval = new FalseCorrelation(exclusive, numReplicates, threshold);
+        List<Future<Replicate>> futures = new ArrayList<Future<Replicate>>();
+        try {
+            CompletionService<Replicate> completionService = new ExecutorCompletionService<Replicate>(executorService);
+            for (int r = 0; r < numReplicates; r++) {
+                final int replicate = r;
+                futures.add(completionService.submit(new Callable<Replicate>() {
+                    @Override
+                    public Replicate call() throws SurveyException {
+                        Random random = RandomSource.stream(seed, replicate);
+                        PairwiseContingency tables = new PairwiseContingency(exclusive);
+                        new RespondentSource(plan, sampleSize, 1.0, random).fold(tables);
+                        double[] coefficients = new double[exclusive.size() * (exclusive.size() - 1) / 2];
+                        for (int j = 1; j < exclusive.size(); j++)
+                            for (int i = 0; i < j; i++)
+                                coefficients[j * (j - 1) / 2 + i] = QCMetrics.correlation(tables, i, j);
+                        return new Replicate(replicate, coefficients);
+                    }
+                }));
+            }
+            // histogram counts commute, so replicates are merged in the order they finish
+            for (int r = 0; r < numReplicates; r++)
+                retval.add(await(completionService.take()));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } finally {
+            // the pool is shared, so only this estimate's unfinished replicates are cancelled
+            for (Future<Replicate> future : futures)
+                future.cancel(true);
+        }
+        return retval;
+    }
+
+    private static Replicate await(
+            Future<Replicate> future)
+            throws SurveyException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof SurveyException)
+                throw (SurveyException) ee.getCause();
+            if (ee.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    private void add(
+            Replicate replicate)
+    {
+        double[] coefficients = replicate.coefficients;
+        int numPairs = histograms.length;
+        int above = 0;
+        for (int p = 0; p < numPairs; p++) {
+            if (coefficients[p] > threshold)
+                above++;
+            histograms[p][bin(coefficients[p])]++;
+        }
+        rates[replicate.index] = numPairs == 0 ? 0.0 : above / (double) numPairs;
+    }
+
+    private static int bin(
+            double coefficient)
+    {
+        int bin = (int) Math.floor((coefficient + 1.0) / 2.0 * NUM_BINS);
+        return Math.max(0, Math.min(NUM_BINS - 1, bin));
+    }
+
+    /**
+     * @return The exclusive questions compared, in survey order.
+     */
+    public List<Question> getQuestions()
+    {
+        return Collections.unmodifiableList(questions);
+    }
+
+    /**
+     * @return The false-correlation rate of each replicate, by replicate index.
+     */
+    public double[] getReplicateRates()
+    {
+        return Arrays.copyOf(rates, rates.length);
+    }
+
+    /**
+     * @return The mean false-correlation rate over the replicates.
+     */
+    public double getRate()
+    {
+        double sum = 0.0;
+        for (double rate : rates)
+            sum += rate;
+        return sum / numReplicates;
+    }
+
+    /**
+     * Returns a t confidence interval for the false-correlation rate. With a single replicate, or replicates that all
+     * agree, the interval is the rate itself.
+     * @param level The confidence level, e.g. 0.95.
+     * @return The lower and upper bounds, clipped to [0, 1].
+     */
+    public double[] getConfidenceInterval(
+            double level)
+    {
+        double mean = getRate();
+        if (numReplicates < 2)
+            return new double[]{ mean, mean };
+        double ss = 0.0;
+        for (double rate : rates)
+            ss += (rate - mean) * (rate - mean);
+        double se = Math.sqrt(ss / (numReplicates - 1) / numReplicates);
+        if (se == 0.0)
+            return new double[]{ mean, mean };
+        double t = new TDistribution(numReplicates - 1).inverseCumulativeProbability(1.0 - (1.0 - level) / 2.0);
+        return new double[]{ Math.max(0.0, mean - t * se), Math.min(1.0, mean + t * se) };
+    }
+
+    /**
+     * Returns the histogram of one pair's coefficients over the replicates. Bin b counts coefficients in
+     * [-1 + 2b / {@link #NUM_BINS}, -1 + 2(b + 1) / {@link #NUM_BINS}); the last bin also holds 1.
+     * @param q1 A question.
+     * @param q2 Another question.
+     * @return A copy of the histogram.
+     */
+    public int[] getHistogram(
+            Question q1,
+            Question q2)
+    {
+        int i = indexOf(q1), j = indexOf(q2);
+        if (i == j)
+            throw new RuntimeException("A question is not compared with itself.");
+        int lo = Math.min(i, j), hi = Math.max(i, j);
+        int[] histogram = histograms[hi * (hi - 1) / 2 + lo];
+        return Arrays.copyOf(histogram, histogram.length);
+    }
+
+    /**
+     * Estimates a quantile of one pair's null distribution from its histogram.
+     * @param q1 A question.
+     * @param q2 Another question.
+     * @param p The probability of the quantile, in [0, 1].
+     * @return The upper edge of the first bin at which the cumulative count reaches p of the replicates.
+     */
+    public double getQuantile(
+            Question q1,
+            Question q2,
+            double p)
+    {
+        int[] histogram = getHistogram(q1, q2);
+        double target = p * numReplicates;
+        int cumulative = 0;
+        for (int b = 0; b < NUM_BINS; b++) {
+            cumulative += histogram[b];
+            if (cumulative >= target && cumulative > 0)
+                return -1.0 + 2.0 * (b + 1) / NUM_BINS;
+        }
+        return 1.0;
+    }
+
+    private int indexOf(
+            Question q)
+    {
+        for (int i = 0; i < questions.size(); i++)
+            if (questions.get(i) == q)
+                return i;
+        throw new RuntimeException("Question was not compared: " + q);
+    }
+}
@@ -0,0 +1,124 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.analyses.ResponseFolder;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Running option counts, built one response at a time. After folding in a list of responses, the counts are the same
+ * ones {@link QCMetrics#makeFrequencies(java.util.List, Survey)} would return for that list.
+ */
+public class FrequencyTable implements ResponseFolder {
+
+    private final Map<String, Map<String, Integer>> counts = new HashMap<String, Map<String, Integer>>();
+    private final Map<String, Integer> totals = new HashMap<String, Integer>();
+    private int numResponses = 0;
+
+    /**
+     * Creates an empty table.
+     */
+    public FrequencyTable()
+    {
+    }
+
+    /**
+     * Creates a table with LaPlace (+1) smoothing: every option of every question in the survey starts with a count
+     * of 1.
+     * @param survey The survey whose options should be smoothed.
+     */
+    public FrequencyTable(
+            Survey survey)
+    {
+        for (Question q : survey.questions) {
+            for (Component c : q.options.values())
+                increment(q.quid, c.getCid());
+        }
+    }
+
+    @Override
+    public void accept(
+            AbstractSurveyResponse sr)
+    {
+        numResponses++;
+        for (IQuestionResponse qr : sr.getNonCustomResponses())
+            for (String cid : OptTuple.getCids(qr.getOpts()))
+                increment(qr.getQuestion().quid, cid);
+    }
+
+    /**
+     * Adds one to the count of the option.
+     * @param quid The question identifier.
+     * @param cid The option identifier.
+     */
+    public void increment(
+            String quid,
+            String cid)
+    {
+        Map<String, Integer> questionCounts = counts.get(quid);
+        if (questionCounts == null) {
+            questionCounts = new HashMap<String, Integer>();
+            counts.put(quid, questionCounts);
+            totals.put(quid, 0);
+        }
+        questionCounts.put(cid, questionCounts.containsKey(cid) ? questionCounts.get(cid) + 1 : 1);
+        totals.put(quid, totals.get(quid) + 1);
+    }
+
+    /**
+     * @return The number of responses folded in.
+     */
+    public int getNumResponses()
+    {
+        return numResponses;
+    }
+
+    public int getCount(
+            String quid,
+            String cid)
+    {
+        Map<String, Integer> questionCounts = counts.get(quid);
+        if (questionCounts == null || !questionCounts.containsKey(cid))
+            return 0;
+        return questionCounts.get(cid);
+    }
+
+    /**
+     * Returns the empirical probability of the option, the same value {@link QCMetrics#makeProbabilities(Map)} would
+     * give for these counts.
+     * @param quid The question identifier.
+     * @param cid The option identifier.
+     * @return The probability, or 0 if the option has not been seen.
+     */
+    public double getProbability(
+            String quid,
+            String cid)
+    {
+        int count = getCount(quid, cid);
+        return count == 0 ? 0.0 : count / (double) totals.get(quid);
+    }
+
+    /**
+     * @return A live view of the counts, as a map from question ids to a map of option ids to counts. It must not be
+     * modified.
+     */
+    public Map<String, Map<String, Integer>> getCounts()
+    {
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * @return A map from question ids to a map of option ids to probabilities.
+     */
+    public Map<String, Map<String, Double>> getProbabilities()
+    {
+        return QCMetrics.makeProbabilities(counts);
+    }
+}
@@ -0,0 +1,316 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.SurveyMan;
+import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.output.ClassificationStruct;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.RandomSource;
+
+import java.util.*;
+
+/**
+ * Classifies responses as they arrive, one at a time. The classifier keeps running option counts in a
+ * {@link FrequencyTable} (the same counts {@link QCMetrics#makeFrequencies(List, Survey)} would produce for every
+ * response seen so far), so scoring a new response only touches the questions it answered.
+ *
+ * Responses are scored against a {@link ProbabilityModel} snapshot of those counts, and thresholds are bootstrapped from
+ * the responses seen so far, exactly as {@link BatchClassifier} does for a whole sample. Since rebuilding the snapshot
+ * and the thresholds is linear in the number of responses, both are cached and only recomputed, on next use, after
+ * every {@code refreshInterval} arrivals. A response that selects an option the snapshot has never seen only adds that
+ * option to it.
+ *
+ * References are bootstrapped from a uniform sample (a reservoir) of at most {@code maxReferenceSize} of the responses
+ * seen since the last refresh, so a response that answers a new set of questions costs time bounded by that size,
+ * however many responses have arrived. Until there are more responses than that, the sample is every response.
+ */
+public class IncrementalClassifier {
+
+    /**
+     * The bootstrapped reference for one answered-question set.
+     */
+    private static class Reference {
+
+        final boolean discriminating;
+        final double threshold;
+
+        Reference(boolean discriminating, double threshold)
+        {
+            this.discriminating = discriminating;
+            this.threshold = threshold;
+        }
+    }
+
+    public static final int DEFAULT_MAX_REFERENCE_SIZE = 1000;
+
+    public final Survey survey;
+    public final Classifier classifier;
+    public final double alpha;
+    public final int refreshInterval;
+    public final int maxReferenceSize;
+    private final Random random;
+    private final Bootstrap bootstrap;
+    private final List<AbstractSurveyResponse> responses = new ArrayList<AbstractSurveyResponse>();
+    private final FrequencyTable frequencies;
+    private final List<CompiledResponse> compiledResponses = new ArrayList<CompiledResponse>();
+    // the sample references are bootstrapped from
+    private final List<CompiledResponse> reservoir = new ArrayList<CompiledResponse>();
+    private final Map<Question, Integer> variantSetOrdinals = new HashMap<Question, Integer>();
+    private final Map<BitSet, Reference> references = new HashMap<BitSet, Reference>();
+    private ProbabilityModel model = null;
+    private Double entropyThreshold = null;
+    private int sinceRefresh = 0;
+
+    /**
+     * @param survey The survey these respondents answer.
+     * @param classifier The enum corresponding to the classifier type.
+     * @param smoothing A boolean value indicating whether the frequencies of responses should be smoothed.
+     * @param alpha The cutoff used for determining whether validity is exceptionally low.
+     * @param refreshInterval The number of arrivals after which thresholds are recomputed.
+     * @param maxReferenceSize The largest number of responses a reference is bootstrapped from.
+     * @param random The random stream bootstrap samples, and the reference sample, are drawn from.
+     */
+    public IncrementalClassifier(
+            Survey survey,
+            Classifier classifier,
+            boolean smoothing,
+            double alpha,
+            int refreshInterval,
+            int maxReferenceSize,
+            Random random)
+    {
+        if (classifier != Classifier.LOG_LIKELIHOOD && classifier != Classifier.ENTROPY)
+            throw new RuntimeException("Unknown classification policy: "+classifier);
+        if (refreshInterval < 1)
+            throw new RuntimeException("Refresh interval must be positive, was "+refreshInterval);
+        if (maxReferenceSize < 1)
+            throw new RuntimeException("Maximum reference size must be positive, was "+maxReferenceSize);
+        this.survey = survey;
+        this.classifier = classifier;
+        this.alpha = alpha;
+        this.refreshInterval = refreshInterval;
+        this.maxReferenceSize = maxReferenceSize;
+        this.random = random;
+        this.bootstrap = new Bootstrap(random);
+        // LaPlace (+1 smoothing)
+        this.frequencies = smoothing ? new FrequencyTable(survey) : new FrequencyTable();
+    }
+
+    /**
+     * Bootstraps references from at most {@link #DEFAULT_MAX_REFERENCE_SIZE} responses.
+     * @param survey The survey these respondents answer.
+     * @param classifier The enum corresponding to the classifier type.
+     * @param smoothing A boolean value indicating whether the frequencies of responses should be smoothed.
+     * @param alpha The cutoff used for determining whether validity is exceptionally low.
+     * @param refreshInterval The number of arrivals after which thresholds are recomputed.
+     * @param random The random stream bootstrap samples, and the reference sample, are drawn from.
+     */
+    public IncrementalClassifier(
+            Survey survey,
+            Classifier classifier,
+            boolean smoothing,
+            double alpha,
+            int refreshInterval,
+            Random random)
+    {
+        this(survey, classifier, smoothing, alpha, refreshInterval, DEFAULT_MAX_REFERENCE_SIZE, random);
+    }
+
+    /**
+     * Draws bootstrap samples from the calling thread's random stream.
+     * @param survey The survey these respondents answer.
+     * @param classifier The enum corresponding to the classifier type.
+     * @param smoothing A boolean value indicating whether the frequencies of responses should be smoothed.
+     * @param alpha The cutoff used for determining whether validity is exceptionally low.
+     * @param refreshInterval The number of arrivals after which thresholds are recomputed.
+     */
+    public IncrementalClassifier(
+            Survey survey,
+            Classifier classifier,
+            boolean smoothing,
+            double alpha,
+            int refreshInterval)
+    {
+        this(survey, classifier, smoothing, alpha, refreshInterval, RandomSource.current());
+    }
+
+    /**
+     * Adds the response to the running counts without classifying it.
+     * @param sr A new survey response.
+     */
+    public void add(
+            AbstractSurveyResponse sr)
+    {
+        responses.add(sr);
+        frequencies.accept(sr);
+        if (++sinceRefresh >= refreshInterval)
+            invalidate();
+    }
+
+    private void invalidate()
+    {
+        sinceRefresh = 0;
+        model = null;
+        compiledResponses.clear();
+        reservoir.clear();
+        references.clear();
+        entropyThreshold = null;
+    }
+
+    /**
+     * Returns the current model snapshot, rebuilding it from the running counts if it has been invalidated, and
+     * compiles any responses that arrived since it was last used.
+     * @return The model snapshot.
+     */
+    private ProbabilityModel getModel()
+    {
+        if (model == null)
+            model = new ProbabilityModel(frequencies.getProbabilities());
+        for (int i = compiledResponses.size(); i < responses.size(); i++) {
+            AbstractSurveyResponse sr = responses.get(i);
+            CompiledResponse compiledResponse = new CompiledResponse(sr, model, variantSetOrdinals);
+            if (selectsUnknownOption(compiledResponse)) {
+                // the snapshot predates an option this response selected; adding the option leaves the ordinals of
+                // the responses compiled so far, and so the references, as they were
+                for (IQuestionResponse qr : sr.getNonCustomResponses()) {
+                    String quid = qr.getQuestion().quid;
+                    for (String cid : OptTuple.getCids(qr.getOpts()))
+                        if (model.getOrdinal(quid, cid) == ProbabilityModel.UNKNOWN)
+                            model = model.extend(quid, cid, frequencies.getProbability(quid, cid));
+                }
+                compiledResponse = new CompiledResponse(sr, model, variantSetOrdinals);
+            }
+            compiledResponses.add(compiledResponse);
+            sample(compiledResponse);
+        }
+        return model;
+    }
+
+    private static boolean selectsUnknownOption(
+            CompiledResponse compiledResponse)
+    {
+        for (int o : compiledResponse.options)
+            if (o == ProbabilityModel.UNKNOWN)
+                return true;
+        return false;
+    }
+
+    /**
+     * Offers a newly compiled response to the reservoir: the first {@link #maxReferenceSize} responses are all kept,
+     * and the k-th after them replaces a random member with probability maxReferenceSize / k.
+     */
+    private void sample(
+            CompiledResponse compiledResponse)
+    {
+        if (reservoir.size() < maxReferenceSize) {
+            reservoir.add(compiledResponse);
+            return;
+        }
+        int j = random.nextInt(compiledResponses.size());
+        if (j < maxReferenceSize)
+            reservoir.set(j, compiledResponse);
+    }
+
+    /**
+     * Returns the number of responses seen so far.
+     * @return The number of responses.
+     */
+    public int size()
+    {
+        return responses.size();
+    }
+
+    /**
+     * Returns the current empirical probability of the option, the same value
+     * {@link QCMetrics#makeProbabilities(Map)} would give for the responses seen so far.
+     * @param quid The question identifier.
+     * @param cid The option identifier.
+     * @return The probability, or 0 if the option has not been seen.
+     */
+    public double getProbability(
+            String quid,
+            String cid)
+    {
+        return frequencies.getProbability(quid, cid);
+    }
+
+    private Reference getReference(
+            CompiledResponse base)
+    {
+        Reference reference = references.get(base.answered);
+        if (reference != null)
+            return reference;
+        double[] scores = new double[reservoir.size()];
+        Set<Double> distinct = new HashSet<Double>();
+        for (int i = 0; i < scores.length; i++) {
+            CompiledResponse sr = reservoir.get(i);
+            scores[i] = sr.subsetLogLikelihood(base, model);
+            if (sr.covers(base))
+                distinct.add(scores[i]);
+        }
+        if (distinct.size() > 5)
+            reference = new Reference(true, classifier == Classifier.LOG_LIKELIHOOD ? bootstrap.quantile(scores, alpha) : 0.0);
+        else reference = new Reference(false, 0.0);
+        references.put(base.answered, reference);
+        return reference;
+    }
+
+    private double getEntropyThreshold()
+    {
+        if (entropyThreshold == null) {
+            double[] scores = new double[reservoir.size()];
+            for (int i = 0; i < scores.length; i++)
+                scores[i] = model.entropy(reservoir.get(i).options);
+            entropyThreshold = bootstrap.quantile(scores, alpha);
+        }
+        return entropyThreshold;
+    }
+
+    /**
+     * Adds the response to the running counts and classifies it against every response seen so far. Sets the
+     * response's score and threshold when the reference distribution is discriminating.
+     * @param sr A new survey response.
+     * @return A ClassificationStruct for the response.
+     * @throws SurveyException
+     */
+    public ClassificationStruct classify(
+            AbstractSurveyResponse sr)
+            throws SurveyException
+    {
+        add(sr);
+        ProbabilityModel model = getModel();
+        CompiledResponse compiledResponse = compiledResponses.get(compiledResponses.size() - 1);
+        boolean valid = true;
+        Reference reference = getReference(compiledResponse);
+        if (reference.discriminating) {
+            switch (classifier) {
+                case LOG_LIKELIHOOD:
+                    double thisLL = model.logLikelihood(compiledResponse.options);
+                    sr.setScore(thisLL);
+                    sr.setThreshold(reference.threshold);
+                    valid = thisLL > reference.threshold;
+                    break;
+                case ENTROPY:
+                    double thisEnt = model.entropy(compiledResponse.options);
+                    double threshHold = getEntropyThreshold();
+                    sr.setScore(thisEnt);
+                    sr.setThreshold(threshHold);
+                    SurveyMan.LOGGER.debug(String.format("This entropy: %f\tThis threshold:%f", thisEnt, threshHold));
+                    valid = thisEnt < threshHold;
+                    break;
+                default:
+                    throw new RuntimeException("Unknown classification policy: "+classifier);
+            }
+        }
+        return new ClassificationStruct(
+                sr,
+                classifier,
+                compiledResponse.numAnswered,
+                sr.getScore(),
+                sr.getThreshold(),
+                valid);
+    }
+}
@@ -1,12 +1,12 @@
 package edu.umass.cs.surveyman.qc;
 
 import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
-import edu.umass.cs.surveyman.analyses.IQuestionResponse;
 import edu.umass.cs.surveyman.analyses.KnownValidityStatus;
-import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.analyses.SimulatedSurveyResponse;
 import edu.umass.cs.surveyman.survey.*;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 import edu.umass.cs.surveyman.utils.Gensym;
+import edu.umass.cs.surveyman.utils.RandomSource;
 
 import java.util.*;
 
@@ -16,11 +16,23 @@ public class Interpreter {
     private ArrayList<Block> topLevelBlockStack;
     private ArrayList<Question> questionStack;
     private Block branchTo = null;
-    private Map<Question, List<Component>> responseMap = new HashMap<Question, List<Component>>();
-    public static final Random random = new Random(System.currentTimeMillis());
+    // kept in the order questions were answered, which is the order they were seen
+    private Map<Question, List<Component>> responseMap = new LinkedHashMap<Question, List<Component>>();
+    // the option order shown to this respondent, for questions whose options are randomized
+    private Map<Question, Component[]> optionOrders = new HashMap<Question, Component[]>();
+    private final Random random;
 
     public Interpreter(Survey survey){
+        this(survey, RandomSource.current());
+    }
+
+    /**
+     * @param survey The survey to simulate.
+     * @param random The stream every random choice in this simulation is drawn from.
+     */
+    public Interpreter(Survey survey, Random random){
         this.survey = survey;
+        this.random = random;
         this.topLevelBlockStack = new ArrayList<Block>(getShuffledTopLevel(survey));
         assert(!this.topLevelBlockStack.isEmpty());
         this.questionStack = new ArrayList<Question>(getQuestionsForBlock(topLevelBlockStack.remove(0)));
@@ -28,78 +40,20 @@ public class Interpreter {
     }
 
     public AbstractSurveyResponse getResponse() throws SurveyException {
-        final Map<Question, List<Component>> responseMap = this.responseMap;
         final Gensym gensym = new Gensym("sr");
-        AbstractSurveyResponse abstractSurveyResponse = new AbstractSurveyResponse() {
-
-            @Override
-            public List<IQuestionResponse> getNonCustomResponses() {
-                List<IQuestionResponse> retval = new ArrayList<IQuestionResponse>();
-                for (final Map.Entry<Question, List<Component>> e : responseMap.entrySet()) {
-                    retval.add(new IQuestionResponse() {
-                        List<Question> questions = new ArrayList<Question>(responseMap.keySet());
-
-                        @Override
-                        public Question getQuestion() {
-                            return e.getKey();
-                        }
-
-                        @Override
-                        public List<OptTuple> getOpts() {
-                            List<OptTuple> retval = new ArrayList<OptTuple>();
-                            for (Component c : e.getValue()) {
-                                retval.add(new OptTuple(c, c.index));
-                            }
-                            return retval;
-                        }
-
-                        @Override
-                        public int getIndexSeen() {
-                            return questions.indexOf(e.getKey());
-                        }
-                    });
-                }
-                return retval;
-            }
-
-            @Override
-            public Map<String, IQuestionResponse> resultsAsMap() {
-                Map<String, IQuestionResponse> retval = new HashMap<String, IQuestionResponse>();
-                for (final Map.Entry<Question, List<Component>> e : responseMap.entrySet()) {
-                    retval.put(e.getKey().quid, new IQuestionResponse() {
-                        List<Question> questions = new ArrayList<Question>(responseMap.keySet());
-                        @Override
-                        public Question getQuestion() {
-                            return e.getKey();
-                        }
-                        @Override
-                        public List<OptTuple> getOpts() {
-                            List<OptTuple> retval = new ArrayList<OptTuple>();
-                            for (Component c : e.getValue()) {
-                                retval.add(new OptTuple(c, c.index));
-                            }
-                            return retval;
-                        }
-                        @Override
-                        public int getIndexSeen() {
-                            return questions.indexOf(e.getKey());
-                        }
-                    });
-                }
-                return retval;
-            }
-
-            @Override
-            public boolean surveyResponseContainsAnswer(List<Component> variants) {
-                for (IQuestionResponse qr : this.getNonCustomResponses()) {
-                    for (OptTuple tupe : qr.getOpts()) {
-                        if (variants.contains(tupe.c))
-                            return true;
-                    }
-                }
-                return false;
-            }
-        };
+        Question[] questions = new Question[responseMap.size()];
+        Component[][] options = new Component[responseMap.size()][];
+        int[][] positions = new int[responseMap.size()][];
+        int i = 0;
+        for (Map.Entry<Question, List<Component>> e : responseMap.entrySet()) {
+            questions[i] = e.getKey();
+            options[i] = e.getValue().toArray(new Component[e.getValue().size()]);
+            positions[i] = new int[options[i].length];
+            for (int j = 0; j < options[i].length; j++)
+                positions[i][j] = getPosition(questions[i], options[i][j]);
+            i++;
+        }
+        AbstractSurveyResponse abstractSurveyResponse = new SimulatedSurveyResponse(questions, options, positions);
         abstractSurveyResponse.setSrid(gensym.next());
         abstractSurveyResponse.setKnownValidityStatus(KnownValidityStatus.MAYBE);
         return abstractSurveyResponse;
@@ -119,9 +73,10 @@ public class Interpreter {
 
     public Question getNextQuestion() throws SurveyException {
         Question next = nextQ();
-        // shuffle option indices
+        // shuffle option indices. The shuffled order belongs to this respondent; the components are shared with every
+        // other simulation of this survey, so their indices are left alone.
         Component[] options = next.getOptListByIndex();
-        if (next.randomize)
+        if (next.randomize) {
             if (next.ordered) {
                 if (random.nextBoolean())
                     for (int i = 0 ; i < options.length/2 ; i++) {
@@ -131,14 +86,40 @@ public class Interpreter {
                     }
             } else {
                 List<Component> stuff = Arrays.asList(options);
-                Collections.shuffle(stuff);
+                Collections.shuffle(stuff, random);
                 options = stuff.toArray(options);
             }
-        for (int i = 0 ; i < options.length ; i++)
-            options[i].index = i;
+            optionOrders.put(next, options);
+        }
         return next;
     }
 
+    /**
+     * Returns the options of the question in the order they were displayed to this respondent.
+     * @param q A question returned by {@link #getNextQuestion()}.
+     * @return The options, indexed by display position.
+     * @throws SurveyException
+     */
+    public Component[] getOptListByIndex(
+            Question q)
+            throws SurveyException
+    {
+        Component[] options = optionOrders.get(q);
+        return options == null ? q.getOptListByIndex() : options;
+    }
+
+    private int getPosition(
+            Question q,
+            Component c)
+    {
+        Component[] options = optionOrders.get(q);
+        if (options != null)
+            for (int i = 0 ; i < options.length ; i++)
+                if (options[i] == c)
+                    return i;
+        return c.index;
+    }
+
     private Question nextQ() {
 
         if (!questionStack.isEmpty())
@@ -199,7 +180,7 @@ public class Interpreter {
         for (int i = 0 ; i < size ; i++)
             allIndices.add(i);
         // shuffle
-        Collections.shuffle(allIndices);
+        Collections.shuffle(allIndices, random);
         // select locations
         List<Integer> qIndices = allIndices.subList(0, block.questions.size());
         List<Integer> bIndices = allIndices.subList(block.questions.size(), block.questions.size() + randomizable.size());
@@ -215,7 +196,7 @@ public class Interpreter {
     }
 
     private List<Block> getShuffledTopLevel(Survey survey) {
-        return Arrays.asList(Block.shuffle(survey.topLevelBlocks));
+        return Arrays.asList(Block.shuffle(survey.topLevelBlocks, random));
     }
 
     public static Map<Boolean, List<Block>> partitionBlocks(Survey survey) {
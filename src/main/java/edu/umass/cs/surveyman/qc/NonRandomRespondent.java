@@ -6,11 +6,13 @@ import edu.umass.cs.surveyman.survey.Component;
 import edu.umass.cs.surveyman.survey.Question;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.RandomSource;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * Simulates a cluster of responses.
@@ -18,11 +20,35 @@ import java.util.Map;
 public class NonRandomRespondent extends AbstractRespondent {
 
     private Survey survey;
+    private final ExecutionPlan plan;
     protected Map<Question, Component> answers = new HashMap<Question, Component>();
     protected Map<Component, Double> strength = new HashMap<Component, Double>();
+    // the profile, indexed by question ordinal in the plan; preferred is null for questions this profile skips
+    private final Component[] preferred;
+    private final double[] thresholds;
+    private final Component[][] otherOptions;
 
     public NonRandomRespondent(Survey survey)  {
-        this.survey = survey;
+        this(survey, RandomSource.current());
+    }
+
+    /**
+     * @param survey The survey to respond to.
+     * @param random The stream this profile, and every response drawn from it, is generated from.
+     */
+    public NonRandomRespondent(Survey survey, Random random)  {
+        this(compile(survey), random);
+    }
+
+    /**
+     * Responds to an already compiled survey.
+     * @param plan The compiled survey to respond to.
+     * @param random The stream this profile, and every response drawn from it, is generated from.
+     */
+    public NonRandomRespondent(ExecutionPlan plan, Random random)  {
+        super(random);
+        this.survey = plan.survey;
+        this.plan = plan;
         for (Question q : survey.questions) {
             if (!q.freetext && !q.options.isEmpty()) {
                 List<Component> possibleAnswers = new ArrayList<Component>(q.options.values());
@@ -30,7 +56,7 @@ public class NonRandomRespondent extends AbstractRespondent {
                 Component answer = possibleAnswers.get(index);
                 this.answers.put(q, answer);
                 double uni = 1.0 / possibleAnswers.size();
-                double pref = Interpreter.random.nextDouble() * (1.0 - uni);
+                double pref = rng.nextDouble() * (1.0 - uni);
                 assert pref < (1 - uni);
                 this.strength.put(answer, uni + pref);
             }
@@ -38,40 +64,54 @@ public class NonRandomRespondent extends AbstractRespondent {
         assert answers.size() > 0 : "Answer set for survey " + survey.sourceName + " (" + survey.sid + ")\nhas size 0.";
         assert strength.size() > 0;
         assert answers.size() == strength.size();
+        this.preferred = new Component[plan.getNumQuestions()];
+        this.thresholds = new double[preferred.length];
+        this.otherOptions = new Component[preferred.length][];
+        for (int i = 0 ; i < preferred.length ; i++) {
+            Question q = plan.getQuestion(i);
+            Component c = answers.get(q);
+            if (c == null || q.freetext || q.options.isEmpty())
+                continue;
+            preferred[i] = c;
+            thresholds[i] = strength.get(c);
+            List<Component> otherAns = new ArrayList<Component>();
+            for (Component cc : q.options.values()) {
+                if (!c.equals(cc))
+                    otherAns.add(cc);
+            }
+            otherOptions[i] = otherAns.toArray(new Component[otherAns.size()]);
+        }
+    }
+
+    private static ExecutionPlan compile(Survey survey) {
+        try {
+            return new ExecutionPlan(survey);
+        } catch (SurveyException se) {
+            throw new RuntimeException(se);
+        }
     }
 
     @Override
     public AbstractSurveyResponse getResponse() {
-        Interpreter interpreter = new Interpreter(survey);
-        try{
-            do {
-                Question q = interpreter.getNextQuestion();
-                Component c = answers.get(q);
-                List<Component> ans = new ArrayList<Component>();
-                // calculate our answer
-                if (!q.freetext && q.options.size() > 0 ) {
-                    double prob = rng.nextDouble();
-                    double threshold = strength.get(answers.get(q));
-                    if (prob > threshold) {
-                        // uniformly select from the other options
-                        List<Component> otherAns = new ArrayList<Component>();
-                        for (Component cc : q.options.values()) {
-                            if (!c.equals(cc))
-                                otherAns.add(cc);
-                        }
-                        ans.add(otherAns.get(rng.nextInt(otherAns.size())));
-                    } else {
-                        ans.add(c);
-                    }
-                    interpreter.answer(q, ans);
+        ExecutionPlan.Cursor cursor = plan.newCursor(rng);
+        do {
+            Question q = cursor.getNextQuestion();
+            int ordinal = plan.getOrdinal(q);
+            Component c = preferred[ordinal];
+            // calculate our answer
+            if (c != null) {
+                double prob = rng.nextDouble();
+                if (prob > thresholds[ordinal]) {
+                    // uniformly select from the other options
+                    Component[] otherAns = otherOptions[ordinal];
+                    cursor.answer(q, new Component[]{ otherAns[rng.nextInt(otherAns.length)] });
+                } else {
+                    cursor.answer(q, new Component[]{ c });
                 }
-            } while (!interpreter.terminated());
-            AbstractSurveyResponse retval = interpreter.getResponse();
-            retval.setKnownValidityStatus(KnownValidityStatus.YES);
-            return retval;
-        } catch (SurveyException se) {
-            se.printStackTrace();
-        }
-        return null;
+            }
+        } while (!cursor.terminated());
+        AbstractSurveyResponse retval = cursor.getResponse();
+        retval.setKnownValidityStatus(KnownValidityStatus.YES);
+        return retval;
     }
 }
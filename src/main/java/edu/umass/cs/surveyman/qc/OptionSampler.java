@@ -0,0 +1,238 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Component;
+
+import java.util.*;
+
+/**
+ * Draws a {@link RandomRespondent}'s answer to a question with a given number of options.
+ *
+ * A random respondent answers by choosing a position among the question's response slots: one slot per option for
+ * exclusive questions, and 2^n - 1 slots for non-exclusive (checkbox) questions with n options. Slot j &lt; n selects the
+ * option displayed at j alone; any other slot selects the options whose bits are set in j, the most significant of the n
+ * bits standing for the first option. The {@link RandomRespondent.AdversaryType} fixes a preference over slots, read off
+ * by a cumulative scan against one uniform draw; mass beyond 1 is never reached, and where the preferences sum to less
+ * than 1 the respondent leaves the question unanswered.
+ *
+ * Samplers draw from exactly that distribution without materializing it per respondent:
+ * <ul>
+ *     <li>When there are at most {@link #MAX_TABLE_SIZE} slots, the slot distribution (plus the unanswered outcome) is
+ *     computed once and drawn from with Walker's alias method, in constant time.</li>
+ *     <li>Larger checkbox questions only occur with closed-form preferences: UNIFORM draws the slot index directly,
+ *     FIRST and LAST always choose the first and last slot, and INNER puts no mass on any slot (its normalizing
+ *     constant overflows), so those respondents never answer.</li>
+ * </ul>
+ * Either way the chosen slot is decoded into options bit by bit, so memory and time are linear in the number of
+ * options. Samplers are immutable and shared: use {@link #get(RandomRespondent.AdversaryType, int, boolean)}.
+ */
+public class OptionSampler {
+
+    /**
+     * The largest slot distribution that is tabulated.
+     */
+    public static final int MAX_TABLE_SIZE = 1 << 12;
+    private static final long NONE = -1;
+    private static final Map<String, OptionSampler> samplers = new HashMap<String, OptionSampler>();
+
+    public final RandomRespondent.AdversaryType adversaryType;
+    public final int numOptions;
+    public final boolean exclusive;
+    private final long numSlots;
+    // alias table over the slots, with the unanswered outcome last; null when the distribution is closed-form
+    private final double[] prob;
+    private final int[] alias;
+
+    private OptionSampler(
+            RandomRespondent.AdversaryType adversaryType,
+            int numOptions,
+            boolean exclusive)
+    {
+        if (!exclusive && numOptions > 62)
+            throw new RuntimeException(String.format("Cannot sample subsets of %d options.", numOptions));
+        this.adversaryType = adversaryType;
+        this.numOptions = numOptions;
+        this.exclusive = exclusive;
+        this.numSlots = exclusive ? numOptions : (1L << numOptions) - 1;
+        if (numSlots <= MAX_TABLE_SIZE) {
+            double[] p = getSlotDistribution(adversaryType, (int) numSlots);
+            this.prob = new double[p.length];
+            this.alias = new int[p.length];
+            makeAliasTable(p, prob, alias);
+        } else {
+            this.prob = null;
+            this.alias = null;
+        }
+    }
+
+    /**
+     * Returns the shared sampler for questions of this shape.
+     * @param adversaryType The position preference of the respondent.
+     * @param numOptions The number of options the question has.
+     * @param exclusive Whether the question admits exactly one answer.
+     * @return The sampler.
+     */
+    public static OptionSampler get(
+            RandomRespondent.AdversaryType adversaryType,
+            int numOptions,
+            boolean exclusive)
+    {
+        String key = String.format("%s:%d:%b", adversaryType.name(), numOptions, exclusive);
+        synchronized (samplers) {
+            OptionSampler sampler = samplers.get(key);
+            if (sampler == null) {
+                sampler = new OptionSampler(adversaryType, numOptions, exclusive);
+                samplers.put(key, sampler);
+            }
+            return sampler;
+        }
+    }
+
+    /**
+     * Computes the preference the adversary assigns to each slot, and from it the probability that the cumulative scan
+     * stops at each slot.
+     * @param adversaryType The position preference of the respondent.
+     * @param numSlots The number of slots.
+     * @return One probability per slot, followed by the probability of leaving the question unanswered.
+     */
+    static double[] getSlotDistribution(
+            RandomRespondent.AdversaryType adversaryType,
+            int numSlots)
+    {
+        double[] prefs = new double[numSlots];
+        switch (adversaryType) {
+            case INNER:
+                int filled = (int) Math.ceil((double) numSlots / 2.0) - 1;
+                int pieces = 2 * (int) Math.pow(2, filled) - 1;
+                for (int i = 0 ; i <= filled ; i++) {
+                    double p = ((double) 1 + i) / (double) pieces;
+                    prefs[i] += p;
+                    prefs[numSlots - i - 1] += p;
+                }
+                break;
+            case UNIFORM:
+                Arrays.fill(prefs, 1.0 / (double) numSlots);
+                break;
+            case FIRST:
+                prefs[0] = 1.0;
+                break;
+            case LAST:
+                prefs[numSlots - 1] = 1.0;
+                break;
+            default:
+                throw new RuntimeException("Unknown adversary type: " + adversaryType);
+        }
+        // the scan stops at the first slot whose cumulative preference exceeds the draw
+        double[] retval = new double[numSlots + 1];
+        double cumulative = 0.0, reached = 0.0;
+        for (int j = 0 ; j < numSlots ; j++) {
+            cumulative += prefs[j];
+            double next = Math.max(reached, Math.min(cumulative, 1.0));
+            retval[j] = next - reached;
+            reached = next;
+        }
+        retval[numSlots] = 1.0 - reached;
+        return retval;
+    }
+
+    /**
+     * Builds Walker's alias table with Vose's method.
+     */
+    private static void makeAliasTable(
+            double[] p,
+            double[] prob,
+            int[] alias)
+    {
+        int n = p.length;
+        double[] scaled = new double[n];
+        int[] small = new int[n], large = new int[n];
+        int numSmall = 0, numLarge = 0;
+        for (int i = 0 ; i < n ; i++) {
+            scaled[i] = p[i] * n;
+            if (scaled[i] < 1.0)
+                small[numSmall++] = i;
+            else large[numLarge++] = i;
+        }
+        while (numSmall > 0 && numLarge > 0) {
+            int s = small[--numSmall], l = large[--numLarge];
+            prob[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if (scaled[l] < 1.0)
+                small[numSmall++] = l;
+            else large[numLarge++] = l;
+        }
+        // what remains is 1 up to rounding
+        while (numLarge > 0) {
+            int l = large[--numLarge];
+            prob[l] = 1.0;
+            alias[l] = l;
+        }
+        while (numSmall > 0) {
+            int s = small[--numSmall];
+            prob[s] = 1.0;
+            alias[s] = s;
+        }
+    }
+
+    /**
+     * Draws a slot.
+     * @param random The stream to draw from.
+     * @return The slot index, or -1 if the question is left unanswered.
+     */
+    long sampleSlot(
+            Random random)
+    {
+        if (prob != null) {
+            int i = random.nextInt(prob.length);
+            int slot = random.nextDouble() < prob[i] ? i : alias[i];
+            return slot == numSlots ? NONE : slot;
+        }
+        switch (adversaryType) {
+            case UNIFORM:
+                return nextLong(random, numSlots);
+            case FIRST:
+                return 0;
+            case LAST:
+                return numSlots - 1;
+            default:
+                return NONE;
+        }
+    }
+
+    private static long nextLong(
+            Random random,
+            long bound)
+    {
+        if (bound <= Integer.MAX_VALUE)
+            return random.nextInt((int) bound);
+        long bits, val;
+        do {
+            bits = random.nextLong() >>> 1;
+            val = bits % bound;
+        } while (bits - val + (bound - 1) < 0);
+        return val;
+    }
+
+    /**
+     * Draws an answer.
+     * @param options The question's options, in the order they are displayed to the respondent.
+     * @param random The stream to draw from.
+     * @return The options chosen; empty if the question is left unanswered.
+     */
+    public List<Component> sample(
+            Component[] options,
+            Random random)
+    {
+        assert options.length == numOptions;
+        long slot = sampleSlot(random);
+        if (slot == NONE)
+            return new ArrayList<Component>(0);
+        if (slot < numOptions)
+            return Collections.singletonList(options[(int) slot]);
+        List<Component> retval = new ArrayList<Component>();
+        for (int k = 0 ; k < numOptions ; k++)
+            if ((slot >>> (numOptions - 1 - k) & 1L) == 1L)
+                retval.add(options[k]);
+        return retval;
+    }
+}
@@ -0,0 +1,140 @@
+package edu.umass.cs.surveyman.qc;
+
+import java.util.Arrays;
+
+/**
+ * The answers to every exclusive question, split by whether the respondent saw it before or after each other question,
+ * counted in one sweep over a {@link ResponseMatrix}.
+ *
+ * For an exclusive question q1 and a question q2 that precedes it in the survey, two histograms over q1's declared
+ * options are kept: how often each option was chosen by respondents who saw q1 before q2, and by respondents who saw
+ * it after q2. All histograms are packed into one int array, pair (q1, q2) at offsets[q1 * (q1 - 1) / 2 + q2], the
+ * "before" histogram followed by the "after" histogram. A respondent who answered m questions updates at most
+ * m(m - 1)/2 cells, so the sweep never rescans a response for a pair. Answers outside a question's declared options
+ * are not counted.
+ */
+public class OrderBiasHistograms {
+
+    public final ResponseMatrix matrix;
+    // the number of declared options of each question
+    private final int[] numOptions;
+    // where the histograms of pair (q1, q2), q2 < q1, start; -1 when q1 is not exclusive
+    private final int[] offsets;
+    private final int[] counts;
+
+    /**
+     * Counts the answers in the matrix.
+     * @param matrix The compiled responses.
+     */
+    public OrderBiasHistograms(
+            ResponseMatrix matrix)
+    {
+        this.matrix = matrix;
+        int n = matrix.getNumQuestions();
+        this.numOptions = new int[n];
+        boolean[] exclusive = new boolean[n];
+        for (int q = 0; q < n; q++) {
+            numOptions[q] = matrix.getNumDeclaredOptions(q);
+            exclusive[q] = Boolean.TRUE.equals(matrix.getQuestion(q).exclusive);
+        }
+        this.offsets = new int[n * (n - 1) / 2 + 1];
+        long size = 0;
+        for (int q1 = 1; q1 < n; q1++)
+            for (int q2 = 0; q2 < q1; q2++) {
+                if (!exclusive[q1]) {
+                    offsets[q1 * (q1 - 1) / 2 + q2] = -1;
+                    continue;
+                }
+                offsets[q1 * (q1 - 1) / 2 + q2] = (int) size;
+                size += 2 * numOptions[q1];
+                if (size > Integer.MAX_VALUE)
+                    throw new RuntimeException(String.format("Too many order-bias cells for %d questions.", n));
+            }
+        this.counts = new int[(int) size];
+        // scratch space for the respondent being counted
+        int[] answered = new int[n];
+        int[] answers = new int[n];
+        int[] positions = new int[n];
+        for (int r = 0; r < matrix.getNumRespondents(); r++) {
+            int m = 0;
+            for (int q = 0; q < n; q++) {
+                int answer = matrix.getAnswer(q, r);
+                if (answer == ResponseMatrix.UNANSWERED)
+                    continue;
+                answered[m++] = q;
+                answers[q] = answer;
+                positions[q] = matrix.getPosition(q, r);
+            }
+            for (int y = 1; y < m; y++) {
+                int q1 = answered[y];
+                if (!exclusive[q1] || answers[q1] >= numOptions[q1])
+                    continue;
+                int base = q1 * (q1 - 1) / 2;
+                for (int x = 0; x < y; x++) {
+                    int q2 = answered[x];
+                    if (positions[q1] < positions[q2])
+                        counts[offsets[base + q2] + answers[q1]]++;
+                    else if (positions[q1] > positions[q2])
+                        counts[offsets[base + q2] + numOptions[q1] + answers[q1]]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param q The question ordinal.
+     * @return The number of options the histograms of this question have.
+     */
+    public int getNumOptions(
+            int q)
+    {
+        return numOptions[q];
+    }
+
+    /**
+     * @param q1 The ordinal of an exclusive question.
+     * @param q2 The ordinal of a question preceding q1 in the survey.
+     * @return Whether the histograms of this pair were counted.
+     */
+    public boolean isCounted(
+            int q1,
+            int q2)
+    {
+        return q2 < q1 && offsets[q1 * (q1 - 1) / 2 + q2] != -1;
+    }
+
+    private int getOffset(
+            int q1,
+            int q2)
+    {
+        if (!isCounted(q1, q2))
+            throw new RuntimeException(String.format("No order-bias histograms for questions %d and %d.", q1, q2));
+        return offsets[q1 * (q1 - 1) / 2 + q2];
+    }
+
+    /**
+     * @param q1 The ordinal of an exclusive question.
+     * @param q2 The ordinal of a question preceding q1 in the survey.
+     * @return How often each option of q1 was chosen when q1 was seen before q2, indexed by option ordinal.
+     */
+    public int[] getBefore(
+            int q1,
+            int q2)
+    {
+        int offset = getOffset(q1, q2);
+        return Arrays.copyOfRange(counts, offset, offset + numOptions[q1]);
+    }
+
+    /**
+     * @param q1 The ordinal of an exclusive question.
+     * @param q2 The ordinal of a question preceding q1 in the survey.
+     * @return How often each option of q1 was chosen when q1 was seen after q2, indexed by option ordinal.
+     */
+    public int[] getAfter(
+            int q1,
+            int q2)
+    {
+        int offset = getOffset(q1, q2) + numOptions[q1];
+        return Arrays.copyOfRange(counts, offset, offset + numOptions[q1]);
+    }
+}
@@ -0,0 +1,199 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.ResponseFolder;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+
+import java.util.*;
+
+/**
+ * The contingency tables of every pair of a set of questions, filled in one pass over the responses.
+ *
+ * For questions i &lt; j with k_i and k_j options, the table counts how many responses chose option a of question i
+ * and option b of question j, for every a and b. The tables are packed into one int array in triangular order (the
+ * tables for j = 1, then for j = 2, and so on), each stored row-major. A response that answered m of the questions
+ * updates m(m - 1)/2 cells, so the cost of folding in a response does not depend on the number of pairs it skipped.
+ * Options are indexed in source order, which is also their rank for ordered questions. Only the first option chosen
+ * for a question is counted.
+ */
+public class PairwiseContingency implements ResponseFolder {
+
+    private final Question[] questions;
+    private final Map<Question, Integer> ordinals = new IdentityHashMap<Question, Integer>();
+    // the index of every option within its question
+    private final Map<Component, Integer> options = new IdentityHashMap<Component, Integer>();
+    private final int[] numOptions;
+    // where the table of pair (i, j), i < j, starts: offsets[j * (j - 1) / 2 + i]
+    private final int[] offsets;
+    private final int[] counts;
+    // scratch space for the answers of the response being folded in
+    private final int[] answered;
+    private final int[] answers;
+    private final int[] stamps;
+    private int numResponses = 0;
+
+    /**
+     * @param questions The questions to tabulate; usually the survey's exclusive questions.
+     * @throws SurveyException
+     */
+    public PairwiseContingency(
+            List<Question> questions)
+            throws SurveyException
+    {
+        int n = questions.size();
+        this.questions = questions.toArray(new Question[n]);
+        this.numOptions = new int[n];
+        for (int i = 0; i < n; i++) {
+            Question q = this.questions[i];
+            ordinals.put(q, i);
+            Component[] opts = q.getOptListByIndex();
+            numOptions[i] = opts.length;
+            for (int a = 0; a < opts.length; a++)
+                options.put(opts[a], a);
+        }
+        this.offsets = new int[n * (n - 1) / 2 + 1];
+        long size = 0;
+        for (int j = 1; j < n; j++)
+            for (int i = 0; i < j; i++) {
+                offsets[j * (j - 1) / 2 + i] = (int) size;
+                size += numOptions[i] * numOptions[j];
+                if (size > Integer.MAX_VALUE)
+                    throw new RuntimeException(String.format("Too many contingency cells for %d questions.", n));
+            }
+        this.counts = new int[(int) size];
+        this.answered = new int[n];
+        this.answers = new int[n];
+        this.stamps = new int[n];
+    }
+
+    @Override
+    public void accept(
+            AbstractSurveyResponse sr)
+    {
+        int stamp = ++numResponses;
+        int m = 0;
+        for (IQuestionResponse qr : sr.getNonCustomResponses()) {
+            Integer i = ordinals.get(qr.getQuestion());
+            if (i == null || stamps[i] == stamp || qr.getOpts().isEmpty())
+                continue;
+            Integer a = options.get(qr.getOpts().get(0).c);
+            if (a == null)
+                continue;
+            stamps[i] = stamp;
+            answered[m] = i;
+            answers[i] = a;
+            m++;
+        }
+        Arrays.sort(answered, 0, m);
+        for (int y = 1; y < m; y++) {
+            int j = answered[y];
+            int base = j * (j - 1) / 2;
+            for (int x = 0; x < y; x++) {
+                int i = answered[x];
+                counts[offsets[base + i] + answers[i] * numOptions[j] + answers[j]]++;
+            }
+        }
+    }
+
+    /**
+     * @return The number of responses folded in.
+     */
+    public int getNumResponses()
+    {
+        return numResponses;
+    }
+
+    /**
+     * @return The questions tabulated, in the order given.
+     */
+    public List<Question> getQuestions()
+    {
+        return Collections.unmodifiableList(Arrays.asList(questions));
+    }
+
+    /**
+     * Returns the contingency table of two questions.
+     * @param i The index of the first question; its options are the rows.
+     * @param j The index of the second question; its options are the columns.
+     * @return A new table of counts.
+     */
+    public ContingencyTable getContingencyTable(
+            int i,
+            int j)
+    {
+        if (i == j)
+            throw new RuntimeException("A question has no contingency table with itself.");
+        boolean transpose = i > j;
+        int lo = Math.min(i, j), hi = Math.max(i, j);
+        int offset = offsets[hi * (hi - 1) / 2 + lo];
+        ContingencyTable table = new ContingencyTable(numOptions[i], numOptions[j]);
+        for (int a = 0; a < numOptions[lo]; a++)
+            for (int b = 0; b < numOptions[hi]; b++) {
+                int ct = counts[offset + a * numOptions[hi] + b];
+                if (transpose)
+                    table.add(b, a, ct);
+                else table.add(a, b, ct);
+            }
+        return table;
+    }
+
+    /**
+     * Returns the contingency table of two questions as an array.
+     * @param i The index of the first question; its options are the rows.
+     * @param j The index of the second question; its options are the columns.
+     * @return A new table of counts.
+     */
+    public int[][] getTable(
+            int i,
+            int j)
+    {
+        return getContingencyTable(i, j).toArray();
+    }
+
+    /**
+     * @param i The index of the first question.
+     * @param j The index of the second question.
+     * @return The number of responses that answered both questions.
+     */
+    public int getNumSamples(
+            int i,
+            int j)
+    {
+        int lo = Math.min(i, j), hi = Math.max(i, j);
+        int offset = offsets[hi * (hi - 1) / 2 + lo];
+        int total = 0;
+        for (int k = 0; k < numOptions[lo] * numOptions[hi]; k++)
+            total += counts[offset + k];
+        return total;
+    }
+
+    /**
+     * Computes Cram&eacute;r's V for two questions.
+     * @param i The index of the first question.
+     * @param j The index of the second question.
+     * @return V, or 0 if either question has fewer than two options or no response answered both.
+     */
+    public double cramersV(
+            int i,
+            int j)
+    {
+        return getContingencyTable(i, j).cramersV();
+    }
+
+    /**
+     * Computes Spearman's rank correlation for two ordered questions, treating each option as a rank. Tied answers
+     * share the midrank of their option, and rho is the correlation of the midranks.
+     * @param i The index of the first question.
+     * @param j The index of the second question.
+     * @return Rho, or 0 if either question's answers do not vary.
+     */
+    public double spearmansRho(
+            int i,
+            int j)
+    {
+        return RankStatistics.spearmansRho(getContingencyTable(i, j));
+    }
+}
@@ -0,0 +1,357 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Block;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+
+import java.util.*;
+
+/**
+ * Analyzes the paths through a survey by dynamic programming over its block graph, which is built once, when the
+ * analyzer is constructed. Reachability, path counts, path lengths and the maximum possible entropy are each computed in
+ * a single pass over the graph; paths themselves are only enumerated, lazily, by {@link #iterator()}.
+ *
+ * The nodes of the graph are the fixed (non-randomized) top-level blocks, in the order respondents see them. A block
+ * without a branch question is followed by the next fixed block; a block with a branch question is followed by the
+ * destination of whichever option is chosen (or by the next fixed block, for options without a destination). Randomized
+ * top-level blocks are shown to every respondent, so they add a constant to every path. A block contributes the number of
+ * questions a respondent answers in it, as {@link ExecutionPlan} shows them: every question of a top-level block (ALL
+ * or not), and a single variant of each ALL sub-block.
+ *
+ * Probabilities are those of a uniform random respondent, who picks each option of a branch question with equal
+ * probability. Each statistic is computed in one pass over the blocks, so the cost is linear in the size of the graph
+ * (times the maximum path length, for the full distribution).
+ */
+public class PathAnalyzer implements Iterable<List<Block>> {
+
+    public final Survey survey;
+    private final List<Block> fixedBlocks;
+    private final List<Block> floatingBlocks;
+    // the number of questions each fixed block contributes, and the constant contributed by randomized blocks
+    private final int[] lengths;
+    private final int floatingLength;
+    // successors of each fixed block, with the probability of moving to each; the end of the survey is fixedBlocks.size()
+    private final int[][] successors;
+    private final double[][] transitions;
+    private double[] distribution = null;
+
+    /**
+     * @param survey The survey to analyze.
+     */
+    public PathAnalyzer(
+            Survey survey)
+    {
+        this.survey = survey;
+        Map<Boolean, List<Block>> partitionedBlocks = Interpreter.partitionBlocks(survey);
+        this.fixedBlocks = new ArrayList<Block>(partitionedBlocks.get(false));
+        Collections.sort(fixedBlocks, new Comparator<Block>() {
+            @Override
+            public int compare(Block b1, Block b2)
+            {
+                return b1.compareTo(b2);
+            }
+        });
+        this.floatingBlocks = partitionedBlocks.get(true);
+        int floating = 0;
+        for (Block b : floatingBlocks)
+            floating += getLength(b);
+        this.floatingLength = floating;
+        int n = fixedBlocks.size();
+        Map<Block, Integer> ordinals = new HashMap<Block, Integer>();
+        for (int i = n - 1; i >= 0; i--)
+            ordinals.put(fixedBlocks.get(i), i);
+        this.lengths = new int[n];
+        this.successors = new int[n][];
+        this.transitions = new double[n][];
+        for (int i = 0; i < n; i++) {
+            Block b = fixedBlocks.get(i);
+            lengths[i] = getLength(b);
+            // merge options that lead to the same block
+            Map<Integer, Double> next = new TreeMap<Integer, Double>();
+            if (b.hasBranchQuestion()) {
+                Question q = b.branchQ;
+                for (Component c : q.options.values()) {
+                    int dest = getDestination(q, c, i, ordinals);
+                    double p = 1.0 / q.options.size();
+                    next.put(dest, next.containsKey(dest) ? next.get(dest) + p : p);
+                }
+            }
+            if (next.isEmpty())
+                next.put(i + 1, 1.0);
+            successors[i] = new int[next.size()];
+            transitions[i] = new double[next.size()];
+            int k = 0;
+            for (Map.Entry<Integer, Double> e : next.entrySet()) {
+                successors[i][k] = e.getKey();
+                transitions[i][k++] = e.getValue();
+            }
+        }
+    }
+
+    /**
+     * Returns the block a respondent at fixed block i moves to after choosing c: its destination if it has one, else the
+     * next fixed block. Destinations that are not later fixed blocks end the survey, since every fixed block is skipped
+     * while looking for them.
+     */
+    private int getDestination(
+            Question q,
+            Component c,
+            int i,
+            Map<Block, Integer> ordinals)
+    {
+        Block dest;
+        try {
+            dest = q.getBranchDest(c);
+        } catch (SurveyException se) {
+            throw new RuntimeException(se);
+        }
+        if (dest == null)
+            return i + 1;
+        Integer ordinal = ordinals.get(dest);
+        return ordinal == null || ordinal <= i ? fixedBlocks.size() : ordinal;
+    }
+
+    /**
+     * @param b A block.
+     * @return The number of questions a respondent answers in the block.
+     */
+    static int getLength(
+            Block b)
+    {
+        int length = b.questions.size();
+        for (Block sub : b.subBlocks)
+            length += sub.branchParadigm == Block.BranchParadigm.ALL ? 1 : getLength(sub);
+        return length;
+    }
+
+    /**
+     * @return The exact expected number of questions a uniform random respondent answers.
+     */
+    public double getExpectedPathLength()
+    {
+        int n = fixedBlocks.size();
+        double[] expected = new double[n + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            expected[i] = lengths[i];
+            for (int k = 0; k < successors[i].length; k++)
+                expected[i] += transitions[i][k] * expected[successors[i][k]];
+        }
+        return floatingLength + expected[0];
+    }
+
+    /**
+     * @return The number of questions on the shortest path through the survey.
+     */
+    public int getMinimumPathLength()
+    {
+        int n = fixedBlocks.size();
+        int[] min = new int[n + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            min[i] = Integer.MAX_VALUE;
+            for (int s : successors[i])
+                min[i] = Math.min(min[i], min[s]);
+            min[i] += lengths[i];
+        }
+        return floatingLength + min[0];
+    }
+
+    /**
+     * @return The number of questions on the longest path through the survey.
+     */
+    public int getMaximumPathLength()
+    {
+        int n = fixedBlocks.size();
+        int[] max = new int[n + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int s : successors[i])
+                max[i] = Math.max(max[i], max[s]);
+            max[i] += lengths[i];
+        }
+        return floatingLength + max[0];
+    }
+
+    /**
+     * Returns the distribution of the number of questions a uniform random respondent answers.
+     * @return An array whose entry at index k is the probability of answering exactly k questions.
+     */
+    public double[] getPathLengthDistribution()
+    {
+        if (distribution == null) {
+            int n = fixedBlocks.size();
+            int maxLength = getMaximumPathLength() - floatingLength;
+            double[][] dist = new double[n + 1][];
+            dist[n] = new double[maxLength + 1];
+            dist[n][0] = 1.0;
+            for (int i = n - 1; i >= 0; i--) {
+                dist[i] = new double[maxLength + 1];
+                for (int k = 0; k < successors[i].length; k++) {
+                    double[] next = dist[successors[i][k]];
+                    for (int length = 0; length + lengths[i] <= maxLength; length++)
+                        dist[i][length + lengths[i]] += transitions[i][k] * next[length];
+                }
+            }
+            distribution = new double[floatingLength + maxLength + 1];
+            System.arraycopy(dist[0], 0, distribution, floatingLength, maxLength + 1);
+        }
+        return Arrays.copyOf(distribution, distribution.length);
+    }
+
+    /**
+     * @return The fixed blocks no path through the survey visits, in survey order.
+     */
+    public List<Block> getUnreachableBlocks()
+    {
+        int n = fixedBlocks.size();
+        boolean[] reachable = new boolean[n + 1];
+        if (n > 0)
+            reachable[0] = true;
+        // successors always come later, so one forward pass suffices
+        for (int i = 0; i < n; i++)
+            if (reachable[i])
+                for (int s : successors[i])
+                    reachable[s] = true;
+        List<Block> retval = new ArrayList<Block>();
+        for (int i = 0; i < n; i++)
+            if (!reachable[i])
+                retval.add(fixedBlocks.get(i));
+        return retval;
+    }
+
+    /**
+     * @return The number of distinct paths through the survey, saturating at {@link Long#MAX_VALUE}.
+     */
+    public long getNumPaths()
+    {
+        int n = fixedBlocks.size();
+        if (n == 0)
+            return 0;
+        long[] count = new long[n + 1];
+        count[n] = 1;
+        for (int i = n - 1; i >= 0; i--)
+            for (int s : successors[i])
+                count[i] = count[i] > Long.MAX_VALUE - count[s] ? Long.MAX_VALUE : count[i] + count[s];
+        return count[0];
+    }
+
+    /**
+     * Returns the maximum entropy of a block, counting the questions {@link #getLength} counts: every question of the
+     * block contributes log2 of its number of options, and an ALL sub-block contributes its highest-entropy variant.
+     */
+    private static double getMaxEntropy(
+            Block b)
+    {
+        double retval = 0.0;
+        for (Question q : b.questions)
+            retval += maxEntropy(q);
+        for (Block sub : b.subBlocks) {
+            if (sub.branchParadigm == Block.BranchParadigm.ALL) {
+                double variant = 0.0;
+                for (Question q : sub.questions)
+                    variant = Math.max(variant, maxEntropy(q));
+                retval += variant;
+            } else retval += getMaxEntropy(sub);
+        }
+        return retval;
+    }
+
+    private static double maxEntropy(
+            Question q)
+    {
+        int numOptions = q.options.size();
+        return numOptions == 0 ? 0.0 : Math.log(numOptions) / Math.log(2.0);
+    }
+
+    /**
+     * @return The maximum number of bits needed to represent a response, over all paths through the survey.
+     */
+    public double getMaxPossibleEntropy()
+    {
+        int n = fixedBlocks.size();
+        double floating = 0.0;
+        for (Block b : floatingBlocks)
+            floating += getMaxEntropy(b);
+        double[] max = new double[n + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int s : successors[i])
+                max[i] = Math.max(max[i], max[s]);
+            max[i] += getMaxEntropy(fixedBlocks.get(i));
+        }
+        return floating + max[0];
+    }
+
+    /**
+     * Enumerates the paths through the survey lazily, depth first. Each path lists its fixed blocks in the order they
+     * are visited, followed by every randomized top-level block; a new list is returned for each path.
+     * @return An iterator over the paths.
+     */
+    @Override
+    public Iterator<List<Block>> iterator()
+    {
+        final int n = fixedBlocks.size();
+        return new Iterator<List<Block>>() {
+            // the blocks on the current path, and the index of the successor taken from each
+            private final int[] stack = new int[n + 1];
+            private final int[] choice = new int[n + 1];
+            private int depth = n == 0 ? -1 : 0;
+            private boolean ready = n > 0;
+
+            /**
+             * Extends the current prefix along first choices until it reaches the end of the survey.
+             */
+            private void descend()
+            {
+                while (stack[depth] != n) {
+                    int next = successors[stack[depth]][choice[depth]];
+                    depth++;
+                    stack[depth] = next;
+                    choice[depth] = 0;
+                }
+            }
+
+            /**
+             * Backtracks to the deepest block with an untried successor.
+             */
+            private void advance()
+            {
+                depth--;
+                while (depth >= 0 && ++choice[depth] >= successors[stack[depth]].length)
+                    depth--;
+                ready = depth >= 0;
+                if (ready)
+                    descend();
+            }
+
+            {
+                if (ready)
+                    descend();
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return ready;
+            }
+
+            @Override
+            public List<Block> next()
+            {
+                if (!ready)
+                    throw new NoSuchElementException();
+                List<Block> path = new ArrayList<Block>(depth + floatingBlocks.size());
+                for (int d = 0; d < depth; d++)
+                    path.add(fixedBlocks.get(stack[d]));
+                path.addAll(floatingBlocks);
+                advance();
+                return path;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,125 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.survey.Block;
+
+import java.util.*;
+
+/**
+ * Assigns responses to the paths they took, by looking up a signature of the blocks they traversed.
+ *
+ * Every block on a path is given an ordinal, and a path's signature is the set of its ordinals. A response took a path
+ * if every block it traversed is on the path; responses that broke off have traversed only a prefix of their path.
+ * Complete paths are indexed by their signatures. For prefixes, blocks common to every path (the first block, and the
+ * randomized top-level blocks) carry no information, so they are dropped; every remaining prefix of every path is then
+ * indexed by its signature. A response is assigned with at most two hash lookups: first as a complete path, then as a
+ * prefix. Only a response whose blocks are not a prefix of any path, in path order, falls back to testing each path in
+ * turn.
+ */
+public class PathIndex {
+
+    private final List<List<Block>> paths;
+    private final Map<Block, Integer> ordinals = new HashMap<Block, Integer>();
+    private final BitSet[] signatures;
+    private final BitSet common;
+    private final Map<BitSet, Integer> complete = new HashMap<BitSet, Integer>();
+    // maps the signature of every prefix to the first path it is a prefix of
+    private final Map<BitSet, Integer> prefixes = new HashMap<BitSet, Integer>();
+
+    /**
+     * @param paths The paths through the survey, as returned by {@link QCMetrics#getPaths}.
+     */
+    public PathIndex(
+            List<List<Block>> paths)
+    {
+        this.paths = paths;
+        this.signatures = new BitSet[paths.size()];
+        for (int i = 0; i < signatures.length; i++) {
+            signatures[i] = new BitSet();
+            for (Block b : paths.get(i)) {
+                Integer ordinal = ordinals.get(b);
+                if (ordinal == null) {
+                    ordinal = ordinals.size();
+                    ordinals.put(b, ordinal);
+                }
+                signatures[i].set(ordinal);
+            }
+        }
+        this.common = new BitSet();
+        if (signatures.length > 0) {
+            common.or(signatures[0]);
+            for (BitSet signature : signatures)
+                common.and(signature);
+        }
+        for (int i = 0; i < signatures.length; i++) {
+            if (!complete.containsKey(signatures[i]))
+                complete.put(signatures[i], i);
+            BitSet prefix = new BitSet();
+            index(prefix, i);
+            for (Block b : paths.get(i)) {
+                int ordinal = ordinals.get(b);
+                if (common.get(ordinal) || prefix.get(ordinal))
+                    continue;
+                prefix = (BitSet) prefix.clone();
+                prefix.set(ordinal);
+                index(prefix, i);
+            }
+        }
+    }
+
+    private void index(
+            BitSet prefix,
+            int path)
+    {
+        if (!prefixes.containsKey(prefix))
+            prefixes.put(prefix, path);
+    }
+
+    /**
+     * @return The paths indexed.
+     */
+    public List<List<Block>> getPaths()
+    {
+        return paths;
+    }
+
+    /**
+     * Returns the path a response took. Questions in sub-blocks count as traversing the nearest enclosing block that
+     * lies on a path.
+     * @param sr The response.
+     * @return The index of a path containing every block the response traversed (for responses that broke off, the
+     * first such path), or -1 if there is none.
+     */
+    public int getPath(
+            AbstractSurveyResponse sr)
+    {
+        BitSet signature = new BitSet();
+        for (IQuestionResponse qr : sr.getNonCustomResponses()) {
+            Block b = qr.getQuestion().block;
+            Integer ordinal = ordinals.get(b);
+            while (ordinal == null && b != null) {
+                b = b.parentBlock;
+                ordinal = b == null ? null : ordinals.get(b);
+            }
+            if (ordinal == null)
+                return -1;
+            signature.set(ordinal);
+        }
+        Integer path = complete.get(signature);
+        if (path != null)
+            return path;
+        BitSet key = (BitSet) signature.clone();
+        key.andNot(common);
+        path = prefixes.get(key);
+        if (path != null)
+            return path;
+        for (int i = 0; i < signatures.length; i++) {
+            BitSet missing = (BitSet) signature.clone();
+            missing.andNot(signatures[i]);
+            if (missing.isEmpty())
+                return i;
+        }
+        return -1;
+    }
+}
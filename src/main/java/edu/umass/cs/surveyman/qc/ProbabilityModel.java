@@ -0,0 +1,196 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+
+import java.util.*;
+
+/**
+ * An immutable probability model over answer options, built from the output of
+ * {@link QCMetrics#makeProbabilities(Map)}. Every (question, option) pair in the input is given a dense ordinal, and
+ * log2(p) and p * log2(p) are precomputed into flat arrays indexed by that ordinal. Responses are translated into
+ * ordinal arrays once, with {@link #getOrdinals(List)}; scoring an ordinal array involves no boxing, hashing or calls to
+ * {@link Math#log(double)}.
+ */
+public class ProbabilityModel {
+
+    /**
+     * Ordinal given to options that are not in the model. Their probability is taken to be 0.
+     */
+    public static final int UNKNOWN = -1;
+
+    private final Map<String, Map<String, Integer>> ordinals = new HashMap<String, Map<String, Integer>>();
+    private final double[] probabilities;
+    private final double[] logProbabilities;
+    private final double[] entropyTerms;
+
+    /**
+     * @param probabilities A map from question ids to a map of option ids to probabilities.
+     */
+    public ProbabilityModel(
+            Map<String, Map<String, Double>> probabilities)
+    {
+        int size = 0;
+        for (Map<String, Double> map : probabilities.values())
+            size += map.size();
+        this.probabilities = new double[size];
+        this.logProbabilities = new double[size];
+        this.entropyTerms = new double[size];
+        int o = 0;
+        for (Map.Entry<String, Map<String, Double>> e : probabilities.entrySet()) {
+            Map<String, Integer> questionOrdinals = new HashMap<String, Integer>();
+            ordinals.put(e.getKey(), questionOrdinals);
+            for (Map.Entry<String, Double> f : e.getValue().entrySet()) {
+                double p = f.getValue();
+                double log2p = p == 0 ? 0.0 : Math.log(p) / Math.log(2.0);
+                questionOrdinals.put(f.getKey(), o);
+                this.probabilities[o] = p;
+                this.logProbabilities[o] = log2p;
+                this.entropyTerms[o] = p * log2p;
+                o++;
+            }
+        }
+    }
+
+    private ProbabilityModel(
+            ProbabilityModel model,
+            String quid,
+            String cid,
+            double p)
+    {
+        int o = model.size();
+        this.ordinals.putAll(model.ordinals);
+        Map<String, Integer> questionOrdinals = model.ordinals.get(quid);
+        questionOrdinals = questionOrdinals == null
+                ? new HashMap<String, Integer>()
+                : new HashMap<String, Integer>(questionOrdinals);
+        questionOrdinals.put(cid, o);
+        this.ordinals.put(quid, questionOrdinals);
+        double log2p = p == 0 ? 0.0 : Math.log(p) / Math.log(2.0);
+        this.probabilities = Arrays.copyOf(model.probabilities, o + 1);
+        this.logProbabilities = Arrays.copyOf(model.logProbabilities, o + 1);
+        this.entropyTerms = Arrays.copyOf(model.entropyTerms, o + 1);
+        this.probabilities[o] = p;
+        this.logProbabilities[o] = log2p;
+        this.entropyTerms[o] = p * log2p;
+    }
+
+    /**
+     * Returns a model with one more option. Every option of this model keeps its ordinal and probability, so responses
+     * translated against this model are valid against the new one too. Costs time linear in the size of the model.
+     * @param quid The question identifier.
+     * @param cid The identifier of an option not in this model.
+     * @param p The probability of the option.
+     * @return The extended model.
+     */
+    public ProbabilityModel extend(
+            String quid,
+            String cid,
+            double p)
+    {
+        if (getOrdinal(quid, cid) != UNKNOWN)
+            throw new RuntimeException(String.format("Option %s of question %s is already in the model.", cid, quid));
+        return new ProbabilityModel(this, quid, cid, p);
+    }
+
+    public int size()
+    {
+        return probabilities.length;
+    }
+
+    /**
+     * Returns the dense ordinal of the option.
+     * @param quid The question identifier.
+     * @param cid The option identifier.
+     * @return The ordinal, or {@link #UNKNOWN}.
+     */
+    public int getOrdinal(
+            String quid,
+            String cid)
+    {
+        Map<String, Integer> questionOrdinals = ordinals.get(quid);
+        if (questionOrdinals == null)
+            return UNKNOWN;
+        Integer o = questionOrdinals.get(cid);
+        return o == null ? UNKNOWN : o;
+    }
+
+    /**
+     * Translates question responses into the ordinals of every selected option, in response order.
+     * @param questionResponses The question responses to translate.
+     * @return One ordinal per selected option.
+     */
+    public int[] getOrdinals(
+            List<IQuestionResponse> questionResponses)
+    {
+        int n = 0;
+        for (IQuestionResponse qr : questionResponses)
+            n += qr.getOpts().size();
+        int[] retval = new int[n];
+        int i = 0;
+        for (IQuestionResponse qr : questionResponses) {
+            String quid = qr.getQuestion().quid;
+            for (String cid : OptTuple.getCids(qr.getOpts()))
+                retval[i++] = getOrdinal(quid, cid);
+        }
+        return i == n ? retval : Arrays.copyOf(retval, i);
+    }
+
+    public double getProbability(
+            int o)
+    {
+        return o == UNKNOWN ? 0.0 : probabilities[o];
+    }
+
+    /**
+     * @param o An option ordinal.
+     * @return log2(p), or 0 where p is 0.
+     */
+    public double getLogProbability(
+            int o)
+    {
+        return o == UNKNOWN ? 0.0 : logProbabilities[o];
+    }
+
+    /**
+     * @param o An option ordinal.
+     * @return p * log2(p), or 0 where p is 0.
+     */
+    public double getEntropyTerm(
+            int o)
+    {
+        return o == UNKNOWN ? 0.0 : entropyTerms[o];
+    }
+
+    /**
+     * Returns the log likelihood of the selected options. Equivalent to
+     * {@link QCMetrics#getLLForResponse(List, Map)}.
+     * @param options Option ordinals.
+     * @return The sum of log2(p) over the options.
+     */
+    public double logLikelihood(
+            int[] options)
+    {
+        double ll = 0.0;
+        for (int o : options)
+            ll += getLogProbability(o);
+        return ll;
+    }
+
+    /**
+     * Returns the entropy of the selected options. Equivalent to
+     * {@link QCMetrics#getEntropyForResponse(edu.umass.cs.surveyman.analyses.AbstractSurveyResponse, Map)}.
+     * @param options Option ordinals.
+     * @return The negated sum of p * log2(p) over the options.
+     */
+    public double entropy(
+            int[] options)
+    {
+        double ent = 0.0;
+        for (int o : options) {
+            assert getProbability(o) > 0.0;
+            ent += getEntropyTerm(o);
+        }
+        return -ent;
+    }
+}
@@ -5,13 +5,23 @@ import edu.umass.cs.surveyman.analyses.*;
 import edu.umass.cs.surveyman.output.*;
 import edu.umass.cs.surveyman.survey.*;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
-import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
+import edu.umass.cs.surveyman.utils.RandomSource;
 
 import java.util.*;
 
 public class QCMetrics {
 
     public static int bootstrapIterations = 2000;
+    /**
+     * Early-stopping tolerance for bootstrapped thresholds, in standard deviations of the resampled means. The default
+     * of 0 always runs {@link #bootstrapIterations} iterations; a positive value (0.01, say) lets a bootstrap stop once
+     * its estimate has settled. See {@link Bootstrap}.
+     */
+    public static double bootstrapTolerance = 0.0;
+    /**
+     * The number of simulated samples the false-correlation rate is averaged over. See {@link FalseCorrelation}.
+     */
+    public static int falseCorrelationReplicates = 20;
     private static double log2(double p) {
         if (p == 0)
             return 0.0;
@@ -20,7 +30,8 @@ public class QCMetrics {
 
     /**
      * Takes in a list of Blocks; returns a list of lists of Blocks representing all possible paths through the survey.
-     * See @etosch's blog post for more detail.
+     * See @etosch's blog post for more detail. This enumerates every path, so its cost is exponential in the number of
+     * branching blocks; {@link PathAnalyzer} answers questions about paths without enumerating them.
      * @param blockList A list of blocks we would like to traverse.
      * @return A list of lists of blocks, giving all possible traversals through the original input.
      */
@@ -61,72 +72,45 @@ public class QCMetrics {
     }
 
     /**
-     * Returns paths through **blocks** in the survey. Top level randomized blocks are all listed last
+     * Returns paths through **blocks** in the survey. Top level randomized blocks are all listed last. The number of
+     * paths can grow exponentially in the number of branching blocks; statistics over paths should be computed with
+     * {@link PathAnalyzer} instead, which can also enumerate them lazily.
      * @param s The survey whose paths we want to enumerate
-     * @return A List of all paths through the survey. A path is represented by a List. There may be duplicate paths,
-     * so if you need distinct paths, you will need to filter for uniqueness.
+     * @return A List of all paths through the survey. A path is represented by a List.
      */
     protected static List<List<Block>> getPaths(
             Survey s)
     {
+        PathAnalyzer pathAnalyzer = new PathAnalyzer(s);
+        SurveyMan.LOGGER.info(String.format("Computing %d paths through the survey.", pathAnalyzer.getNumPaths()));
         List<List<Block>> retval = new ArrayList<List<Block>>();
-        Map<Boolean, List<Block>> partitionedBlocks = Interpreter.partitionBlocks(s);
-        List<Block> topLevelRandomizableBlocks = partitionedBlocks.get(true);
-        List<Block> nonrandomizableBlocks = partitionedBlocks.get(false);
-        Collections.sort(nonrandomizableBlocks);
-        List<List<Block>> dag = getDag(nonrandomizableBlocks);
-        SurveyMan.LOGGER.info("Computing paths for survey having DAG with "+dag.size()+" paths through fixed blocks.");
-        for (List<Block> blist : dag) {
-            if (blist.isEmpty())
-                continue;
-            blist.addAll(topLevelRandomizableBlocks);
-            retval.add(blist);
-        }
-        SurveyMan.LOGGER.info(String.format("Computed %d paths through the survey.", retval.size()));
+        for (List<Block> path : pathAnalyzer)
+            retval.add(path);
         return retval;
     }
 
     /**
-     * Returns the set of enclosing blocks for this survey response.
-     * @param r A single survey responses
-     * @return The blocks the respondent has traversed in order to produce this response.
-     */
-    private static Set<Block> getPath(
-            AbstractSurveyResponse r)
-    {
-        Set<Block> retval = new HashSet<Block>();
-        for (IQuestionResponse questionResponse : r.getNonCustomResponses()) {
-            Question q = questionResponse.getQuestion();
-            retval.add(q.block);
-        }
-        return retval;
-    }
-
-    /**
-     * Returns the counts for each path; see @etosch's blog post on the calculation.
+     * Returns the counts for each path; see @etosch's blog post on the calculation. Responses are assigned with a
+     * {@link PathIndex}; a response that broke off is assigned to the first path it is a prefix of.
      * @param paths The list of list of blocks through the survey; can be obtained with getPaths or getDag
      * @param responses The list of actual or simulated responses to the survey
-     * @return A map from path to the frequency the path is observed.
+     * @return A map from path to the responses observed on it. Paths are compared by identity.
      */
     protected static Map<List<Block>, List<AbstractSurveyResponse>> makeFrequenciesForPaths(
             List<List<Block>> paths,
             List<AbstractSurveyResponse> responses)
     {
-        Map<List<Block>, List<AbstractSurveyResponse>> retval = new HashMap<List<Block>, List<AbstractSurveyResponse>>();
+        Map<List<Block>, List<AbstractSurveyResponse>> retval =
+                new IdentityHashMap<List<Block>, List<AbstractSurveyResponse>>();
         // initialize the map
         for (List<Block> path : paths)
             retval.put(path, new ArrayList<AbstractSurveyResponse>());
+        PathIndex pathIndex = new PathIndex(paths);
         for (AbstractSurveyResponse r : responses) {
-            Set<Block> pathTraversed = getPath(r);
-            boolean pathFound = false;
-            for (List<Block> path : retval.keySet()) {
-                if (path.containsAll(pathTraversed)){
-                    retval.get(path).add(r);
-                    pathFound = true;
-                    break;
-                }
-            }
-            assert pathFound : "Path survey respondent took does not match any known paths through the survey.";
+            int path = pathIndex.getPath(r);
+            assert path > -1 : "Path survey respondent took does not match any known paths through the survey.";
+            if (path > -1)
+                retval.get(paths.get(path)).add(r);
         }
         return retval;
     }
@@ -175,7 +159,8 @@ public class QCMetrics {
     }
 
     /**
-     * Calculates the empirical entropy for this survey, given a set of responses.
+     * Calculates the empirical entropy for this survey, given a set of responses. See {@link SurveyEntropy}; callers
+     * scoring several samples of the same survey should build one and reuse it.
      * @param survey The survey these respondents answered.
      * @param responses The list of actual or simulated responses to the survey.
      * @return The caluclated base-2 entropy.
@@ -184,30 +169,8 @@ public class QCMetrics {
             Survey survey,
             List<AbstractSurveyResponse> responses)
     {
-        List<List<Block>> paths = getPaths(survey);
-        Map<List<Block>, List<AbstractSurveyResponse>> pathMap = makeFrequenciesForPaths(paths, responses);
-        int totalResponses = responses.size();
-        assert totalResponses > 1 : "surveyEntropy is meaningless for fewer than 1 response.";
-        double retval = 0.0;
-        for (Question q : removeFreetext(survey.questions)) {
-            for (Component c : q.options.values()) {
-                for (List<Block> path : paths) {
-                    List<Component> variants = getEquivalentAnswerVariants(q, c);
-                    List<AbstractSurveyResponse> responsesThisPath = pathMap.get(path);
-                    double ansThisPath = 0.0;
-                    for (AbstractSurveyResponse r : responsesThisPath) {
-                        boolean responseInThisPath = r.surveyResponseContainsAnswer(variants);
-                        if (responseInThisPath) {
-                            SurveyMan.LOGGER.info("Found an answer on this path!");
-                            ansThisPath += 1.0;
-                        }
-                    }
-                    double p = ansThisPath / (double) totalResponses;
-                    retval += log2(p) * p;
-                }
-            }
-        }
-        return -retval;
+        assert responses.size() > 1 : "surveyEntropy is meaningless for fewer than 1 response.";
+        return new SurveyEntropy(survey).getEntropy(responses);
     }
 
     /**
@@ -223,7 +186,7 @@ public class QCMetrics {
             if (block.branchParadigm != Block.BranchParadigm.ALL)
                 questions.addAll(block.questions);
             else {
-                questions.add(block.questions.get(new Random().nextInt(block.questions.size())));
+                questions.add(block.questions.get(RandomSource.current().nextInt(block.questions.size())));
             }
             questions.addAll(getQuestions(block.subBlocks));
         }
@@ -231,102 +194,52 @@ public class QCMetrics {
     }
 
     /**
-     * Returns the maximum possible entropy for a single Question.
-     * @param question The question of interest.
-     * @return An entropy-based calculation that distributes mass across all possible options equally.
+     * The public method used to compute the maximum number of bits needed to represent this survey. See
+     * {@link PathAnalyzer#getMaxPossibleEntropy()}.
+     * @param survey The survey of interest.
+     * @return The entropy of the highest-entropy path, with every option of every question equally likely.
      */
-    private static double maxEntropyOneQuestion(
-            Question question)
+    public static double getMaxPossibleEntropy(
+            Survey survey)
     {
-        double retval = 0.0;
-        int numOptions = question.options.size();
-        if (numOptions != 0) {
-            retval += log2((double) numOptions);
-        }
-        return retval;
+        return new PathAnalyzer(survey).getMaxPossibleEntropy();
     }
 
-
-    /**
-     * Returns the total entropy for a list of Questions.
-     * @param questionList
-     * @return
-     */
-    private static double maxEntropyQlist(
-            List<Question> questionList)
-    {
-        double retval = 0.0;
-        for (Question q : questionList) {
-            retval += maxEntropyOneQuestion(q);
-        }
-        return retval;
+    public static int minimumPathLength(Survey survey){
+        return new PathAnalyzer(survey).getMinimumPathLength();
     }
 
-
-    /**
-     * Returns the path with the highest entropy.
-     * @param blists
-     * @return
-     */
-    private static List<Block> getMaxPathForEntropy(List<List<Block>> blists) {
-        List<Block> retval = new ArrayList<Block>();
-        double maxEnt = 0.0;
-        for (List<Block> blist : blists) {
-            double ent = maxEntropyQlist(getQuestions(blist));
-            if (ent > maxEnt) {
-                maxEnt = ent;
-                retval = blist;
-            }
-        }
-        return retval;
+    public static int maximumPathLength(Survey survey) {
+        return new PathAnalyzer(survey).getMaximumPathLength();
     }
 
     /**
-     * The public method used to compute the maximum number of bits needed to represent this survey.
-     * @param survey
-     * @return
+     * Returns the exact expected number of questions a uniform random respondent answers. See {@link PathAnalyzer}.
+     * @param survey The survey of interest.
+     * @return The expected path length.
+     * @throws SurveyException
      */
-    public static double getMaxPossibleEntropy(
+    public static double averagePathLength(
             Survey survey)
+            throws SurveyException
     {
-        return maxEntropyQlist(getQuestions(getMaxPathForEntropy(getPaths(survey))));
-    }
-
-    public static int minimumPathLength(Survey survey){
-        List<List<Block>> paths = getPaths(survey);
-        int min = Integer.MAX_VALUE;
-        for (List<Block> path : paths) {
-            int pathLength = getQuestions(path).size();
-            if (pathLength < min)
-                min = pathLength;
-        }
-        return min;
-    }
-
-    public static int maximumPathLength(Survey survey) {
-        List<List<Block>> paths = getPaths(survey);
-        int max = Integer.MIN_VALUE;
-        for (List<Block> path : paths) {
-            int pathLength = getQuestions(path).size();
-            if (pathLength > max) {
-                max = pathLength;
-            }
-        }
-        return max;
-
+        return new PathAnalyzer(survey).getExpectedPathLength();
     }
 
+    /**
+     * The path length is now computed exactly, so no stream is needed.
+     * @param survey The survey of interest.
+     * @param random Unused.
+     * @return The expected path length.
+     * @throws SurveyException
+     */
+    @Deprecated
     public static double averagePathLength(
-            Survey survey)
+            Survey survey,
+            Random random)
             throws SurveyException
     {
-        int n = 5000;
-        int stuff = 0;
-        for (int i = 0 ; i < n ; i++) {
-            RandomRespondent rr = new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM);
-            stuff += rr.getResponse().getNonCustomResponses().size();
-        }
-        return (double) stuff / n;
+        return averagePathLength(survey);
     }
 
     /**
@@ -379,7 +292,8 @@ public class QCMetrics {
                     if (!retval.containsKey(q.quid)) {
                         retval.put(q.quid, new HashMap<String, Integer>());
                     }
-                    retval.get(q.quid).put(c.getCid(), 1);
+                    Map<String, Integer> counts = retval.get(q.quid);
+                    counts.put(c.getCid(), counts.containsKey(c.getCid()) ? counts.get(c.getCid()) + 1 : 1);
                     if (!allComponentIdsSelected.contains(c.getCid())) {
                         numberNeedingSmoothing++;
                     }
@@ -410,6 +324,78 @@ public class QCMetrics {
         return retval;
     }
 
+    /**
+     * Creates a frequency table from a compiled response matrix.
+     * @param matrix The compiled responses.
+     * @param smoothing Whether to add one to the count of every declared option (LaPlace smoothing).
+     * @return A table indexed by question ordinal, then option ordinal, of counts.
+     */
+    public static int[][] makeFrequencies(
+            ResponseMatrix matrix,
+            boolean smoothing)
+    {
+        int[][] retval = new int[matrix.getNumQuestions()][];
+        for (int q = 0; q < matrix.getNumQuestions(); q++) {
+            int[] counts = new int[matrix.getNumOptions(q)];
+            for (int r = 0; r < matrix.getNumRespondents(); r++)
+                for (int k = 0; k < matrix.getNumSelected(q, r); k++)
+                    counts[matrix.getSelected(q, r, k)]++;
+            if (smoothing)
+                for (int o = 0; o < matrix.getQuestion(q).options.size(); o++)
+                    counts[o]++;
+            retval[q] = counts;
+        }
+        return retval;
+    }
+
+    /**
+     * Normalizes each question's row of the frequency table.
+     * @param frequencies A table of counts indexed by question ordinal, then option ordinal.
+     * @return A table of probabilities with the same shape.
+     */
+    public static double[][] makeProbabilities(
+            int[][] frequencies)
+    {
+        double[][] retval = new double[frequencies.length][];
+        for (int q = 0; q < frequencies.length; q++) {
+            double total = 0.0;
+            for (int count : frequencies[q])
+                total += count;
+            retval[q] = new double[frequencies[q].length];
+            if (total > 0)
+                for (int o = 0; o < frequencies[q].length; o++)
+                    retval[q][o] = frequencies[q][o] / total;
+        }
+        return retval;
+    }
+
+    public static double getLLForResponse(
+            ResponseMatrix matrix,
+            int r,
+            double[][] probabilities)
+    {
+        double ll = 0.0;
+        for (int q = 0; q < matrix.getNumQuestions(); q++)
+            for (int k = 0; k < matrix.getNumSelected(q, r); k++)
+                ll += log2(probabilities[q][matrix.getSelected(q, r, k)]);
+        return ll;
+    }
+
+    public static double getEntropyForResponse(
+            ResponseMatrix matrix,
+            int r,
+            double[][] probabilities)
+    {
+        double ent = 0.0;
+        for (int q = 0; q < matrix.getNumQuestions(); q++)
+            for (int k = 0; k < matrix.getNumSelected(q, r); k++) {
+                double p = probabilities[q][matrix.getSelected(q, r, k)];
+                assert p > 0.0;
+                ent += p * log2(p);
+            }
+        return -ent;
+    }
+
     public static double getLLForResponse(
             List<IQuestionResponse> questionResponses,
             Map<String, Map<String, Double>> probabilities) {
@@ -441,30 +427,7 @@ public class QCMetrics {
         return -ent;
     }
 
-    private static List<Double> calculateLogLikelihoods(
-            AbstractSurveyResponse base,
-            List<AbstractSurveyResponse> responses,
-            Map<String, Map<String, Double>> probabilities)
-            throws SurveyException
-    {
-        List<Double> retval = new LinkedList<Double>();
-        // get the first response count
-        int responseSize = base.getNonCustomResponses().size();
-        for (AbstractSurveyResponse sr : responses) {
-            List<IQuestionResponse> questionResponses = getResponseSubset(base, sr);
-            int thisresponsesize = questionResponses.size();
-            if (thisresponsesize == 0)
-                continue;
-            assert responseSize == thisresponsesize : String.format(
-                    "Expected %d responses, got %d",
-                    responseSize,
-                    thisresponsesize);
-            retval.add(getLLForResponse(questionResponses, probabilities));
-        }
-        return retval;
-    }
-
-    private static List<IQuestionResponse> getResponseSubset(
+    protected static List<IQuestionResponse> getResponseSubset(
             AbstractSurveyResponse base,
             AbstractSurveyResponse target
     ) throws SurveyException {
@@ -498,7 +461,9 @@ public class QCMetrics {
      * @param responses The list of actual or simulated responses to the survey.
      * @param iterations The number of bootstrap samples we should generate.
      * @return
+     * @deprecated Materializes every resample; use {@link Bootstrap}, which resamples precomputed scores by index.
      */
+    @Deprecated
     public static List<List<AbstractSurveyResponse>> generateBootstrapSample(
             List<AbstractSurveyResponse> responses,
             int iterations)
@@ -507,7 +472,7 @@ public class QCMetrics {
         for (int i = 0; i < iterations; i++) {
             List<AbstractSurveyResponse> sample = new ArrayList<AbstractSurveyResponse>();
             for (int j = 0 ; j < responses.size() ; j++) {
-                sample.add(responses.get(Interpreter.random.nextInt(responses.size())));
+                sample.add(responses.get(RandomSource.current().nextInt(responses.size())));
             }
             retval.add(sample);
         }
@@ -530,28 +495,7 @@ public class QCMetrics {
             boolean smoothing,
             double alpha
     ) throws SurveyException {
-        Map<String, Map<String, Double>> probabilities = makeProbabilities(makeFrequencies(responses, smoothing ? survey : null));
-        List<Double> lls = calculateLogLikelihoods(sr, responses, probabilities);
-        if (new HashSet<Double>(lls).size() > 5) {
-            double thisLL = getLLForResponse(sr.getNonCustomResponses(), probabilities);
-            List<List<AbstractSurveyResponse>> bsSample = generateBootstrapSample(responses, bootstrapIterations);
-            List<Double> means = new ArrayList<Double>();
-            for (List<AbstractSurveyResponse> sample : bsSample) {
-                double total = 0.0;
-                for (AbstractSurveyResponse surveyResponse: sample) {
-                    total += getLLForResponse(getResponseSubset(sr, surveyResponse), probabilities);
-                }
-                means.add(total / sample.size());
-            }
-            Collections.sort(means);
-            assert means.get(0) < means.get(means.size() - 1);
-            //SurveyMan.LOGGER.info(String.format("Range of means: [%f, %f]", means.get(0), means.get(means.size() -1)));
-            double threshHold = means.get((int) Math.floor(alpha * means.size()));
-            //SurveyMan.LOGGER.info(String.format("Threshold: %f\tLL: %f", threshHold, thisLL));
-            sr.setScore(thisLL);
-            sr.setThreshold(threshHold);
-            return thisLL > threshHold;
-        } else return true;
+        return new BatchClassifier(survey, responses, Classifier.LOG_LIKELIHOOD, smoothing, alpha).classify(sr);
     }
 
     /**
@@ -571,193 +515,95 @@ public class QCMetrics {
             double alpha
     ) throws SurveyException
     {
-        // basically the same as logLikelihood, but scores are p * log p, rather than straight up p
-        Map<String, Map<String, Double>> probabilities = makeProbabilities(makeFrequencies(responses, smoothing ? survey : null));
-        List<Double> lls = calculateLogLikelihoods(sr, responses, probabilities);
-        if (new HashSet<Double>(lls).size() > 5) {
-            double thisEnt = getEntropyForResponse(sr, probabilities);
-            List<List<AbstractSurveyResponse>> bsSample = generateBootstrapSample(responses, bootstrapIterations);
-            List<Double> means = new ArrayList<Double>();
-            for (List<AbstractSurveyResponse> sample : bsSample) {
-                assert sample.size() > 0 : "Sample size must be greater than 0.";
-                double total = 0.0;
-                for (AbstractSurveyResponse surveyResponse : sample) {
-                    double ent = getEntropyForResponse(surveyResponse, probabilities);
-                    total += ent;
-                }
-                means.add(total / sample.size());
-            }
-            Collections.sort(means);
-            assert means.get(0) < means.get(means.size() - 1) :
-                    String.format("Ranked means expected mean at position 0 to be greater than the mean at %d (%f < %f).",
-                    means.size(), means.get(0), means.get(means.size() - 1));
-            double threshHold = means.get((int) Math.floor(alpha * means.size()));
-            sr.setThreshold(threshHold);
-            sr.setScore(thisEnt);
-            SurveyMan.LOGGER.debug(String.format("This entropy: %f\tThis threshold:%f", thisEnt, threshHold));
-            return thisEnt < threshHold;
-        } else return true;
-    }
-
-    protected static void computeRanks(
-            double[] xranks,
-            List xs)
-    {
-        Object lastComponent = null;
-        int startRun = Integer.MAX_VALUE;
-        int endRun = 0;
-
-        for (int i = 0 ; i < xs.size() ; i++) {
-            if (lastComponent==null || !lastComponent.equals(xs.get(i))) {
-                if (endRun > startRun) {
-                    // then we need to distribute the ranks of the run of equals
-                    double denominator = endRun - startRun + 1.0;
-                    int numerator = ((endRun^2 + endRun) / 2) - ((startRun^2 + startRun) / 2) + startRun;
-                    double rank = numerator / denominator;
-                    for (; startRun <= endRun ; startRun++){
-                        xranks[startRun] = rank;
-                    }
-                }
-                xranks[i] = i+1;
-                lastComponent = xs.get(i);
-            } else {
-                if (startRun >= endRun)
-                    startRun = i;
-                endRun = i;
-            }
-        }
+        return new BatchClassifier(survey, responses, Classifier.ENTROPY, smoothing, alpha).classify(sr);
     }
 
+    /**
+     * Computes Spearman's rank correlation of two ordered questions, pairing answers by respondent id. When neither
+     * question's answers vary, no ranks differ, and rho is 1 as in the classical formula.
+     */
     protected static double spearmansRho(
             Map<String, IQuestionResponse> listA,
             Map<String, IQuestionResponse> listB)
     {
-        // order the IQuestionResponses
-        List<Component> xs = new ArrayList<Component>(), ys = new ArrayList<Component>();
-
-        for (IQuestionResponse qr : listA.values()) {
-            xs.add(qr.getOpts().get(0).c);
-        }
-        for (IQuestionResponse qr : listB.values()) {
-            ys.add(qr.getOpts().get(0).c);
-        }
-        Collections.sort(xs);
-        Collections.sort(ys);
-
-        // compute ranks
-        double[] xranks = new double[xs.size()];
-        double[] yranks = new double[ys.size()];
-        computeRanks(xranks, xs);
-        computeRanks(yranks, ys);
-
-        double sumOfSquares = 0.0;
-        for (int i = 0; i < xranks.length; i++){
-            sumOfSquares += Math.pow(xranks[i] - yranks[i], 2);
+        Question sampleQA = listA.values().iterator().next().getQuestion();
+        Question sampleQB = listB.values().iterator().next().getQuestion();
+        Map<String, Integer> ranksA = getOptionRanks(sampleQA);
+        Map<String, Integer> ranksB = getOptionRanks(sampleQB);
+        int[][] table = new int[ranksA.size()][ranksB.size()];
+        for (Map.Entry<String, IQuestionResponse> entry : listA.entrySet()) {
+            IQuestionResponse qrB = listB.get(entry.getKey());
+            if (qrB == null)
+                continue;
+            table[ranksA.get(entry.getValue().getOpts().get(0).c.getCid())]
+                    [ranksB.get(qrB.getOpts().get(0).c.getCid())]++;
         }
-
-        int n = xranks.length;
-
-        return 1 - ((6 * sumOfSquares) / (n * (n^2 - 1)));
+        int numCells = 0;
+        for (int[] row : table)
+            for (int ct : row)
+                if (ct > 0)
+                    numCells++;
+        if (numCells == 1)
+            return 1.0;
+        return RankStatistics.spearmansRho(table);
     }
 
-    protected static double cellExpectation(
-            int[][] contingencyTable,
-            int i,
-            int j,
-            int n)
-    {
-        int o1 = 0, o2 = 0;
-        for (int r = 0 ; r < contingencyTable.length ; r++)
-            o1 += contingencyTable[r][j];
-        for (int c = 0 ; c < contingencyTable[0].length; c++)
-            o2 += contingencyTable[i][c];
-        return o1 * o2 / ((double) n);
-    }
-
-    protected static double chiSquared(
-            int[][] contingencyTable,
-            Object[] categoryA,
-            Object[] categoryB)
+    /**
+     * Ranks the options of a question by their source rows.
+     */
+    private static Map<String, Integer> getOptionRanks(
+            Question q)
     {
-        double testStatistic = 0.0;
-        int numSamples = 0;
-        for (int i = 0; i < contingencyTable.length; i ++)
-            for (int j = 0; j < contingencyTable[i].length; j++)
-                numSamples+=contingencyTable[i][j];
-        for (int r = 0; r < categoryA.length; r++)
-            for (int c = 0; c < categoryB.length; c++) {
-                double eij = cellExpectation(contingencyTable, r, c, numSamples);
-                if (eij == 0.0)
-                    continue;
-                testStatistic += Math.pow(contingencyTable[r][c] - eij, 2.0) / eij;
-            }
-        return testStatistic;
+        List<Component> opts = new ArrayList<Component>(q.options.values());
+        Collections.sort(opts);
+        Map<String, Integer> ranks = new HashMap<String, Integer>();
+        for (int i = 0; i < opts.size(); i++)
+            ranks.put(opts.get(i).getCid(), i);
+        return ranks;
     }
 
-
     protected static double cramersV(
             Map<String, IQuestionResponse> listA,
             Map<String,IQuestionResponse> listB)
     {
-        Question sampleQA = ((IQuestionResponse) listA.values().toArray()[0]).getQuestion();
-        Question sampleQB = ((IQuestionResponse) listB.values().toArray()[0]).getQuestion();
+        Question sampleQA = listA.values().iterator().next().getQuestion();
+        Question sampleQB = listB.values().iterator().next().getQuestion();
         assert listA.size() == listB.size() : String.format(
                 "Question responses have different sizes:\n%d for question %s\n%d for question %s",
                 listA.size(), sampleQA,
                 listB.size(), sampleQB
         );
         // get the categories for the contingency table:
-        final Component[] categoryA = new Component[sampleQA.options.values().size()];
-        final Component[] categoryB = new Component[sampleQB.options.values().size()];
-        sampleQA.options.values().toArray(categoryA);
-        sampleQB.options.values().toArray(categoryB);
-
-        int r = categoryA.length;
-        int c = categoryB.length;
-        if (r==0 || c==0)
+        Map<String, Integer> categoryA = getOptionRanks(sampleQA);
+        Map<String, Integer> categoryB = getOptionRanks(sampleQB);
+        if (categoryA.isEmpty() || categoryB.isEmpty())
             return -0.0;
         // get the observations and put them in a contingency table:
-        int[][] contingencyTable = new int[r][c];
-        // initialize
-        for (int i = 0; i < r; i++)
-            for (int j = 0; j < c; j++)
-                contingencyTable[i][j] = 0;
+        ContingencyTable contingencyTable = new ContingencyTable(categoryA.size(), categoryB.size());
         for (Map.Entry<String, IQuestionResponse> entry : listA.entrySet()) {
-            String id = entry.getKey();
             Component ansA = entry.getValue().getOpts().get(0).c;
-            Component ansB = listB.get(id).getOpts().get(0).c;
-            int i = 0, j = 0;
-            for (; i < r ; i++)
-                if (categoryA[i].equals(ansA))
-                    break;
-            for (; j < c ; j++)
-                if (categoryB[j].equals(ansB))
-                    break;
-            contingencyTable[i][j] += 1;
+            Component ansB = listB.get(entry.getKey()).getOpts().get(0).c;
+            contingencyTable.increment(categoryA.get(ansA.getCid()), categoryB.get(ansB.getCid()));
         }
-
-        return Math.sqrt((chiSquared(contingencyTable, categoryA, categoryB) / listA.size()) / Math.min(c - 1, r - 1));
+        return contingencyTable.cramersV();
     }
 
+    /**
+     * Runs the Mann-Whitney U test on two histograms over the same ordered options, ranking each option by its index.
+     * @return The p-value of {@link RankStatistics#mannWhitneyPValue}, or -0.0 if either histogram is empty.
+     */
     protected static double mannWhitney(
-            Question q1,
-            Question q2,
-            List<Component> list1,
-            List<Component> list2)
-    {
-        if (list1.size()==0 || list2.size()==0)
+            int[] histogram1,
+            int[] histogram2)
+    {
+        int n1 = 0, n2 = 0;
+        for (int ct : histogram1)
+            n1 += ct;
+        for (int ct : histogram2)
+            n2 += ct;
+        if (n1==0 || n2==0)
             return -0.0;
-        // make ranks on the basis of the source row index
-        Collections.sort(list1);
-        Collections.sort(list2);
-        double[] list1ranks = new double[list1.size()];
-        double[] list2ranks = new double[list2.size()];
-        for (int i = 0 ; i < list1.size() ; i++)
-            list1ranks[i] = (double) list1.get(i).getSourceRow() - q1.getSourceRow() + 1;
-        for (int i = 0 ; i < list2.size() ; i++)
-            list2ranks[i] = (double) list2.get(i).getSourceRow() - q2.getSourceRow() + 1;
-        // default constructor for mann whitney averages ties.
-        return new MannWhitneyUTest().mannWhitneyUTest(list1ranks, list2ranks);
+        return RankStatistics.mannWhitneyPValue(histogram1, histogram2);
     }
 
     /**
@@ -774,72 +620,87 @@ public class QCMetrics {
             double alpha)
             throws SurveyException
     {
+        return getFrequenciesOfRandomCorrelation(survey, sampleSize, alpha, RandomSource.current());
+    }
 
-        Map<Question, Map<Question, CorrelationStruct>> corrs =
-                new HashMap<Question, Map<Question, CorrelationStruct>>();
-        List<RandomRespondent> randomRespondents =
-                new ArrayList<RandomRespondent>();
+    /**
+     * Simulates a survey of 100% random uniform respondents over sampleSize and calculates a prior on false correlation.
+     * Every pair of distinct exclusive questions is compared once, keyed by the question that comes first in the survey;
+     * the tables for all pairs are filled in a single pass over the respondents (see {@link PairwiseContingency}).
+     * @param survey The survey these respondents answered.
+     * @param sampleSize The sample size the survey writer intends to use during the full-scale study.
+     * @param alpha The cutoff used for determining correlation.
+     * @param random The stream to simulate with.
+     * @return Empirical false correlation.
+     * @throws SurveyException
+     */
+    public static Map<Question, Map<Question, CorrelationStruct>> getFrequenciesOfRandomCorrelation(
+            Survey survey,
+            int sampleSize,
+            double alpha,
+            Random random)
+            throws SurveyException
+    {
 
-        for (int i = 0 ; i < sampleSize; i++){
-            randomRespondents.add(new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM));
+        List<Question> exclusive = new ArrayList<Question>();
+        for (Question q : survey.questions) {
+            if (q.exclusive == null || !q.exclusive) continue;
+            assert q.freetext == null || !q.freetext : String.format(
+                    "Cannot have a freetext question with exclusive set to true (%s)", q);
+            exclusive.add(q);
         }
-
-        for (Question q1 : survey.questions) {
-            if (!q1.exclusive) continue;
-            assert !q1.freetext : String.format(
-                    "Cannot have a freetext question with exclusive set to true (%s)", q1);
-            for (Question q2: survey.questions) {
-                if (!q2.exclusive) continue;
-                assert !q2.freetext : String.format(
-                        "Cannot have a freetext question with exclusive set to true (%s), q2");
-                // get responses having answered both questions
-                Map<String, IQuestionResponse> q1responses = new HashMap<String, IQuestionResponse>();
-                Map<String, IQuestionResponse> q2responses = new HashMap<String, IQuestionResponse>();
-                for (RandomRespondent rr : randomRespondents) {
-
-                    IQuestionResponse qr1 = null;
-                    IQuestionResponse qr2 = null;
-
-                    for (IQuestionResponse qr : rr.getResponse().getNonCustomResponses()) {
-                        if (qr.getQuestion().equals(q1))
-                            qr1 = qr;
-                        if (qr.getQuestion().equals(q2))
-                            qr2 = qr;
-                        if (qr1!=null && qr2!=null)
-                            break;
-                    }
-
-                    if (qr1!=null && qr2!=null){
-                        q1responses.put(rr.id, qr1);
-                        q2responses.put(rr.id, qr2);
-                    }
-                }
-                // compute the appropriate correlation coefficient
-                Map<Question, CorrelationStruct> stuff = new HashMap<Question, CorrelationStruct>();
-                if (q1.ordered && q2.ordered)
-                    stuff.put(q2, new CorrelationStruct(
-                            CoefficentsAndTests.RHO,
-                            spearmansRho(q1responses, q2responses),
-                            q1,
-                            q2,
-                            q1responses.size(),
-                            q2responses.size()));
-                else
-                    stuff.put(q2, new CorrelationStruct(
-                            CoefficentsAndTests.V,
-                            cramersV(q1responses, q2responses),
-                            q1,
-                            q2,
-                            q1responses.size(),
-                            q2responses.size()
-                    ));
-                corrs.put(q1, stuff);
-                // count how many p-values are below the threshhold.
+        // one pass over the respondents fills the contingency table of every pair
+        PairwiseContingency tables = new PairwiseContingency(exclusive);
+        new RespondentSource(new ExecutionPlan(survey), sampleSize, 1.0, random).fold(tables);
+        Map<Question, Map<Question, CorrelationStruct>> corrs =
+                new HashMap<Question, Map<Question, CorrelationStruct>>();
+        for (int i = 0; i < exclusive.size(); i++) {
+            Question q1 = exclusive.get(i);
+            Map<Question, CorrelationStruct> stuff = new HashMap<Question, CorrelationStruct>();
+            for (int j = i + 1; j < exclusive.size(); j++) {
+                Question q2 = exclusive.get(j);
+                int numSamples = tables.getNumSamples(i, j);
+                stuff.put(q2, new CorrelationStruct(
+                        correlationType(q1, q2),
+                        correlation(tables, i, j),
+                        q1,
+                        q2,
+                        numSamples,
+                        numSamples));
             }
+            if (!stuff.isEmpty())
+                corrs.put(q1, stuff);
         }
         return corrs;
     }
 
+    /**
+     * Returns the coefficient used to compare two questions: Spearman's rho if both are ordered, else Cramer's V.
+     */
+    static CoefficentsAndTests correlationType(
+            Question q1,
+            Question q2)
+    {
+        return Boolean.TRUE.equals(q1.ordered) && Boolean.TRUE.equals(q2.ordered)
+                ? CoefficentsAndTests.RHO
+                : CoefficentsAndTests.V;
+    }
+
+    /**
+     * Computes the coefficient of {@link #correlationType} for a pair of tabulated questions.
+     */
+    static double correlation(
+            PairwiseContingency tables,
+            int i,
+            int j)
+    {
+        List<Question> questions = tables.getQuestions();
+        ContingencyTable table = tables.getContingencyTable(i, j);
+        if (correlationType(questions.get(i), questions.get(j)) == CoefficentsAndTests.RHO)
+            return RankStatistics.spearmansRho(table);
+        else return table.cramersV();
+    }
+
     private static List<IQuestionResponse> removeCustomQuestions(
             AbstractSurveyResponse sr)
     {
@@ -897,6 +758,44 @@ public class QCMetrics {
         return breakoffMap;
     }
 
+    /**
+     * Aggregates the breakoff according to the last position answered.
+     * @param survey The survey these respondents answered.
+     * @param matrix The compiled responses.
+     * @return A BreakoffByPosition object containing all of the values just computed.
+     */
+    public static BreakoffByPosition calculateBreakoffByPosition (
+            Survey survey,
+            ResponseMatrix matrix)
+    {
+        BreakoffByPosition breakoffMap = new BreakoffByPosition(survey);
+        for (int r = 0; r < matrix.getNumRespondents(); r++)
+            breakoffMap.update(matrix.getNumAnswered(r));
+        return breakoffMap;
+    }
+
+    /**
+     * Aggregates the breakoff according to which question was last answered.
+     * @param survey The survey these respondents answered.
+     * @param matrix The compiled responses.
+     * @return A BreakoffByQuestion object containing all of the values just computed.
+     */
+    public static BreakoffByQuestion calculateBreakoffByQuestion (
+            Survey survey,
+            ResponseMatrix matrix)
+    {
+        BreakoffByQuestion breakoffMap = new BreakoffByQuestion(survey);
+        for (int r = 0; r < matrix.getNumRespondents(); r++) {
+            int last = -1;
+            for (int q = 0; q < matrix.getNumQuestions(); q++)
+                if (matrix.isAnswered(q, r) && (last == -1 || matrix.getPosition(q, r) > matrix.getPosition(last, r)))
+                    last = q;
+            if (last > -1)
+                breakoffMap.update(matrix.getQuestion(last));
+        }
+        return breakoffMap;
+    }
+
     /**
      * Searches for significant wording biases observed in survey responses.
      * @param survey The survey these respondents answered.
@@ -910,65 +809,41 @@ public class QCMetrics {
             List<AbstractSurveyResponse> responses,
             double alpha)
             throws SurveyException
+    {
+        return calculateWordingBiases(survey, new ResponseMatrix(survey, responses), alpha);
+    }
+
+    /**
+     * Searches for significant wording biases, reading answers from a compiled response matrix. The answers to every
+     * variant of every ALL block are counted in one sweep (see {@link WordingBiasHistograms}), and each pair of
+     * variants is tested on its histograms.
+     * @param survey The survey these respondents answered.
+     * @param matrix The compiled responses.
+     * @param alpha The cutoff used for determining whether the bias is significant.
+     * @return A WordingBiasStruct object containing all of the values just computed.
+     * @throws SurveyException
+     */
+    public static WordingBiasStruct calculateWordingBiases (
+            Survey survey,
+            ResponseMatrix matrix,
+            double alpha)
+            throws SurveyException
     {
         WordingBiasStruct retval = new WordingBiasStruct(survey, alpha);
-        // get variants
-        for (Block b : survey.getAllBlocks()) {
-            if (b.branchParadigm.equals(Block.BranchParadigm.ALL)) {
-                List<Question> variants = b.branchQ.getVariants();
-                for (Question q1: variants) {
-                    if (!q1.exclusive)
+        WordingBiasHistograms histograms = new WordingBiasHistograms(survey, matrix);
+        for (int b = 0; b < histograms.getBlocks().size(); b++)
+            for (int v1 = 0; v1 < histograms.getNumVariants(b); v1++)
+                for (int v2 = 0; v2 < histograms.getNumVariants(b); v2++) {
+                    if (v1 == v2)
                         continue;
-                    for (Question q2: variants) {
-                        assert q2.exclusive : "All question variants must have the same parameter settings.";
-                        List<Component> q1answers = new ArrayList<Component>();
-                        List<Component> q2answers = new ArrayList<Component>();
-                        for (AbstractSurveyResponse sr : responses) {
-                            if (sr.hasResponseForQuestion(q1))
-                                q1answers.add(sr.getResponseForQuestion(q1).getOpts().get(0).c);
-                            if (sr.hasResponseForQuestion(q2))
-                                q2answers.add(sr.getResponseForQuestion(q2).getOpts().get(0).c);
-                        }
-                        if (q1.exclusive && q2.exclusive) {
-                            retval.update(b, q1, q2, new CorrelationStruct(
-                                    CoefficentsAndTests.U,
-                                    mannWhitney(q1, q2, q1answers, q2answers),
-                                    q1,
-                                    q2,
-                                    q1answers.size(),
-                                    q2answers.size())
-                            );
-                        } else {
-                            // sort by their source rows
-                            List<Component> categoryA = Arrays.asList(q1.getOptListByIndex());
-                            List<Component> categoryB = Arrays.asList(q2.getOptListByIndex());
-                            Collections.sort(categoryA);
-                            Collections.sort(categoryB);
-                            int[][] contingencyTable = new int[categoryA.size()][2];
-                            // initialize the contingency table
-                            for (int i = 0 ; i < categoryA.size() ; i++) {
-                                contingencyTable[i][0] = 0;
-                                contingencyTable[i][1] = 0;
-                            }
-
-                            for (Component c : q1answers)
-                                contingencyTable[0][categoryA.indexOf(c)] += 1;
-                            for (Component c : q2answers)
-                                contingencyTable[0][categoryA.indexOf(c)] += 1;
-
-                            retval.update(b, q1, q2, new CorrelationStruct(
-                                    CoefficentsAndTests.CHI,
-                                    chiSquared(contingencyTable, categoryA.toArray(), new List[]{q1answers, q2answers}),
-                                    q1,
-                                    q2,
-                                    q1answers.size(),
-                                    q2answers.size())
-                            );
-                        }
-                    }
+                    Question q1 = histograms.getVariant(b, v1);
+                    Question q2 = histograms.getVariant(b, v2);
+                    assert q2.exclusive : "All question variants must have the same parameter settings.";
+                    CorrelationStruct test = compareHistograms(q1, q2,
+                            histograms.getHistogram(b, v1), histograms.getHistogram(b, v2));
+                    if (test != null)
+                        retval.update(histograms.getBlocks().get(b), q1, q2, test);
                 }
-            }
-        }
         return retval;
     }
 
@@ -985,68 +860,83 @@ public class QCMetrics {
             List<AbstractSurveyResponse> responses,
             double alpha)
             throws SurveyException
+    {
+        return calculateOrderBiases(survey, new ResponseMatrix(survey, responses), alpha);
+    }
+
+    /**
+     * Searches for significant order biases, reading answers and positions from a compiled response matrix. The
+     * answers to each exclusive question are counted before and after every preceding question in one sweep (see
+     * {@link OrderBiasHistograms}), and each pair is tested on its histograms.
+     * @param survey The survey these respondents answered.
+     * @param matrix The compiled responses.
+     * @param alpha The cutoff used for determining whether the bias is significant.
+     * @return An OrderBiasStruct object containing all of the values just computed.
+     * @throws SurveyException
+     */
+    public static OrderBiasStruct calculateOrderBiases (
+            Survey survey,
+            ResponseMatrix matrix,
+            double alpha)
+            throws SurveyException
     {
         OrderBiasStruct retval = new OrderBiasStruct(survey, alpha);
-        for (Question q1 : survey.questions) {
-            for (Question q2 : survey. questions) {
-                if (!q1.exclusive || q1.equals(q2))
-                    break;
-                else {
-                    // q1 answers when q1 comes first
-                    List<Component> q1q2 = new ArrayList<Component>();
-                    // q1 answers when q1 comes second
-                    List<Component> q2q1 = new ArrayList<Component>();
-                    for (AbstractSurveyResponse sr : responses) {
-                        if (sr.hasResponseForQuestion(q1) && sr.hasResponseForQuestion(q2)) {
-                            IQuestionResponse qr1 = sr.getResponseForQuestion(q1);
-                            IQuestionResponse qr2 = sr.getResponseForQuestion(q2);
-                            if (qr1.getIndexSeen() < qr2.getIndexSeen())
-                                // add the response to question 1 to the list of q1s that precede q2s
-                                q1q2.add(qr1.getOpts().get(0).c);
-                            else if (qr1.getIndexSeen() > qr2.getIndexSeen())
-                                // add the response to question 1 to the list of q1s that succeed q2s
-                                q2q1.add(qr1.getOpts().get(0).c);
-                        }
-                    }
-                    if (q1.ordered && q2.ordered)
-                        retval.update(q1, q2, new CorrelationStruct(
-                                CoefficentsAndTests.U,
-                                mannWhitney(q1, q2, q1q2, q2q1),
-                                q1,
-                                q2,
-                                q1q2.size(),
-                                q2q1.size())
-                        );
-                    else {
-                        Component[] categoryA = q1.getOptListByIndex();
-                        int[][] contingencyTable = new int[categoryA.length][2];
-                        for (int i = 0 ; i < categoryA.length ; i++ ){
-                            contingencyTable[i][0] = 0;
-                            contingencyTable[i][1] = 0;
-                        }
-                        // if the difference in the observations is large, the orderings is incomparable
-                        // make this more principled in the future.
-                        double ratio = q1q2.size() / (double) q1q2.size();
-                        if (q1q2.size() < 5 || q2q1.size() < 5 || (ratio > 0.8 && ratio < 1.2))
-                            break;
-                        for (Component c : q1q2)
-                            contingencyTable[Arrays.asList(categoryA).indexOf(c)][0] += 1;
-                        for (Component c : q2q1)
-                            contingencyTable[Arrays.asList(categoryA).indexOf(c)][1] += 1;
-                        retval.update(q1, q2, new CorrelationStruct(
-                                CoefficentsAndTests.CHI,
-                                chiSquared(contingencyTable, categoryA, new List[]{q1q2, q2q1}),
-                                q1,
-                                q2,
-                                q1q2.size(),
-                                q2q1.size()));
-                    }
+        OrderBiasHistograms histograms = new OrderBiasHistograms(matrix);
+        for (int q1 = 0; q1 < matrix.getNumQuestions(); q1++)
+            for (int q2 = 0; q2 < q1; q2++)
+                if (histograms.isCounted(q1, q2)) {
+                    Question question1 = matrix.getQuestion(q1);
+                    Question question2 = matrix.getQuestion(q2);
+                    CorrelationStruct test = compareHistograms(question1, question2,
+                            histograms.getBefore(q1, q2), histograms.getAfter(q1, q2));
+                    if (test != null)
+                        retval.update(question1, question2, test);
                 }
-            }
-        }
         return retval;
     }
 
+    /**
+     * Tests whether two histograms over q1's options differ: by the Mann-Whitney U test when both questions are
+     * ordered, and by the chi-squared test of homogeneity otherwise.
+     * @return The test's p-value, or null if there are too few observations for the chi-squared test.
+     */
+    private static CorrelationStruct compareHistograms(
+            Question q1,
+            Question q2,
+            int[] histogram1,
+            int[] histogram2)
+    {
+        int k = Math.max(histogram1.length, histogram2.length);
+        int num1 = 0, num2 = 0;
+        for (int ct : histogram1)
+            num1 += ct;
+        for (int ct : histogram2)
+            num2 += ct;
+        if (Boolean.TRUE.equals(q1.ordered) && Boolean.TRUE.equals(q2.ordered))
+            return new CorrelationStruct(
+                    CoefficentsAndTests.U,
+                    mannWhitney(histogram1, histogram2),
+                    q1,
+                    q2,
+                    num1,
+                    num2);
+        // too few observations on either side for the chi-squared approximation
+        if (num1 < 5 || num2 < 5)
+            return null;
+        ContingencyTable contingencyTable = new ContingencyTable(k, 2);
+        for (int i = 0; i < histogram1.length; i++)
+            contingencyTable.add(i, 0, histogram1[i]);
+        for (int i = 0; i < histogram2.length; i++)
+            contingencyTable.add(i, 1, histogram2[i]);
+        return new CorrelationStruct(
+                CoefficentsAndTests.CHI,
+                contingencyTable.getPValue(),
+                q1,
+                q2,
+                num1,
+                num2);
+    }
+
     /**
      * Classifies the input responses according to the classifier. The AbstractSurveyResponse objects will hold the
      * computed classification, and the method will return a classification structure for easy printing and jsonizing.
@@ -1066,34 +956,33 @@ public class QCMetrics {
             double alpha)
             throws SurveyException
     {
-        ClassifiedRespondentsStruct classificationStructs = new ClassifiedRespondentsStruct();
-        for (AbstractSurveyResponse sr : responses) {
-            boolean valid;
-            switch (classifier) {
-                case ENTROPY:
-                    valid = QCMetrics.entropyClassification(survey, sr, responses, smoothing, alpha);
-                    classificationStructs.add(new ClassificationStruct(
-                            sr,
-                            classifier,
-                            sr.getNonCustomResponses().size(),
-                            sr.getScore(),
-                            sr.getThreshold(),
-                            valid));
-                    break;
-                case LOG_LIKELIHOOD:
-                    valid = QCMetrics.logLikelihoodClassification(survey, sr, responses, smoothing, alpha);
-                    classificationStructs.add(new ClassificationStruct(
-                            sr,
-                            classifier,
-                            sr.getNonCustomResponses().size(),
-                            sr.getScore(),
-                            sr.getThreshold(),
-                            valid));
-                    break;
-                default:
-                    throw new RuntimeException("Unknown classification policy: "+classifier);
-            }
-        }
-        return classificationStructs;
+        return new BatchClassifier(survey, responses, classifier, smoothing, alpha).classifyResponses();
+    }
+
+    /**
+     * Classifies the input responses in parallel. Each thread classifies a contiguous slice of the responses; the
+     * bootstrapped references are shared and drawn from streams derived from the seed, so the output is reproducible
+     * for a given seed whatever the number of threads.
+     * @param survey The survey these respondents answered.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param classifier The enum corresponding to the classifier type.
+     * @param smoothing A boolean value indicating whether the frequencies of responses should be smoothed.
+     * @param alpha The cutoff used for determining whether validity is exceptionally low.
+     * @param threads The number of threads to classify with.
+     * @param seed The master seed for the references' random streams.
+     * @return A ClassifiedRespondentsStruct object containing all of the values just computed.
+     * @throws SurveyException
+     */
+    public static ClassifiedRespondentsStruct classifyResponses(
+            Survey survey,
+            List<AbstractSurveyResponse> responses,
+            Classifier classifier,
+            boolean smoothing,
+            double alpha,
+            int threads,
+            long seed)
+            throws SurveyException
+    {
+        return new BatchClassifier(survey, responses, classifier, smoothing, alpha).classifyResponses(threads, seed);
     }
 }
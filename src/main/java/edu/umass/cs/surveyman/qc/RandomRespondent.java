@@ -8,7 +8,7 @@ import edu.umass.cs.surveyman.survey.StringComponent;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 import edu.umass.cs.surveyman.utils.Gensym;
-import org.apache.commons.lang3.StringUtils;
+import edu.umass.cs.surveyman.utils.RandomSource;
 
 import java.util.*;
 
@@ -21,24 +21,37 @@ public class RandomRespondent extends AbstractRespondent {
     public final Survey survey;
     public final AdversaryType adversaryType;
     public final String id = gensym.next();
+    private final ExecutionPlan plan;
     private AbstractSurveyResponse response = null;
-    private HashMap<Question, double[]> posPref;
-    private final double UNSET = -1.0;
 
     // random respondent currently returns the same response every time. it should be updated to behave more like
     // nonrandom respondent and hold its profile
     public RandomRespondent(Survey survey, AdversaryType adversaryType) throws SurveyException {
-        this.survey = survey;
+        this(survey, adversaryType, RandomSource.current());
+    }
+
+    /**
+     * @param survey The survey to respond to.
+     * @param adversaryType The position preference of this respondent.
+     * @param random The stream this respondent's choices are drawn from.
+     * @throws SurveyException
+     */
+    public RandomRespondent(Survey survey, AdversaryType adversaryType, Random random) throws SurveyException {
+        this(new ExecutionPlan(survey), adversaryType, random);
+    }
+
+    /**
+     * Responds to an already compiled survey. Simulations that generate many respondents should compile the survey once
+     * and use this constructor.
+     * @param plan The compiled survey to respond to.
+     * @param adversaryType The position preference of this respondent.
+     * @param random The stream this respondent's choices are drawn from.
+     */
+    public RandomRespondent(ExecutionPlan plan, AdversaryType adversaryType, Random random) {
+        super(random);
+        this.survey = plan.survey;
+        this.plan = plan;
         this.adversaryType = adversaryType;
-        posPref = new HashMap<Question, double[]>();
-        for (int i = 0 ; i < survey.questions.size() ; i++) {
-            Question q = survey.questions.get(i);
-            int denom = getDenominator(q);
-            double[] prefs = new double[denom];
-            Arrays.fill(prefs, UNSET);
-            posPref.put(q, prefs);
-        }
-        populatePosPreferences();
         populateResponses();
     }
 
@@ -47,86 +60,24 @@ public class RandomRespondent extends AbstractRespondent {
         return this.response;
     }
 
-    private void populatePosPreferences() {
-        for (Question q : posPref.keySet()) {
-            if (adversaryType==AdversaryType.INNER) {
-                int filled = (int) Math.ceil((double) posPref.get(q).length / 2.0) - 1;
-                int pieces = 2 * (int) Math.pow(2, filled) - 1;
-                for (int i = 0 ; i <= filled ; i++) {
-                    double prob = ((double) 1 + i) / (double) pieces;
-                    posPref.get(q)[i] = prob;
-                    int j = posPref.get(q).length - i - 1;
-                    if (posPref.get(q)[j] == UNSET)
-                        posPref.get(q)[j] = prob;
-                    else posPref.get(q)[j] += prob;
-                }
-            } else {
-                for (int optionPos = 0 ; optionPos < posPref.get(q).length ; optionPos++ ) {
-                    switch (adversaryType) {
-                        case UNIFORM:
-                            posPref.get(q)[optionPos] = (1.0 / (double) posPref.get(q).length);
-                            break;
-                        case FIRST:
-                            if (optionPos==0)
-                                posPref.get(q)[optionPos] = 1.0;
-                            else posPref.get(q)[optionPos] = 0.0;
-                            break;
-                        case LAST:
-                            if (optionPos==posPref.get(q).length-1)
-                                posPref.get(q)[optionPos] = 1.0;
-                            else posPref.get(q)[optionPos] = 0.0;
-                            break;
-                        default:
-                            break;
-                    }
-                }
-            }
-        }
-    }
-
-    private List<Component> selectOptions(int i, Component[] options){
-        List<Component> retval = new ArrayList<Component>();
-        if (i >= options.length) {
-            String binstr = Integer.toBinaryString(i);
-            assert binstr.length() <= options.length : String.format("binary string : %s; total option size : %d", binstr, options.length);
-            char[] selections = StringUtils.leftPad(binstr, options.length, '0').toCharArray();
-            assert i < Math.pow(2.0, (double) options.length);
-            assert selections.length == options.length : String.format("Told to select from %d options; actual number of options is %d", selections.length, options.length);
-            for (int j = 0 ; j < selections.length ; j++){
-                if (selections[j]=='1')
-                    retval.add(options[j]);
-            }
-        } else retval.add(options[i]);
-        return retval;
-    }
-
-    private void populateResponses() throws SurveyException {
-        Interpreter interpreter = new Interpreter(survey);
+    private void populateResponses() {
+        ExecutionPlan.Cursor cursor = plan.newCursor(rng);
         do {
-            Question q = interpreter.getNextQuestion();
-            Component[] c = q.getOptListByIndex();
-            List<Component> answers = new ArrayList<Component>();
+            Question q = cursor.getNextQuestion();
+            Component[] c = cursor.getOptListByIndex(q);
+            List<Component> answers;
             // calculate our answer
-            int denom = getDenominator(q);
-            if (q.freetext || denom < 1 ) {
+            if (q.freetext || c.length == 0) {
+                answers = new ArrayList<Component>();
                 answers.add(new StringComponent(generateStringComponent(q), -1, -1));
             } else {
-                double prob = rng.nextDouble();
-                double cumulativeProb = 0.0;
-                for (int j = 0 ; j < denom ; j++) {
-                    assert posPref.get(q).length == denom :
-                            String.format("Expected position preference question options and denom to be equal (%f = %f)",
-                            posPref.get(q).length, denom);
-                    cumulativeProb += posPref.get(q)[j];
-                    if (prob < cumulativeProb) {
-                        answers.addAll(selectOptions(j, c));
-                        break;
-                    }
-                }
+                if (q.exclusive == null)
+                    q.exclusive = false;
+                answers = OptionSampler.get(adversaryType, c.length, q.exclusive).sample(c, rng);
             }
-            interpreter.answer(q, answers);
-        } while (!interpreter.terminated());
-        this.response = interpreter.getResponse();
+            cursor.answer(q, answers);
+        } while (!cursor.terminated());
+        this.response = cursor.getResponse();
         this.response.setKnownValidityStatus(KnownValidityStatus.NO);
     }
 
@@ -0,0 +1,131 @@
+package edu.umass.cs.surveyman.qc;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+/**
+ * Rank statistics computed from option counts rather than from lists of answers.
+ *
+ * An answer to a question can only take one of a handful of ordinal values, so every answer with the same option shares
+ * the same midrank: with n_0, ..., n_{k-1} answers per option, the answers to option i all have rank
+ * n_0 + ... + n_{i-1} + (n_i + 1) / 2. The statistics below read the ranks, and the tie corrections, off the counts,
+ * so once the answers are counted they cost O(k) (or O(k^2) for a joint table) however many answers there are. They
+ * agree exactly with the usual definitions applied to the expanded answers, ties averaged.
+ */
+public class RankStatistics {
+
+    private static final NormalDistribution STANDARD_NORMAL = new NormalDistribution();
+
+    /**
+     * @param counts The number of answers with each option, in rank order.
+     * @return The midrank of each option's answers.
+     */
+    public static double[] midranks(
+            int[] counts)
+    {
+        double[] ranks = new double[counts.length];
+        long below = 0;
+        for (int i = 0; i < counts.length; i++) {
+            ranks[i] = below + (counts[i] + 1) / 2.0;
+            below += counts[i];
+        }
+        return ranks;
+    }
+
+    /**
+     * Computes Spearman's rank correlation from the joint counts of two ordered questions: the Pearson correlation of
+     * the midranks of the rows and of the columns.
+     * @param table The number of answers with each pair of options; rows and columns are in rank order.
+     * @return Rho, or 0 if either question's answers do not vary.
+     */
+    public static double spearmansRho(
+            int[][] table)
+    {
+        return spearmansRho(new ContingencyTable(table));
+    }
+
+    /**
+     * Computes Spearman's rank correlation from the joint counts of two ordered questions, reading the marginals the
+     * table keeps.
+     * @param table The number of answers with each pair of options; rows and columns are in rank order.
+     * @return Rho, or 0 if either question's answers do not vary.
+     */
+    public static double spearmansRho(
+            ContingencyTable table)
+    {
+        int r = table.numRows, c = table.numCols;
+        int[] rowTotals = new int[r], colTotals = new int[c];
+        for (int a = 0; a < r; a++)
+            rowTotals[a] = table.getRowTotal(a);
+        for (int b = 0; b < c; b++)
+            colTotals[b] = table.getColTotal(b);
+        double[] rowRanks = midranks(rowTotals), colRanks = midranks(colTotals);
+        double mean = (table.getTotal() + 1) / 2.0;
+        double cov = 0.0, varRows = 0.0, varCols = 0.0;
+        for (int a = 0; a < r; a++)
+            varRows += rowTotals[a] * (rowRanks[a] - mean) * (rowRanks[a] - mean);
+        for (int b = 0; b < c; b++)
+            varCols += colTotals[b] * (colRanks[b] - mean) * (colRanks[b] - mean);
+        for (int a = 0; a < r; a++)
+            for (int b = 0; b < c; b++) {
+                int ct = table.get(a, b);
+                if (ct != 0)
+                    cov += ct * (rowRanks[a] - mean) * (colRanks[b] - mean);
+            }
+        if (varRows == 0.0 || varCols == 0.0)
+            return 0.0;
+        return cov / Math.sqrt(varRows * varCols);
+    }
+
+    /**
+     * Computes the Mann-Whitney U statistic of the first sample: the number of (first, second) pairs in which the first
+     * answer ranks higher, ties counting one half.
+     * @param counts1 The number of answers with each option in the first sample, in rank order.
+     * @param counts2 The number of answers with each option in the second sample, in rank order.
+     * @return U.
+     */
+    public static double mannWhitneyU(
+            int[] counts1,
+            int[] counts2)
+    {
+        double u = 0.0;
+        long below = 0;
+        for (int i = 0; i < Math.max(counts1.length, counts2.length); i++) {
+            long n1 = i < counts1.length ? counts1[i] : 0;
+            long n2 = i < counts2.length ? counts2[i] : 0;
+            u += n1 * (below + n2 / 2.0);
+            below += n2;
+        }
+        return u;
+    }
+
+    /**
+     * Computes the two-sided p-value of the Mann-Whitney U test by its normal approximation, with the variance
+     * corrected for ties.
+     * @param counts1 The number of answers with each option in the first sample, in rank order.
+     * @param counts2 The number of answers with each option in the second sample, in rank order.
+     * @return The p-value, or 1 if every answer ties.
+     */
+    public static double mannWhitneyPValue(
+            int[] counts1,
+            int[] counts2)
+    {
+        long n1 = 0, n2 = 0;
+        double ties = 0.0;
+        for (int i = 0; i < Math.max(counts1.length, counts2.length); i++) {
+            long a = i < counts1.length ? counts1[i] : 0;
+            long b = i < counts2.length ? counts2[i] : 0;
+            double t = a + b;
+            ties += t * t * t - t;
+            n1 += a;
+            n2 += b;
+        }
+        double n = n1 + n2;
+        if (n1 == 0 || n2 == 0)
+            return 1.0;
+        double variance = n1 * n2 / 12.0 * ((n + 1) - ties / (n * (n - 1)));
+        if (variance <= 0.0)
+            return 1.0;
+        double z = (mannWhitneyU(counts1, counts2) - n1 * n2 / 2.0) / Math.sqrt(variance);
+        return Math.min(1.0, 2.0 * STANDARD_NORMAL.cumulativeProbability(-Math.abs(z)));
+    }
+}
@@ -0,0 +1,283 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+
+import java.util.*;
+
+/**
+ * A compiled, column-oriented copy of a list of survey responses. Questions are mapped to dense ordinals in survey
+ * order and each question's declared options are mapped to dense ordinals in source-row order. Answers that are not
+ * among a question's declared options (e.g. freetext) are appended to its option table as they are seen, one ordinal
+ * per distinct component id, so they are told apart exactly as the list-based metrics tell them apart.
+ *
+ * Only the answers are compiled; callers that need the responses themselves keep the list, whose order the respondent
+ * ordinals follow.
+ *
+ * For each question the matrix holds a column of chosen option ordinals and a column of the positions at which the
+ * question was seen, both indexed by respondent ordinal. Cells for unanswered questions hold {@link #UNANSWERED}.
+ * Non-exclusive questions additionally keep every selected option in compressed rows.
+ */
+public class ResponseMatrix {
+
+    /**
+     * Sentinel for questions a respondent did not answer.
+     */
+    public static final int UNANSWERED = Integer.MIN_VALUE;
+
+    public final Survey survey;
+    private final int numRespondents;
+    private final Question[] questions;
+    private final Map<String, Integer> questionOrdinals = new HashMap<String, Integer>();
+    // the declared options of each question, followed by the undeclared answers in the order they were seen
+    private final List<List<Component>> options = new ArrayList<List<Component>>();
+    private final int[] numDeclared;
+    private final List<Map<String, Integer>> optionOrdinals = new ArrayList<Map<String, Integer>>();
+    private final int[][] answers;
+    private final int[][] positions;
+    private final int[][] selectionStarts;
+    private final int[][] selections;
+    private final int[] numAnswered;
+
+    /**
+     * Compiles the input responses. Responses to questions that are not in the survey are dropped.
+     * @param survey The survey these respondents answered.
+     * @param responses The list of actual or simulated responses to the survey.
+     */
+    public ResponseMatrix(
+            Survey survey,
+            List<AbstractSurveyResponse> responses)
+    {
+        this.survey = survey;
+        this.numRespondents = responses.size();
+        int numQuestions = survey.questions.size();
+        this.questions = survey.questions.toArray(new Question[numQuestions]);
+        this.numDeclared = new int[numQuestions];
+        this.answers = new int[numQuestions][numRespondents];
+        this.positions = new int[numQuestions][numRespondents];
+        this.selectionStarts = new int[numQuestions][];
+        this.selections = new int[numQuestions][];
+        this.numAnswered = new int[numRespondents];
+        for (int q = 0; q < numQuestions; q++) {
+            Question question = questions[q];
+            questionOrdinals.put(question.quid, q);
+            List<Component> opts = new ArrayList<Component>(question.options.values());
+            Collections.sort(opts, new Comparator<Component>() {
+                @Override
+                public int compare(Component c1, Component c2)
+                {
+                    return c1.compareTo(c2);
+                }
+            });
+            Map<String, Integer> ordinals = new HashMap<String, Integer>();
+            for (int o = 0; o < opts.size(); o++)
+                ordinals.put(opts.get(o).getCid(), o);
+            optionOrdinals.add(ordinals);
+            options.add(opts);
+            numDeclared[q] = opts.size();
+            Arrays.fill(answers[q], UNANSWERED);
+            Arrays.fill(positions[q], UNANSWERED);
+            if (question.exclusive != null && !question.exclusive) {
+                selectionStarts[q] = new int[numRespondents + 1];
+                selections[q] = new int[numRespondents];
+            }
+        }
+        int[] numSelections = new int[numQuestions];
+        for (int r = 0; r < numRespondents; r++) {
+            for (IQuestionResponse qr : responses.get(r).getNonCustomResponses()) {
+                Integer q = questionOrdinals.get(qr.getQuestion().quid);
+                if (q == null)
+                    continue;
+                numAnswered[r]++;
+                positions[q][r] = qr.getIndexSeen();
+                for (OptTuple optTuple : qr.getOpts()) {
+                    if (optTuple.c == null)
+                        continue;
+                    int o = getOrAddOptionOrdinal(q, optTuple.c);
+                    if (answers[q][r] == UNANSWERED)
+                        answers[q][r] = o;
+                    if (selections[q] != null) {
+                        if (numSelections[q] == selections[q].length)
+                            selections[q] = Arrays.copyOf(selections[q], 2 * selections[q].length + 1);
+                        selections[q][numSelections[q]++] = o;
+                    }
+                }
+            }
+            for (int q = 0; q < numQuestions; q++)
+                if (selectionStarts[q] != null)
+                    selectionStarts[q][r + 1] = numSelections[q];
+        }
+    }
+
+    private int getOrAddOptionOrdinal(
+            int q,
+            Component c)
+    {
+        Integer o = optionOrdinals.get(q).get(c.getCid());
+        if (o != null)
+            return o;
+        int other = options.get(q).size();
+        options.get(q).add(c);
+        optionOrdinals.get(q).put(c.getCid(), other);
+        return other;
+    }
+
+    public int getNumRespondents()
+    {
+        return numRespondents;
+    }
+
+    public int getNumQuestions()
+    {
+        return questions.length;
+    }
+
+    /**
+     * Returns the number of option ordinals for this question: its declared options and every distinct undeclared
+     * answer.
+     * @param q The question ordinal.
+     * @return The number of option ordinals.
+     */
+    public int getNumOptions(
+            int q)
+    {
+        return options.get(q).size();
+    }
+
+    /**
+     * Returns the number of declared options of this question, whose ordinals precede those of undeclared answers.
+     * @param q The question ordinal.
+     * @return The number of declared options.
+     */
+    public int getNumDeclaredOptions(
+            int q)
+    {
+        return numDeclared[q];
+    }
+
+    public Question getQuestion(
+            int q)
+    {
+        return questions[q];
+    }
+
+    /**
+     * Returns the dense ordinal for the input question.
+     * @param question A question in this survey.
+     * @return The ordinal, or -1 if the question is not part of the survey.
+     */
+    public int getQuestionOrdinal(
+            Question question)
+    {
+        Integer q = questionOrdinals.get(question.quid);
+        return q == null ? -1 : q;
+    }
+
+    /**
+     * Returns the option at the input ordinal.
+     * @param q The question ordinal.
+     * @param o The option ordinal.
+     * @return The option.
+     */
+    public Component getOption(
+            int q,
+            int o)
+    {
+        return options.get(q).get(o);
+    }
+
+    /**
+     * Returns the ordinal of the input option.
+     * @param q The question ordinal.
+     * @param c An option of this question.
+     * @return The ordinal, or -1 if the option was neither declared nor observed.
+     */
+    public int getOptionOrdinal(
+            int q,
+            Component c)
+    {
+        Integer o = optionOrdinals.get(q).get(c.getCid());
+        return o == null ? -1 : o;
+    }
+
+    /**
+     * Returns the first option the respondent selected for this question.
+     * @param q The question ordinal.
+     * @param r The respondent ordinal.
+     * @return The option ordinal, or {@link #UNANSWERED}.
+     */
+    public int getAnswer(
+            int q,
+            int r)
+    {
+        return answers[q][r];
+    }
+
+    /**
+     * Returns the position at which the respondent saw this question.
+     * @param q The question ordinal.
+     * @param r The respondent ordinal.
+     * @return The position, or {@link #UNANSWERED}.
+     */
+    public int getPosition(
+            int q,
+            int r)
+    {
+        return positions[q][r];
+    }
+
+    public boolean isAnswered(
+            int q,
+            int r)
+    {
+        return positions[q][r] != UNANSWERED;
+    }
+
+    /**
+     * Returns the number of options the respondent selected for this question.
+     * @param q The question ordinal.
+     * @param r The respondent ordinal.
+     * @return The number of selected options.
+     */
+    public int getNumSelected(
+            int q,
+            int r)
+    {
+        if (selectionStarts[q] != null)
+            return selectionStarts[q][r + 1] - selectionStarts[q][r];
+        return answers[q][r] == UNANSWERED ? 0 : 1;
+    }
+
+    /**
+     * Returns the k-th option the respondent selected for this question.
+     * @param q The question ordinal.
+     * @param r The respondent ordinal.
+     * @param k The index of the selection, less than {@link #getNumSelected(int, int)}.
+     * @return The option ordinal.
+     */
+    public int getSelected(
+            int q,
+            int r,
+            int k)
+    {
+        if (selectionStarts[q] != null)
+            return selections[q][selectionStarts[q][r] + k];
+        assert k == 0 && answers[q][r] != UNANSWERED;
+        return answers[q][r];
+    }
+
+    /**
+     * Returns the number of survey questions this respondent answered.
+     * @param r The respondent ordinal.
+     * @return The number of questions answered.
+     */
+    public int getNumAnswered(
+            int r)
+    {
+        return numAnswered[r];
+    }
+}
@@ -0,0 +1,203 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.Block;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+
+import java.util.*;
+
+/**
+ * Computes the empirical entropy of a survey, {@link QCMetrics#surveyEntropy(Survey, List)}, in one pass over the
+ * responses.
+ *
+ * The entropy sums, over every option of every (non-freetext) question and every path, the probability that a response
+ * on that path chose the option or one of its equivalent variants. Options equivalent across the variants of an ALL
+ * block form one class, and each class records how many (question, option) pairs share it.
+ *
+ * Paths are never enumerated. The blocks of a path are visited in a fixed order, so a path is identified by the set
+ * of top-level blocks it visits, and a response is keyed by the set of top-level blocks it answered questions in.
+ * Responses that completed the same path share a key; a response that broke off keeps the key of the blocks it
+ * reached, since which path it would have finished is unknown. A response contributes one count to each (key, class)
+ * pair it chose from, kept in a primitive hash table, and the entropy is read off the counts.
+ *
+ * The classes and the block ordinals are computed once, when the survey is given, and are not modified afterwards,
+ * so one instance can score any number of samples of responses to its survey, from any number of threads.
+ */
+public class SurveyEntropy {
+
+    /**
+     * An open-addressing hash table from non-negative long keys to int counts.
+     */
+    private static class Counts {
+
+        private long[] keys = new long[64];
+        private int[] values = new int[64];
+        private int size = 0;
+
+        private int slot(
+                long key)
+        {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & (keys.length - 1);
+        }
+
+        void increment(
+                long key)
+        {
+            // keys are stored off by one, so that 0 marks an empty slot
+            long stored = key + 1;
+            int i = slot(key);
+            while (keys[i] != 0 && keys[i] != stored)
+                i = (i + 1) & (keys.length - 1);
+            if (keys[i] == 0) {
+                keys[i] = stored;
+                if (++size * 2 > keys.length) {
+                    values[i] = 1;
+                    grow();
+                    return;
+                }
+            }
+            values[i]++;
+        }
+
+        private void grow()
+        {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == 0)
+                    continue;
+                int i = slot(oldKeys[j] - 1);
+                while (keys[i] != 0)
+                    i = (i + 1) & (keys.length - 1);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    public final Survey survey;
+    private final Map<Component, Integer> classes = new HashMap<Component, Integer>();
+    // the number of (question, option) pairs whose variants make up each class
+    private final int[] multiplicities;
+    // the ordinal of the top-level block enclosing every block of the survey
+    private final Map<Block, Integer> topLevelOrdinals = new HashMap<Block, Integer>();
+
+    /**
+     * Computes the variant equivalence classes of the survey's options and the ordinals of its top-level blocks.
+     * @param survey The survey responses will be given for.
+     */
+    public SurveyEntropy(
+            Survey survey)
+    {
+        this.survey = survey;
+        for (int i = 0; i < survey.topLevelBlocks.size(); i++) {
+            Deque<Block> blocks = new ArrayDeque<Block>();
+            blocks.push(survey.topLevelBlocks.get(i));
+            while (!blocks.isEmpty()) {
+                Block b = blocks.pop();
+                topLevelOrdinals.put(b, i);
+                for (Block sub : b.subBlocks)
+                    blocks.push(sub);
+            }
+        }
+        // an option's class is determined by its offset from its question and by the question's group of variants
+        Map<Object, Map<Integer, Integer>> groups = new IdentityHashMap<Object, Map<Integer, Integer>>();
+        List<Integer> multiplicities = new ArrayList<Integer>();
+        for (Question q : QCMetrics.removeFreetext(survey.questions)) {
+            if (q.getVariants().isEmpty())
+                continue;
+            Object group = q.block.branchParadigm == Block.BranchParadigm.ALL ? q.block : q;
+            Map<Integer, Integer> offsets = groups.get(group);
+            if (offsets == null) {
+                offsets = new HashMap<Integer, Integer>();
+                groups.put(group, offsets);
+            }
+            for (Component c : q.options.values()) {
+                int offset = q.getSourceRow() - c.getSourceRow();
+                Integer cls = offsets.get(offset);
+                if (cls == null) {
+                    cls = multiplicities.size();
+                    offsets.put(offset, cls);
+                    multiplicities.add(0);
+                }
+                multiplicities.set(cls, multiplicities.get(cls) + 1);
+                if (!classes.containsKey(c))
+                    classes.put(c, cls);
+            }
+        }
+        this.multiplicities = new int[multiplicities.size()];
+        for (int i = 0; i < this.multiplicities.length; i++)
+            this.multiplicities[i] = multiplicities.get(i);
+    }
+
+    /**
+     * Returns the set of top-level blocks a response answered questions in.
+     * @param sr The response.
+     * @return The ordinals of the blocks, or null if the response answered a question outside the survey's blocks.
+     */
+    private BitSet getSignature(
+            AbstractSurveyResponse sr)
+    {
+        BitSet signature = new BitSet();
+        for (IQuestionResponse qr : sr.getNonCustomResponses()) {
+            Block b = qr.getQuestion().block;
+            Integer ordinal = b == null ? null : topLevelOrdinals.get(b);
+            if (ordinal == null)
+                return null;
+            signature.set(ordinal);
+        }
+        return signature;
+    }
+
+    /**
+     * Computes the entropy of a sample of responses. Responses that answered a question outside the survey's blocks
+     * only count towards the total.
+     * @param responses The responses.
+     * @return The base-2 entropy.
+     */
+    public double getEntropy(
+            List<AbstractSurveyResponse> responses)
+    {
+        Map<BitSet, Integer> keys = new HashMap<BitSet, Integer>();
+        Counts counts = new Counts();
+        // the last response to count towards each class, so responses count once per class
+        int[] stamps = new int[multiplicities.length];
+        Arrays.fill(stamps, -1);
+        for (int r = 0; r < responses.size(); r++) {
+            AbstractSurveyResponse sr = responses.get(r);
+            BitSet signature = getSignature(sr);
+            if (signature == null)
+                continue;
+            Integer key = keys.get(signature);
+            if (key == null) {
+                key = keys.size();
+                keys.put(signature, key);
+            }
+            for (IQuestionResponse qr : sr.getNonCustomResponses()) {
+                for (OptTuple opt : qr.getOpts()) {
+                    Integer cls = classes.get(opt.c);
+                    if (cls == null || stamps[cls] == r)
+                        continue;
+                    stamps[cls] = r;
+                    counts.increment(((long) key << 32) | cls);
+                }
+            }
+        }
+        double retval = 0.0;
+        for (int i = 0; i < counts.keys.length; i++) {
+            if (counts.keys[i] == 0)
+                continue;
+            int cls = (int) ((counts.keys[i] - 1) & 0xFFFFFFFFL);
+            double p = counts.values[i] / (double) responses.size();
+            retval += multiplicities[cls] * p * Math.log(p) / Math.log(2.0);
+        }
+        return -retval;
+    }
+}
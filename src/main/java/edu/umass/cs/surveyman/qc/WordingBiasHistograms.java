@@ -0,0 +1,121 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Block;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The answers to every variant of each ALL block, counted in one sweep over a {@link ResponseMatrix}.
+ *
+ * The variants of a block are its exclusive questions. Every question ordinal of the matrix maps to its block and
+ * variant index, so each respondent is read once, question by question, whatever the number of blocks and variants.
+ * The sweep counts every answer into its variant's histogram over the declared options, indexed by option ordinal.
+ * Answers outside a question's declared options are not counted.
+ */
+public class WordingBiasHistograms {
+
+    public final ResponseMatrix matrix;
+    private final List<Block> blocks = new ArrayList<Block>();
+    // the matrix ordinals of each block's variants
+    private final int[][] variants;
+    private final int[][][] histograms;
+
+    /**
+     * Indexes the answers in the matrix.
+     * @param survey The survey these respondents answered.
+     * @param matrix The compiled responses.
+     */
+    public WordingBiasHistograms(
+            Survey survey,
+            ResponseMatrix matrix)
+    {
+        this.matrix = matrix;
+        int n = matrix.getNumQuestions();
+        int[] blockOf = new int[n];
+        int[] variantOf = new int[n];
+        Arrays.fill(blockOf, -1);
+        List<int[]> variants = new ArrayList<int[]>();
+        for (Block b : survey.getAllBlocks()) {
+            if (b.branchParadigm != Block.BranchParadigm.ALL)
+                continue;
+            List<Integer> ordinals = new ArrayList<Integer>();
+            for (Question q : b.questions) {
+                int ordinal = matrix.getQuestionOrdinal(q);
+                if (ordinal == -1 || !Boolean.TRUE.equals(q.exclusive))
+                    continue;
+                blockOf[ordinal] = blocks.size();
+                variantOf[ordinal] = ordinals.size();
+                ordinals.add(ordinal);
+            }
+            int[] block = new int[ordinals.size()];
+            for (int v = 0; v < block.length; v++)
+                block[v] = ordinals.get(v);
+            blocks.add(b);
+            variants.add(block);
+        }
+        this.variants = variants.toArray(new int[variants.size()][]);
+        this.histograms = new int[blocks.size()][][];
+        for (int b = 0; b < blocks.size(); b++) {
+            histograms[b] = new int[this.variants[b].length][];
+            for (int v = 0; v < this.variants[b].length; v++)
+                histograms[b][v] = new int[matrix.getNumDeclaredOptions(this.variants[b][v])];
+        }
+        for (int r = 0; r < matrix.getNumRespondents(); r++)
+            for (int q = 0; q < n; q++) {
+                int b = blockOf[q];
+                int answer = matrix.getAnswer(q, r);
+                if (b == -1 || answer == ResponseMatrix.UNANSWERED)
+                    continue;
+                int[] histogram = histograms[b][variantOf[q]];
+                if (answer < histogram.length)
+                    histogram[answer]++;
+            }
+    }
+
+    /**
+     * @return The ALL blocks, in the order {@link Survey#getAllBlocks()} returns them.
+     */
+    public List<Block> getBlocks()
+    {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * @param b The index of a block in {@link #getBlocks()}.
+     * @return The number of exclusive variants of the block.
+     */
+    public int getNumVariants(
+            int b)
+    {
+        return variants[b].length;
+    }
+
+    /**
+     * @param b The index of a block in {@link #getBlocks()}.
+     * @param v The index of a variant of the block.
+     * @return The variant question.
+     */
+    public Question getVariant(
+            int b,
+            int v)
+    {
+        return matrix.getQuestion(variants[b][v]);
+    }
+
+    /**
+     * @param b The index of a block in {@link #getBlocks()}.
+     * @param v The index of a variant of the block.
+     * @return How often each option of the variant was chosen, indexed by option ordinal.
+     */
+    public int[] getHistogram(
+            int b,
+            int v)
+    {
+        return Arrays.copyOf(histograms[b][v], histograms[b][v].length);
+    }
+}
@@ -4,6 +4,7 @@ import edu.umass.cs.surveyman.input.exceptions.BranchException;
 import org.apache.commons.lang3.StringUtils;
 import edu.umass.cs.surveyman.survey.exceptions.BlockException;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.RandomSource;
 import sun.misc.Regexp;
 
 import java.io.Serializable;
@@ -485,6 +486,16 @@ public class Block extends SurveyObj implements Comparable, Serializable {
      * @return A shuffled Block array.
      */
     public static Block[] shuffle(List<Block> blockList) {
+        return shuffle(blockList, RandomSource.current());
+    }
+
+    /**
+     * Shuffles blocks, drawing from the given stream.
+     * @param blockList The list of blocks to shuffle.
+     * @param random The random stream to shuffle with.
+     * @return A shuffled Block array.
+     */
+    public static Block[] shuffle(List<Block> blockList, Random random) {
 
         Block[] retval = new Block[blockList.size()];
         List<Block> floating = new ArrayList<Block>();
@@ -498,9 +509,9 @@ public class Block extends SurveyObj implements Comparable, Serializable {
         for (int i = 0 ; i < retval.length ; i++)
             indices.add(i);
 
-        Collections.shuffle(floating);
+        Collections.shuffle(floating, random);
         Collections.sort(normal);
-        Collections.shuffle(indices);
+        Collections.shuffle(indices, random);
 
         List<Integer> indexList1 = indices.subList(0, floating.size());
         List<Integer> indexList2 = indices.subList(floating.size(), blockList.size());
@@ -0,0 +1,101 @@
+package edu.umass.cs.surveyman.utils;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Supplies every random stream SurveyMan uses. All streams are derived from a single master seed, so setting the
+ * master seed (see {@link #setMasterSeed(long)}) makes a run reproducible.
+ *
+ * There are two ways to get a stream:
+ * <ul>
+ *     <li>{@link #stream(long, long)} derives the stream for task {@code i} of a job from the job's seed. This does not
+ *     depend on which thread runs the task or in what order, so work that is split across threads should give each task
+ *     its own stream this way.</li>
+ *     <li>{@link #current()} returns the calling thread's stream. Threads are handed streams in the order they first
+ *     ask for one, so this is reproducible for single-threaded code.</li>
+ * </ul>
+ * Streams are {@link Random} instances seeded by passing (seed, index) through the SplitMix64 finalizer, which gives
+ * statistically independent seeds for consecutive indices.
+ */
+public class RandomSource {
+
+    private static volatile long masterSeed = System.currentTimeMillis();
+    private static volatile int generation = 0;
+    private static final AtomicLong threadCounter = new AtomicLong(0);
+
+    private static class ThreadStream {
+        final int generation;
+        final Random random;
+
+        ThreadStream(int generation, Random random)
+        {
+            this.generation = generation;
+            this.random = random;
+        }
+    }
+
+    private static final ThreadLocal<ThreadStream> threadStreams = new ThreadLocal<ThreadStream>();
+
+    /**
+     * Sets the master seed. Every thread's stream is reset, and is re-derived from the new seed on its next use.
+     * @param seed The new master seed.
+     */
+    public static synchronized void setMasterSeed(
+            long seed)
+    {
+        masterSeed = seed;
+        threadCounter.set(0);
+        generation++;
+    }
+
+    public static long getMasterSeed()
+    {
+        return masterSeed;
+    }
+
+    /**
+     * Returns the calling thread's stream.
+     * @return A stream that should only be used from the calling thread.
+     */
+    public static Random current()
+    {
+        ThreadStream threadStream = threadStreams.get();
+        if (threadStream == null || threadStream.generation != generation) {
+            synchronized (RandomSource.class) {
+                threadStream = new ThreadStream(generation, stream(masterSeed, threadCounter.getAndIncrement()));
+            }
+            threadStreams.set(threadStream);
+        }
+        return threadStream.random;
+    }
+
+    /**
+     * Returns the stream for one task of a job.
+     * @param seed The job's seed.
+     * @param task The index of the task within the job.
+     * @return A new stream, determined entirely by the seed and the task index.
+     */
+    public static Random stream(
+            long seed,
+            long task)
+    {
+        return new Random(mix(seed, task));
+    }
+
+    /**
+     * Derives a seed for one task of a job.
+     * @param seed The job's seed.
+     * @param task The index of the task within the job.
+     * @return The derived seed.
+     */
+    public static long mix(
+            long seed,
+            long task)
+    {
+        long z = seed + (task + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
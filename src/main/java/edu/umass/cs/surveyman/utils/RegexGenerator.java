@@ -0,0 +1,514 @@
+package edu.umass.cs.surveyman.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Generates random strings matching a regular expression. The expression is parsed once into a tree of generators;
+ * producing a string then only walks that tree.
+ *
+ * Supported syntax is the subset of {@link Pattern} used for freetext constraints: literals and escapes, character
+ * classes (including ranges, negation and the predefined classes \d, \w, \s and their complements), '.', groups
+ * (capturing, non-capturing and named), alternation, and the quantifiers *, +, ?, {n}, {n,} and {n,m} (lazy and
+ * possessive variants generate the same strings). Unbounded quantifiers repeat at most {@link #MAX_REPEAT} times more
+ * than their minimum. Negated classes and '.' draw from printable ASCII. Anchors and word boundaries generate nothing;
+ * expressions containing them are checked against the pattern, and regenerated if they do not match.
+ *
+ * Back references, lookaround, inline flags and class intersections are not supported; {@link #compile(String)}
+ * throws an {@link IllegalArgumentException} for them.
+ */
+public class RegexGenerator {
+
+    /**
+     * The most extra repetitions an unbounded quantifier generates.
+     */
+    public static final int MAX_REPEAT = 8;
+    private static final int MAX_ATTEMPTS = 100;
+    private static final char MIN_PRINTABLE = ' ', MAX_PRINTABLE = '~';
+
+    private static abstract class Node {
+        abstract void generate(StringBuilder sb, Random random);
+    }
+
+    private static class Literal extends Node {
+        final char c;
+
+        Literal(char c)
+        {
+            this.c = c;
+        }
+
+        @Override
+        void generate(StringBuilder sb, Random random)
+        {
+            sb.append(c);
+        }
+    }
+
+    /**
+     * A set of characters, stored as sorted, disjoint, inclusive ranges.
+     */
+    private static class CharSet extends Node {
+        final char[] lo, hi;
+        final int[] cumulative;
+
+        CharSet(boolean[] members)
+        {
+            List<char[]> ranges = new ArrayList<char[]>();
+            for (int c = 0; c < members.length; c++) {
+                if (!members[c])
+                    continue;
+                int start = c;
+                while (c + 1 < members.length && members[c + 1])
+                    c++;
+                ranges.add(new char[]{ (char) start, (char) c });
+            }
+            if (ranges.isEmpty())
+                throw new IllegalArgumentException("Character class matches nothing.");
+            this.lo = new char[ranges.size()];
+            this.hi = new char[ranges.size()];
+            this.cumulative = new int[ranges.size()];
+            int total = 0;
+            for (int i = 0; i < lo.length; i++) {
+                lo[i] = ranges.get(i)[0];
+                hi[i] = ranges.get(i)[1];
+                total += hi[i] - lo[i] + 1;
+                cumulative[i] = total;
+            }
+        }
+
+        @Override
+        void generate(StringBuilder sb, Random random)
+        {
+            int k = random.nextInt(cumulative[cumulative.length - 1]);
+            int i = 0;
+            while (cumulative[i] <= k)
+                i++;
+            sb.append((char) (hi[i] - (cumulative[i] - 1 - k)));
+        }
+    }
+
+    private static class Sequence extends Node {
+        final Node[] nodes;
+
+        Sequence(List<Node> nodes)
+        {
+            this.nodes = nodes.toArray(new Node[nodes.size()]);
+        }
+
+        @Override
+        void generate(StringBuilder sb, Random random)
+        {
+            for (Node node : nodes)
+                node.generate(sb, random);
+        }
+    }
+
+    private static class Alternation extends Node {
+        final Node[] alternatives;
+
+        Alternation(List<Node> alternatives)
+        {
+            this.alternatives = alternatives.toArray(new Node[alternatives.size()]);
+        }
+
+        @Override
+        void generate(StringBuilder sb, Random random)
+        {
+            alternatives[random.nextInt(alternatives.length)].generate(sb, random);
+        }
+    }
+
+    private static class Repeat extends Node {
+        final Node node;
+        final int min, max;
+
+        Repeat(Node node, int min, int max)
+        {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        void generate(StringBuilder sb, Random random)
+        {
+            int n = min + random.nextInt(max - min + 1);
+            for (int i = 0; i < n; i++)
+                node.generate(sb, random);
+        }
+    }
+
+    private static final Node EMPTY = new Node() {
+        @Override
+        void generate(StringBuilder sb, Random random)
+        {
+        }
+    };
+
+    public final Pattern pattern;
+    private final Node root;
+    private final boolean hasAssertions;
+    // parser state
+    private final String regex;
+    private int pos = 0;
+    private boolean sawAssertion = false;
+
+    private RegexGenerator(
+            Pattern pattern)
+    {
+        this.pattern = pattern;
+        this.regex = pattern.pattern();
+        this.root = parseAlternation();
+        if (pos < regex.length())
+            throw unsupported("unbalanced ')'");
+        this.hasAssertions = sawAssertion;
+    }
+
+    /**
+     * Compiles a generator for the regular expression.
+     * @param regex A regular expression in {@link Pattern} syntax.
+     * @return The generator.
+     * @throws IllegalArgumentException if the expression uses unsupported syntax.
+     */
+    public static RegexGenerator compile(
+            String regex)
+    {
+        return compile(Pattern.compile(regex));
+    }
+
+    /**
+     * Compiles a generator for the pattern. Flags set on the pattern are ignored.
+     * @param pattern A compiled pattern.
+     * @return The generator.
+     * @throws IllegalArgumentException if the expression uses unsupported syntax.
+     */
+    public static RegexGenerator compile(
+            Pattern pattern)
+    {
+        return new RegexGenerator(pattern);
+    }
+
+    /**
+     * Generates a string matching the pattern.
+     * @param random The stream to draw from.
+     * @return A matching string.
+     */
+    public String generate(
+            Random random)
+    {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            StringBuilder sb = new StringBuilder();
+            root.generate(sb, random);
+            String s = sb.toString();
+            if (!hasAssertions || pattern.matcher(s).matches())
+                return s;
+        }
+        throw new RuntimeException(String.format("Could not generate a string matching %s", regex));
+    }
+
+    private IllegalArgumentException unsupported(
+            String what)
+    {
+        return new IllegalArgumentException(String.format("Unsupported regular expression syntax (%s) at index %d of %s",
+                what, pos, regex));
+    }
+
+    private boolean more()
+    {
+        return pos < regex.length();
+    }
+
+    private char peek()
+    {
+        return regex.charAt(pos);
+    }
+
+    private Node parseAlternation()
+    {
+        List<Node> alternatives = new ArrayList<Node>();
+        alternatives.add(parseSequence());
+        while (more() && peek() == '|') {
+            pos++;
+            alternatives.add(parseSequence());
+        }
+        return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+    }
+
+    private Node parseSequence()
+    {
+        List<Node> nodes = new ArrayList<Node>();
+        while (more() && peek() != '|' && peek() != ')')
+            nodes.add(parseQuantified(parseAtom()));
+        return nodes.size() == 1 ? nodes.get(0) : new Sequence(nodes);
+    }
+
+    private Node parseQuantified(
+            Node atom)
+    {
+        while (more()) {
+            int min, max;
+            char c = peek();
+            if (c == '*') {
+                min = 0;
+                max = MAX_REPEAT;
+                pos++;
+            } else if (c == '+') {
+                min = 1;
+                max = 1 + MAX_REPEAT;
+                pos++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (c == '{') {
+                int close = regex.indexOf('}', pos);
+                if (close == -1)
+                    throw unsupported("unterminated '{'");
+                String[] bounds = regex.substring(pos + 1, close).split(",", -1);
+                try {
+                    min = Integer.parseInt(bounds[0].trim());
+                    if (bounds.length == 1)
+                        max = min;
+                    else if (bounds[1].trim().isEmpty())
+                        max = min + MAX_REPEAT;
+                    else max = Integer.parseInt(bounds[1].trim());
+                } catch (NumberFormatException nfe) {
+                    throw unsupported("malformed quantifier");
+                }
+                pos = close + 1;
+            } else break;
+            // lazy and possessive quantifiers generate the same strings
+            if (more() && (peek() == '?' || peek() == '+'))
+                pos++;
+            atom = new Repeat(atom, min, max);
+        }
+        return atom;
+    }
+
+    private Node parseAtom()
+    {
+        char c = regex.charAt(pos++);
+        switch (c) {
+            case '(':
+                if (more() && peek() == '?') {
+                    pos++;
+                    if (more() && peek() == ':')
+                        pos++;
+                    else if (more() && peek() == '<' && pos + 1 < regex.length()
+                            && Character.isLetter(regex.charAt(pos + 1))) {
+                        int close = regex.indexOf('>', pos);
+                        if (close == -1)
+                            throw unsupported("unterminated group name");
+                        pos = close + 1;
+                    } else throw unsupported("lookaround or inline flags");
+                }
+                Node group = parseAlternation();
+                if (!more() || peek() != ')')
+                    throw unsupported("unterminated group");
+                pos++;
+                return group;
+            case '[':
+                return parseClass();
+            case '.':
+                boolean[] members = new boolean[MAX_PRINTABLE + 1];
+                addRange(members, MIN_PRINTABLE, MAX_PRINTABLE);
+                return new CharSet(members);
+            case '^':
+            case '$':
+                sawAssertion = true;
+                return EMPTY;
+            case '\\':
+                return parseEscape();
+            default:
+                return new Literal(c);
+        }
+    }
+
+    private Node parseEscape()
+    {
+        if (!more())
+            throw unsupported("trailing '\\'");
+        char c = peek();
+        switch (c) {
+            case 'b':
+            case 'B':
+            case 'A':
+            case 'z':
+            case 'Z':
+            case 'G':
+                pos++;
+                sawAssertion = true;
+                return EMPTY;
+            case 'Q':
+                pos++;
+                int end = regex.indexOf("\\E", pos);
+                String quoted = end == -1 ? regex.substring(pos) : regex.substring(pos, end);
+                pos = end == -1 ? regex.length() : end + 2;
+                List<Node> literals = new ArrayList<Node>();
+                for (char q : quoted.toCharArray())
+                    literals.add(new Literal(q));
+                return literals.size() == 1 ? literals.get(0) : new Sequence(literals);
+            default:
+                int size = c == 'D' || c == 'W' || c == 'S' ? MAX_PRINTABLE + 1 : Character.MAX_VALUE + 1;
+                boolean[] members = new boolean[size];
+                Character literal = parseEscapeInto(members);
+                return literal == null ? new CharSet(members) : new Literal(literal);
+        }
+    }
+
+    /**
+     * Parses the escape at the current position (just after the backslash). Predefined classes are added to the
+     * members array; single characters are returned.
+     */
+    private Character parseEscapeInto(
+            boolean[] members)
+    {
+        char c = regex.charAt(pos++);
+        switch (c) {
+            case 'd':
+                addRange(members, '0', '9');
+                return null;
+            case 'w':
+                addWordChars(members, false);
+                return null;
+            case 's':
+                addSpaceChars(members, false);
+                return null;
+            case 'D':
+                for (char x = MIN_PRINTABLE; x <= MAX_PRINTABLE; x++)
+                    if (x < '0' || x > '9')
+                        members[x] = true;
+                return null;
+            case 'W':
+                addWordChars(members, true);
+                return null;
+            case 'S':
+                addSpaceChars(members, true);
+                return null;
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return '\u0007';
+            case 'e':
+                return '\u001B';
+            case 'x':
+                return (char) parseHex(2);
+            case 'u':
+                return (char) parseHex(4);
+            case '0':
+                int value = 0;
+                for (int digits = 0; digits < 3 && more() && peek() >= '0' && peek() <= '7'; digits++)
+                    value = value * 8 + (regex.charAt(pos++) - '0');
+                return (char) value;
+            case 'c':
+                return (char) (regex.charAt(pos++) ^ 64);
+            case 'p':
+            case 'P':
+                throw unsupported("character properties");
+            default:
+                if (Character.isLetterOrDigit(c))
+                    throw unsupported(String.format("escape \\%c", c));
+                return c;
+        }
+    }
+
+    private int parseHex(
+            int digits)
+    {
+        if (pos + digits > regex.length())
+            throw unsupported("truncated hexadecimal escape");
+        int value = Integer.parseInt(regex.substring(pos, pos + digits), 16);
+        pos += digits;
+        return value;
+    }
+
+    private Node parseClass()
+    {
+        boolean negated = more() && peek() == '^';
+        if (negated)
+            pos++;
+        boolean[] members = new boolean[Character.MAX_VALUE + 1];
+        boolean first = true;
+        while (true) {
+            if (!more())
+                throw unsupported("unterminated character class");
+            char c = peek();
+            if (c == ']' && !first) {
+                pos++;
+                break;
+            }
+            first = false;
+            if (c == '[' || (c == '&' && pos + 1 < regex.length() && regex.charAt(pos + 1) == '&'))
+                throw unsupported("nested character classes");
+            Character lo;
+            pos++;
+            if (c == '\\') {
+                lo = parseEscapeInto(members);
+                if (lo == null)
+                    continue;
+            } else lo = c;
+            if (more() && peek() == '-' && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+                pos++;
+                char hi = regex.charAt(pos++);
+                if (hi == '\\') {
+                    Character escaped = parseEscapeInto(members);
+                    if (escaped == null)
+                        throw unsupported("range ending in a character class");
+                    hi = escaped;
+                }
+                if (hi < lo)
+                    throw unsupported("reversed range");
+                addRange(members, lo, hi);
+            } else members[lo] = true;
+        }
+        if (!negated)
+            return new CharSet(members);
+        boolean[] complement = new boolean[MAX_PRINTABLE + 1];
+        for (char x = MIN_PRINTABLE; x <= MAX_PRINTABLE; x++)
+            complement[x] = !members[x];
+        return new CharSet(complement);
+    }
+
+    private static void addRange(
+            boolean[] members,
+            char lo,
+            char hi)
+    {
+        for (int x = lo; x <= hi && x < members.length; x++)
+            members[x] = true;
+    }
+
+    private static void addWordChars(
+            boolean[] members,
+            boolean complement)
+    {
+        for (char x = complement ? MIN_PRINTABLE : 0; x <= MAX_PRINTABLE; x++) {
+            boolean word = (x >= 'a' && x <= 'z') || (x >= 'A' && x <= 'Z') || (x >= '0' && x <= '9') || x == '_';
+            if (word != complement)
+                members[x] = true;
+        }
+    }
+
+    private static void addSpaceChars(
+            boolean[] members,
+            boolean complement)
+    {
+        if (complement) {
+            for (char x = MIN_PRINTABLE; x <= MAX_PRINTABLE; x++)
+                if (x != ' ')
+                    members[x] = true;
+        } else {
+            for (char x : new char[]{ ' ', '\t', '\n', '\u000B', '\f', '\r' })
+                members[x] = true;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.github.fge.jackson.JsonLoader;
 import edu.umass.cs.surveyman.TestLog;
 import edu.umass.cs.surveyman.analyses.AbstractSurveyResponse;
+import edu.umass.cs.surveyman.analyses.StaticAnalysis;
 import edu.umass.cs.surveyman.input.AbstractParser;
 import edu.umass.cs.surveyman.input.csv.CSVLexer;
 import edu.umass.cs.surveyman.input.csv.CSVParser;
@@ -202,4 +203,22 @@ public class JsonOutputTest extends TestLog {
         Assert.assertEquals(jsonObj2.getNodeType(), JsonNodeType.OBJECT);
     }
 
+    @Test
+    public void testStaticAnalysisReportJson()
+            throws InvocationTargetException, SurveyException, IllegalAccessException, NoSuchMethodException,
+                   IOException
+    {
+        CSVLexer lexer = new CSVLexer(testsFiles[0], String.valueOf(separators[0]));
+        Survey survey = new CSVParser(lexer).parse();
+        StaticAnalysis.Report report = StaticAnalysis.staticAnalysis(survey, Classifier.ENTROPY, 50, 0.5, 0.05, 2, 31L);
+        String json = report.jsonize();
+        LOGGER.debug("StaticAnalysis.Report:\t" + json);
+        final JsonNode jsonObj = JsonLoader.fromString(json);
+        Assert.assertEquals(jsonObj.getNodeType(), JsonNodeType.OBJECT);
+        Assert.assertEquals(jsonObj.get("surveyid").asText(), survey.sid);
+        Assert.assertEquals(jsonObj.get("minpathlength").asInt(), report.minPathLength);
+        Assert.assertEquals(jsonObj.get("probfalsecorrci").size(), 2);
+        Assert.assertEquals(jsonObj.get("badactors").get("percbots").size(), report.rocList.size());
+    }
+
 }
@@ -3,18 +3,30 @@ package edu.umass.cs.surveyman.qc;
 import edu.umass.cs.surveyman.TestLog;
 import edu.umass.cs.surveyman.analyses.*;
 import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.output.ClassificationStruct;
+import edu.umass.cs.surveyman.output.ClassifiedRespondentsStruct;
+import edu.umass.cs.surveyman.output.CorrelationStruct;
 import edu.umass.cs.surveyman.survey.*;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.RandomSource;
+import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
+import org.apache.commons.math3.stat.inference.ChiSquareTest;
+import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 @RunWith(JUnit4.class)
 public class MetricsTest extends TestLog {
@@ -66,6 +78,23 @@ public class MetricsTest extends TestLog {
         }
     }
 
+    // ordered, exclusive questions q0, q1, ..., with options a0, b0, ... for q0, a1, b1, ... for q1, and so on
+    private static Survey makeSurvey(
+            int numQuestions,
+            int numOptions,
+            boolean randomize)
+            throws SurveyException {
+        Survey survey1 = new Survey();
+        for (int i = 0 ; i < numQuestions ; i++) {
+            Question q = new Question("q" + i, true, true);
+            q.randomize = randomize;
+            for (int o = 0 ; o < numOptions ; o++)
+                q.addOptions(String.valueOf((char) ('a' + o)) + i);
+            survey1.addQuestions(q);
+        }
+        return survey1;
+    }
+
     public MetricsTest()
             throws IOException, SyntaxException {
         super.init(this.getClass());
@@ -202,6 +231,44 @@ public class MetricsTest extends TestLog {
         Assert.assertEquals("This variant set should be size 2.", 2, variants.size());
     }
 
+    @Test
+    public void testPathIndexMatchesPrefixes()
+            throws SurveyException {
+        init();
+        List<List<Block>> paths = QCMetrics.getPaths(survey);
+        PathIndex pathIndex = new PathIndex(paths);
+        Component[] none = new Component[0];
+        int[] noPositions = new int[0];
+        // complete responses
+        AbstractSurveyResponse shortPath = new SimulatedSurveyResponse(
+                new Question[]{ branchQuestion1, noBranchQuestion2 },
+                new Component[][]{ { b }, none },
+                new int[][]{ { 1 }, noPositions });
+        Assert.assertEquals(Arrays.asList(block1, block4), paths.get(pathIndex.getPath(shortPath)));
+        AbstractSurveyResponse longPath = new SimulatedSurveyResponse(
+                new Question[]{ branchQuestion1, branchQuestion2, noBranchQuestion1, noBranchQuestion2 },
+                new Component[][]{ { a }, { c }, none, none },
+                new int[][]{ { 0 }, { 0 }, noPositions, noPositions });
+        Assert.assertEquals(Arrays.asList(block1, block2, block3, block4), paths.get(pathIndex.getPath(longPath)));
+        // a respondent who broke off after the second block could be on either path through it
+        AbstractSurveyResponse brokeOff = new SimulatedSurveyResponse(
+                new Question[]{ branchQuestion1, branchQuestion2 },
+                new Component[][]{ { a }, { c } },
+                new int[][]{ { 0 }, { 0 } });
+        Assert.assertTrue(paths.get(pathIndex.getPath(brokeOff)).contains(block2));
+        // blocks that are not a prefix of any path are still matched
+        AbstractSurveyResponse gap = new SimulatedSurveyResponse(
+                new Question[]{ noBranchQuestion1 },
+                new Component[][]{ none },
+                new int[][]{ noPositions });
+        Assert.assertTrue(paths.get(pathIndex.getPath(gap)).contains(block3));
+        AbstractSurveyResponse unknown = new SimulatedSurveyResponse(
+                new Question[]{ new Question("elsewhere") },
+                new Component[][]{ none },
+                new int[][]{ noPositions });
+        Assert.assertEquals(-1, pathIndex.getPath(unknown));
+    }
+
     @Test
     public void testSurveyEntropy()
             throws SurveyException {
@@ -227,6 +294,97 @@ public class MetricsTest extends TestLog {
         Assert.assertEquals(expectedEntropy, observedEntropy, 0.001);
     }
 
+    @Test
+    public void testSurveyEntropyMatchesNestedCount()
+            throws SurveyException {
+        init();
+        Block variantBlock = new Block("5");
+        Question v1 = new Question("v1");
+        Question v2 = new Question("v2");
+        v1.addOptions("a", "b", "c");
+        v2.addOptions("d", "e", "f");
+        variantBlock.addQuestion(v1);
+        variantBlock.addQuestion(v2);
+        variantBlock.branchParadigm = Block.BranchParadigm.ALL;
+        variantBlock.propagateBranchParadigm();
+        survey.addBlock(variantBlock);
+        ExecutionPlan plan = new ExecutionPlan(survey);
+        Random random = new Random(17);
+        List<AbstractSurveyResponse> responses = new ArrayList<AbstractSurveyResponse>();
+        for (int i = 0 ; i < 200 ; i++)
+            responses.add(new RandomRespondent(plan, RandomRespondent.AdversaryType.UNIFORM, random).getResponse());
+        // the definition: every option of every question, on every path
+        List<List<Block>> paths = QCMetrics.getPaths(survey);
+        Map<List<Block>, List<AbstractSurveyResponse>> pathMap = QCMetrics.makeFrequenciesForPaths(paths, responses);
+        double expected = 0.0;
+        for (Question q : QCMetrics.removeFreetext(survey.questions))
+            for (Component c : q.options.values())
+                for (List<Block> path : paths) {
+                    List<Component> variants = QCMetrics.getEquivalentAnswerVariants(q, c);
+                    int ct = 0;
+                    for (AbstractSurveyResponse r : pathMap.get(path))
+                        if (r.surveyResponseContainsAnswer(variants))
+                            ct++;
+                    double p = ct / (double) responses.size();
+                    if (p > 0)
+                        expected -= p * Math.log(p) / Math.log(2.0);
+                }
+        Assert.assertTrue(expected > 0);
+        Assert.assertEquals(expected, QCMetrics.surveyEntropy(survey, responses), 1e-9);
+    }
+
+    @Test(timeout = 60000)
+    public void testSurveyEntropyWithoutEnumeratingPaths()
+            throws SurveyException {
+        // a chain of diamonds: every odd block branches to the even block after it or skips it, so there are 2^k paths
+        int k = 40;
+        Survey diamonds = new Survey();
+        Block[] blocks = new Block[2 * k + 1];
+        for (int i = 0 ; i < blocks.length ; i++)
+            blocks[i] = new Block(Integer.toString(i + 1));
+        for (int i = 0 ; i < blocks.length ; i++) {
+            Question q = new Question("q" + i, i + 1, 1);
+            if (i % 2 == 0 && i < blocks.length - 1) {
+                q.addOption(new StringComponent("detour", i + 1, 2), blocks[i + 1]);
+                q.addOption(new StringComponent("skip", i + 1, 3), blocks[i + 2]);
+                blocks[i].addBranchQuestion(q);
+            } else {
+                q.addOptions("x" + i, "y" + i);
+                blocks[i].addQuestion(q);
+            }
+            diamonds.addBlock(blocks[i]);
+        }
+        Assert.assertEquals(1L << k, new PathAnalyzer(diamonds).getNumPaths());
+        List<AbstractSurveyResponse> responses = new ArrayList<AbstractSurveyResponse>();
+        for (AbstractSurveyResponse sr : new RespondentSource(new ExecutionPlan(diamonds), 200, 1.0, new Random(19)))
+            responses.add(sr);
+        // the definition, over the paths the responses took: no option has variants, so each counts on its own
+        Map<Set<Block>, Map<Component, Integer>> counts = new HashMap<Set<Block>, Map<Component, Integer>>();
+        for (AbstractSurveyResponse sr : responses) {
+            Set<Block> path = new HashSet<Block>();
+            for (IQuestionResponse qr : sr.getNonCustomResponses())
+                path.add(qr.getQuestion().block);
+            if (!counts.containsKey(path))
+                counts.put(path, new HashMap<Component, Integer>());
+            Map<Component, Integer> pathCounts = counts.get(path);
+            for (IQuestionResponse qr : sr.getNonCustomResponses()) {
+                Component c = qr.getOpts().get(0).c;
+                pathCounts.put(c, pathCounts.containsKey(c) ? pathCounts.get(c) + 1 : 1);
+            }
+        }
+        double expected = 0.0;
+        for (Map<Component, Integer> pathCounts : counts.values())
+            for (int ct : pathCounts.values()) {
+                double p = ct / (double) responses.size();
+                expected -= p * Math.log(p) / Math.log(2.0);
+            }
+        // one index serves every sample of the survey
+        SurveyEntropy surveyEntropy = new SurveyEntropy(diamonds);
+        Assert.assertEquals(expected, surveyEntropy.getEntropy(responses), 1e-9);
+        Assert.assertEquals(expected, surveyEntropy.getEntropy(responses), 1e-9);
+        Assert.assertEquals(expected, QCMetrics.surveyEntropy(diamonds, responses), 1e-9);
+    }
+
     @Test
     public void testSpearmansRank()
             throws SurveyException {
@@ -383,6 +541,790 @@ public class MetricsTest extends TestLog {
         Assert.assertEquals("V should be 1", 1, v, 0.001);
     }
 
+    @Test
+    public void testPairwiseContingencyMatchesPairedCounts()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(5, 3, false);
+        List<Question> questions = survey1.questions;
+        ExecutionPlan plan = new ExecutionPlan(survey1);
+        PairwiseContingency tables = new PairwiseContingency(questions);
+        List<AbstractSurveyResponse> responses = new ArrayList<AbstractSurveyResponse>();
+        for (AbstractSurveyResponse sr : new RespondentSource(plan, 300, 1.0, new Random(21))) {
+            responses.add(sr);
+            tables.accept(sr);
+        }
+        Assert.assertEquals(300, tables.getNumResponses());
+        for (int i = 0 ; i < questions.size() ; i++)
+            for (int j = 0 ; j < questions.size() ; j++) {
+                if (i == j)
+                    continue;
+                Component[] rows = questions.get(i).getOptListByIndex();
+                Component[] cols = questions.get(j).getOptListByIndex();
+                int[][] expected = new int[rows.length][cols.length];
+                for (AbstractSurveyResponse sr : responses) {
+                    IQuestionResponse qi = sr.resultsAsMap().get(questions.get(i).quid);
+                    IQuestionResponse qj = sr.resultsAsMap().get(questions.get(j).quid);
+                    if (qi == null || qj == null || qi.getOpts().isEmpty() || qj.getOpts().isEmpty())
+                        continue;
+                    expected[Arrays.asList(rows).indexOf(qi.getOpts().get(0).c)]
+                            [Arrays.asList(cols).indexOf(qj.getOpts().get(0).c)]++;
+                }
+                Assert.assertTrue(Arrays.deepEquals(expected, tables.getTable(i, j)));
+                // independent uniform answers are only weakly associated
+                Assert.assertTrue(tables.cramersV(i, j) < 0.25);
+                Assert.assertEquals(tables.spearmansRho(i, j), tables.spearmansRho(j, i), 1e-12);
+            }
+        // identical answers are perfectly rank-correlated
+        PairwiseContingency same = new PairwiseContingency(questions.subList(0, 2));
+        for (int k = 0 ; k < 3 ; k++) {
+            final Component[] pair = new Component[]{
+                    questions.get(0).getOptListByIndex()[k], questions.get(1).getOptListByIndex()[k] };
+            same.accept(new SimulatedSurveyResponse(
+                    new Question[]{ questions.get(0), questions.get(1) },
+                    new Component[][]{ { pair[0] }, { pair[1] } },
+                    new int[][]{ { k }, { k } }));
+        }
+        Assert.assertEquals(1.0, same.spearmansRho(0, 1), 1e-12);
+        Assert.assertEquals(1.0, same.cramersV(0, 1), 1e-12);
+    }
+
+    @Test
+    public void testOrderBiasHistogramsMatchPairedPositions()
+            throws SurveyException {
+        init();
+        Survey survey1 = new Survey();
+        // questions within a block are shown in random order
+        Block b = new Block("1");
+        for (int i = 0 ; i < 5 ; i++) {
+            Question q = new Question("q" + i, true, true);
+            q.randomize = false;
+            q.addOptions("a" + i, "b" + i, "c" + i);
+            b.addQuestion(q);
+        }
+        survey1.addBlock(b);
+        ExecutionPlan plan = new ExecutionPlan(survey1);
+        List<AbstractSurveyResponse> responses = new ArrayList<AbstractSurveyResponse>();
+        for (AbstractSurveyResponse sr : new RespondentSource(plan, 300, 1.0, new Random(22)))
+            responses.add(sr);
+        ResponseMatrix matrix = new ResponseMatrix(survey1, responses);
+        OrderBiasHistograms histograms = new OrderBiasHistograms(matrix);
+        int numBefore = 0, numAfter = 0;
+        for (int i = 1 ; i < survey1.questions.size() ; i++)
+            for (int j = 0 ; j < i ; j++) {
+                Question q1 = matrix.getQuestion(i), q2 = matrix.getQuestion(j);
+                List<Component> opts = Arrays.asList(q1.getOptListByIndex());
+                int[] before = new int[opts.size()], after = new int[opts.size()];
+                for (AbstractSurveyResponse sr : responses) {
+                    IQuestionResponse qr1 = sr.resultsAsMap().get(q1.quid);
+                    IQuestionResponse qr2 = sr.resultsAsMap().get(q2.quid);
+                    if (qr1 == null || qr2 == null || qr1.getOpts().isEmpty() || qr2.getOpts().isEmpty())
+                        continue;
+                    if (qr1.getIndexSeen() < qr2.getIndexSeen())
+                        before[opts.indexOf(qr1.getOpts().get(0).c)]++;
+                    else if (qr1.getIndexSeen() > qr2.getIndexSeen())
+                        after[opts.indexOf(qr1.getOpts().get(0).c)]++;
+                }
+                Assert.assertTrue(Arrays.equals(before, histograms.getBefore(i, j)));
+                Assert.assertTrue(Arrays.equals(after, histograms.getAfter(i, j)));
+                for (int k = 0 ; k < opts.size() ; k++) {
+                    numBefore += before[k];
+                    numAfter += after[k];
+                }
+            }
+        Assert.assertTrue(numBefore > 0 && numAfter > 0);
+        Assert.assertFalse(histograms.isCounted(0, 1));
+        // the response list is compiled into the same histograms
+        QCMetrics.calculateOrderBiases(survey1, responses, 0.05);
+    }
+
+    @Test
+    public void testWordingBiasHistogramsIndexVariants()
+            throws SurveyException {
+        init();
+        Block variantBlock = new Block("5");
+        for (int i = 0 ; i < 3 ; i++) {
+            Question v = new Question("v" + i, true, true);
+            v.addOptions("a" + i, "b" + i, "c" + i);
+            variantBlock.addQuestion(v);
+        }
+        variantBlock.branchParadigm = Block.BranchParadigm.ALL;
+        variantBlock.propagateBranchParadigm();
+        survey.addBlock(variantBlock);
+        ExecutionPlan plan = new ExecutionPlan(survey);
+        List<AbstractSurveyResponse> responses = new ArrayList<AbstractSurveyResponse>();
+        for (AbstractSurveyResponse sr : new RespondentSource(plan, 300, 1.0, new Random(23)))
+            responses.add(sr);
+        ResponseMatrix matrix = new ResponseMatrix(survey, responses);
+        WordingBiasHistograms histograms = new WordingBiasHistograms(survey, matrix);
+        Assert.assertEquals(1, histograms.getBlocks().size());
+        Assert.assertEquals(3, histograms.getNumVariants(0));
+        // simulated respondents answer every variant, so each variant's histogram counts every respondent
+        int total = 0;
+        for (int v = 0 ; v < 3 ; v++) {
+            Question q = histograms.getVariant(0, v);
+            List<Component> opts = Arrays.asList(q.getOptListByIndex());
+            int[] expected = new int[opts.size()];
+            for (int r = 0 ; r < responses.size() ; r++) {
+                IQuestionResponse qr = responses.get(r).resultsAsMap().get(q.quid);
+                boolean answered = qr != null && !qr.getOpts().isEmpty();
+                if (answered)
+                    expected[opts.indexOf(qr.getOpts().get(0).c)]++;
+            }
+            Assert.assertTrue(Arrays.equals(expected, histograms.getHistogram(0, v)));
+            for (int ct : expected)
+                total += ct;
+        }
+        Assert.assertEquals(3 * responses.size(), total);
+        QCMetrics.calculateWordingBiases(survey, responses, 0.05);
+    }
+
+    @Test
+    public void testRankStatisticsMatchExpandedAnswers() {
+        Random random = new Random(24);
+        for (int trial = 0 ; trial < 20 ; trial++) {
+            int k = 2 + random.nextInt(5);
+            int[][] table = new int[k][k];
+            int[] counts1 = new int[k], counts2 = new int[k];
+            List<Double> xs = new ArrayList<Double>(), ys = new ArrayList<Double>();
+            for (int i = 0 ; i < 60 ; i++) {
+                int a = random.nextInt(k), b = (a + random.nextInt(2)) % k;
+                table[a][b]++;
+                xs.add((double) a);
+                ys.add((double) b);
+            }
+            for (int i = 0 ; i < 25 ; i++)
+                counts1[random.nextInt(k)]++;
+            for (int i = 0 ; i < 30 ; i++)
+                counts2[random.nextInt(k)]++;
+            double[] x = new double[xs.size()], y = new double[ys.size()];
+            for (int i = 0 ; i < x.length ; i++) {
+                x[i] = xs.get(i);
+                y[i] = ys.get(i);
+            }
+            Assert.assertEquals(new SpearmansCorrelation().correlation(x, y), RankStatistics.spearmansRho(table), 1e-9);
+            double[] sample1 = expand(counts1), sample2 = expand(counts2);
+            double u = RankStatistics.mannWhitneyU(counts1, counts2);
+            Assert.assertEquals(new MannWhitneyUTest().mannWhitneyU(sample1, sample2),
+                    Math.max(u, 25 * 30 - u), 1e-9);
+        }
+        // without ties, the normal approximation is the textbook one
+        int[] counts1 = new int[40], counts2 = new int[40];
+        for (int i = 0 ; i < 40 ; i++)
+            if (random.nextBoolean())
+                counts1[i]++;
+            else counts2[i]++;
+        Assert.assertEquals(new MannWhitneyUTest().mannWhitneyUTest(expand(counts1), expand(counts2)),
+                RankStatistics.mannWhitneyPValue(counts1, counts2), 1e-9);
+        // every answer tied
+        Assert.assertEquals(1.0, RankStatistics.mannWhitneyPValue(new int[]{ 5, 0 }, new int[]{ 7, 0 }), 0.0);
+    }
+
+    private static double[] expand(
+            int[] counts)
+    {
+        List<Double> values = new ArrayList<Double>();
+        for (int i = 0 ; i < counts.length ; i++)
+            for (int j = 0 ; j < counts[i] ; j++)
+                values.add((double) i);
+        double[] retval = new double[values.size()];
+        for (int i = 0 ; i < retval.length ; i++)
+            retval[i] = values.get(i);
+        return retval;
+    }
+
+    @Test
+    public void testContingencyTableMergesAndTests() {
+        Random random = new Random(25);
+        ContingencyTable whole = new ContingencyTable(3, 4);
+        ContingencyTable part1 = new ContingencyTable(3, 4), part2 = new ContingencyTable(3, 4);
+        long[][] counts = new long[3][4];
+        for (int i = 0 ; i < 500 ; i++) {
+            int r = random.nextInt(3), c = (r + random.nextInt(3)) % 4;
+            whole.increment(r, c);
+            (i % 2 == 0 ? part1 : part2).increment(r, c);
+            counts[r][c]++;
+        }
+        part1.merge(part2);
+        Assert.assertTrue(Arrays.deepEquals(whole.toArray(), part1.toArray()));
+        Assert.assertEquals(500, part1.getTotal());
+        for (int r = 0 ; r < 3 ; r++) {
+            int total = 0;
+            for (int c = 0 ; c < 4 ; c++)
+                total += part1.get(r, c);
+            Assert.assertEquals(total, part1.getRowTotal(r));
+        }
+        Assert.assertEquals(new ChiSquareTest().chiSquare(counts), whole.chiSquared(), 1e-9);
+        Assert.assertEquals(new ChiSquareTest().chiSquareTest(counts), whole.getPValue(), 1e-9);
+        Assert.assertEquals(6, whole.getDegreesOfFreedom());
+        Assert.assertEquals(Math.sqrt(whole.chiSquared() / 500 / 2), whole.cramersV(), 1e-12);
+        // empty rows and columns carry no degrees of freedom
+        ContingencyTable sparse = new ContingencyTable(new int[][]{ { 5, 0, 0 }, { 0, 0, 0 }, { 0, 0, 5 } });
+        Assert.assertEquals(1, sparse.getDegreesOfFreedom());
+        Assert.assertEquals(Math.sqrt(0.5), sparse.cramersV(), 1e-12);
+        Assert.assertEquals(1.0, new ContingencyTable(2, 2).getPValue(), 0.0);
+    }
+
+    @Test
+    public void testFalseCorrelationReplicates()
+            throws SurveyException {
+        Survey survey1 = makeSurvey(4, 2, false);
+        List<Question> questions = survey1.questions;
+        // small samples make strong chance correlations common
+        FalseCorrelation oneThread = FalseCorrelation.estimate(survey1, 5, 40, 0.8, 1, 9);
+        FalseCorrelation fourThreads = FalseCorrelation.estimate(survey1, 5, 40, 0.8, 4, 9);
+        Assert.assertTrue(Arrays.equals(oneThread.getReplicateRates(), fourThreads.getReplicateRates()));
+        Assert.assertTrue(Arrays.equals(oneThread.getHistogram(questions.get(0), questions.get(3)),
+                fourThreads.getHistogram(questions.get(3), questions.get(0))));
+        double rate = oneThread.getRate();
+        Assert.assertTrue(rate > 0.0 && rate < 1.0);
+        double[] ci = oneThread.getConfidenceInterval(0.95);
+        Assert.assertTrue(ci[0] < rate && rate < ci[1]);
+        int total = 0;
+        for (int count : oneThread.getHistogram(questions.get(1), questions.get(2)))
+            total += count;
+        Assert.assertEquals(40, total);
+        Assert.assertTrue(oneThread.getQuantile(questions.get(1), questions.get(2), 0.5)
+                <= oneThread.getQuantile(questions.get(1), questions.get(2), 0.95));
+    }
+
+    @Test
+    public void testBatchClassification()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(4, 4, false);
+        List<AbstractSurveyResponse> srs = Simulation.simulate(survey1, 50, 0.5);
+        ClassifiedRespondentsStruct classified =
+                QCMetrics.classifyResponses(survey1, srs, Classifier.LOG_LIKELIHOOD, false, 0.05);
+        Assert.assertEquals(srs.size(), classified.size());
+        // every respondent answered every question, so they should all share one bootstrapped threshold
+        double threshold = classified.get(0).threshold;
+        for (ClassificationStruct classificationStruct : classified)
+            Assert.assertEquals(threshold, classificationStruct.threshold, 0.0);
+    }
+
+    @Test
+    public void testParallelClassificationIsReproducible()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(4, 4, false);
+        List<AbstractSurveyResponse> srs = Simulation.simulate(survey1, 50, 0.5);
+        ClassifiedRespondentsStruct first =
+                QCMetrics.classifyResponses(survey1, srs, Classifier.ENTROPY, false, 0.05, 4, 42L);
+        ClassifiedRespondentsStruct second =
+                QCMetrics.classifyResponses(survey1, srs, Classifier.ENTROPY, false, 0.05, 4, 42L);
+        // nor does the output depend on the number of threads
+        ClassifiedRespondentsStruct serial =
+                QCMetrics.classifyResponses(survey1, srs, Classifier.ENTROPY, false, 0.05, 1, 42L);
+        Assert.assertEquals(srs.size(), first.size());
+        for (int i = 0 ; i < first.size() ; i++) {
+            Assert.assertSame(srs.get(i), first.get(i).surveyResponse);
+            Assert.assertEquals(first.get(i).threshold, second.get(i).threshold, 0.0);
+            Assert.assertEquals(first.get(i).valid, second.get(i).valid);
+            Assert.assertEquals(first.get(i).threshold, serial.get(i).threshold, 0.0);
+            Assert.assertEquals(first.get(i).valid, serial.get(i).valid);
+        }
+    }
+
+    @Test
+    public void testResponseMatrixFrequencies()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(4, 4, false);
+        List<AbstractSurveyResponse> srs = Simulation.simulate(survey1, 20, 0.5);
+        ResponseMatrix matrix = new ResponseMatrix(survey1, srs);
+        Assert.assertEquals(srs.size(), matrix.getNumRespondents());
+        Map<String, Map<String, Integer>> listFrequencies = QCMetrics.makeFrequencies(srs, survey1);
+        int[][] matrixFrequencies = QCMetrics.makeFrequencies(matrix, true);
+        for (int q = 0 ; q < matrix.getNumQuestions() ; q++) {
+            Question question = matrix.getQuestion(q);
+            for (Component c : question.options.values()) {
+                int o = matrix.getOptionOrdinal(q, c);
+                Assert.assertEquals(listFrequencies.get(question.quid).get(c.getCid()).intValue(),
+                        matrixFrequencies[q][o]);
+            }
+        }
+        for (int r = 0 ; r < matrix.getNumRespondents() ; r++)
+            Assert.assertEquals(srs.get(r).getNonCustomResponses().size(), matrix.getNumAnswered(r));
+    }
+
+    @Test
+    public void testResponseMatrixUndeclaredAnswers()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(3, 4, false);
+        Question freetext = new Question("free");
+        freetext.freetext = true;
+        freetext.exclusive = false;
+        survey1.addQuestions(freetext);
+        ExecutionPlan plan = new ExecutionPlan(survey1);
+        Random random = new Random(11);
+        List<AbstractSurveyResponse> srs = new ArrayList<AbstractSurveyResponse>();
+        for (int r = 0 ; r < 30 ; r++) {
+            ExecutionPlan.Cursor cursor = plan.newCursor(random);
+            do {
+                Question q = cursor.getNextQuestion();
+                Component[] opts = cursor.getOptListByIndex(q);
+                Component answer;
+                // three distinct freetext answers, and two distinct write-ins to the declared questions
+                if (opts.length == 0)
+                    answer = new StringComponent("free" + r % 3, 1000 + r % 3, 1);
+                else if (r % 4 == 0)
+                    answer = new StringComponent("other" + r % 2, 2000 + r % 2, 1);
+                else answer = opts[random.nextInt(opts.length)];
+                cursor.answer(q, new Component[]{ answer });
+            } while (!cursor.terminated());
+            srs.add(cursor.getResponse());
+        }
+        ResponseMatrix matrix = new ResponseMatrix(survey1, srs);
+        Map<String, Map<String, Integer>> listFrequencies = QCMetrics.makeFrequencies(srs, survey1);
+        int[][] matrixFrequencies = QCMetrics.makeFrequencies(matrix, true);
+        for (int q = 0 ; q < matrix.getNumQuestions() ; q++) {
+            Question question = matrix.getQuestion(q);
+            Assert.assertEquals(question.options.size(), matrix.getNumDeclaredOptions(q));
+            Assert.assertEquals(listFrequencies.get(question.quid).size(), matrix.getNumOptions(q));
+            for (int o = 0 ; o < matrix.getNumOptions(q) ; o++)
+                Assert.assertEquals(listFrequencies.get(question.quid).get(matrix.getOption(q, o).getCid()).intValue(),
+                        matrixFrequencies[q][o]);
+        }
+        Assert.assertEquals(3, matrix.getNumOptions(matrix.getQuestionOrdinal(freetext)));
+        Map<String, Map<String, Double>> listProbabilities = QCMetrics.makeProbabilities(listFrequencies);
+        double[][] matrixProbabilities = QCMetrics.makeProbabilities(matrixFrequencies);
+        for (int r = 0 ; r < matrix.getNumRespondents() ; r++) {
+            AbstractSurveyResponse sr = srs.get(r);
+            Assert.assertEquals(QCMetrics.getLLForResponse(sr.getNonCustomResponses(), listProbabilities),
+                    QCMetrics.getLLForResponse(matrix, r, matrixProbabilities), 1e-9);
+            Assert.assertEquals(QCMetrics.getEntropyForResponse(sr, listProbabilities),
+                    QCMetrics.getEntropyForResponse(matrix, r, matrixProbabilities), 1e-9);
+        }
+    }
+
+    @Test
+    public void testBootstrapQuantile() {
+        double[] values = new double[101];
+        for (int i = 0 ; i < values.length ; i++)
+            values[i] = (i * 37) % values.length;
+        for (int k = 0 ; k < values.length ; k++)
+            Assert.assertEquals(k, Bootstrap.select(Arrays.copyOf(values, values.length), values.length, k), 0.0);
+        double[] scores = new double[50];
+        for (int i = 0 ; i < scores.length ; i++)
+            scores[i] = i;
+        Bootstrap full = new Bootstrap(new Random(7L), 2000, 0.0);
+        double threshold = full.quantile(scores, 0.05);
+        Assert.assertEquals(2000, full.getLastIterations());
+        Assert.assertTrue(threshold < 24.5);
+        Assert.assertEquals(threshold, new Bootstrap(new Random(7L), 2000, 0.0).quantile(scores, 0.05), 0.0);
+        Bootstrap early = new Bootstrap(new Random(7L), 2000, 1.0);
+        early.quantile(scores, 0.05);
+        Assert.assertTrue(early.getLastIterations() < 2000);
+        // early stopping is opt-in
+        Bootstrap byDefault = new Bootstrap(new Random(7L));
+        byDefault.quantile(scores, 0.05);
+        Assert.assertEquals(QCMetrics.bootstrapIterations, byDefault.getLastIterations());
+    }
+
+    @Test
+    public void testProbabilityModelScores()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(4, 4, false);
+        List<AbstractSurveyResponse> srs = Simulation.simulate(survey1, 20, 0.5);
+        Map<String, Map<String, Double>> probabilities =
+                QCMetrics.makeProbabilities(QCMetrics.makeFrequencies(srs, survey1));
+        ProbabilityModel model = new ProbabilityModel(probabilities);
+        Assert.assertEquals(16, model.size());
+        for (AbstractSurveyResponse sr : srs) {
+            int[] ordinals = model.getOrdinals(sr.getNonCustomResponses());
+            Assert.assertEquals(QCMetrics.getLLForResponse(sr.getNonCustomResponses(), probabilities),
+                    model.logLikelihood(ordinals), 1e-9);
+            Assert.assertEquals(QCMetrics.getEntropyForResponse(sr, probabilities), model.entropy(ordinals), 1e-9);
+        }
+    }
+
+    @Test
+    public void testIncrementalClassifierCounts()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(4, 4, false);
+        List<AbstractSurveyResponse> srs = Simulation.simulate(survey1, 30, 0.5);
+        IncrementalClassifier incrementalClassifier =
+                new IncrementalClassifier(survey1, Classifier.LOG_LIKELIHOOD, true, 0.05, 10, new Random(3L));
+        for (AbstractSurveyResponse sr : srs)
+            Assert.assertSame(sr, incrementalClassifier.classify(sr).surveyResponse);
+        Assert.assertEquals(srs.size(), incrementalClassifier.size());
+        Map<String, Map<String, Double>> probabilities =
+                QCMetrics.makeProbabilities(QCMetrics.makeFrequencies(srs, survey1));
+        for (Question q : survey1.questions)
+            for (Component c : q.options.values())
+                Assert.assertEquals(probabilities.get(q.quid).get(c.getCid()),
+                        incrementalClassifier.getProbability(q.quid, c.getCid()), 1e-9);
+        // an option the snapshot has not seen is appended, leaving every other ordinal alone
+        ProbabilityModel model = new ProbabilityModel(QCMetrics.makeProbabilities(QCMetrics.makeFrequencies(
+                srs.subList(0, 1), null)));
+        Question q0 = survey1.questions.get(0);
+        String unseen = null;
+        for (Component c : q0.options.values())
+            if (model.getOrdinal(q0.quid, c.getCid()) == ProbabilityModel.UNKNOWN)
+                unseen = c.getCid();
+        Assert.assertNotNull(unseen);
+        ProbabilityModel extended = model.extend(q0.quid, unseen, 0.25);
+        Assert.assertEquals(model.size() + 1, extended.size());
+        Assert.assertEquals(model.size(), extended.getOrdinal(q0.quid, unseen));
+        Assert.assertEquals(-2.0, extended.getLogProbability(model.size()), 1e-12);
+        int[] ordinals = model.getOrdinals(srs.get(0).getNonCustomResponses());
+        Assert.assertArrayEquals(ordinals, extended.getOrdinals(srs.get(0).getNonCustomResponses()));
+        // references bootstrapped from a bounded sample still classify every response
+        IncrementalClassifier bounded =
+                new IncrementalClassifier(survey1, Classifier.LOG_LIKELIHOOD, true, 0.05, 10, 8, new Random(3L));
+        for (AbstractSurveyResponse sr : srs)
+            Assert.assertSame(sr, bounded.classify(sr).surveyResponse);
+        Assert.assertEquals(srs.size(), bounded.size());
+    }
+
+    @Test
+    public void testResponseQuestionIndex()
+            throws SurveyException {
+        init();
+        Survey survey1 = new Survey();
+        Question q1 = new Question("q1", true, true);
+        Question q2 = new Question("q2", true, true);
+        q1.addOptions("a", "b");
+        q2.addOptions("c", "d");
+        survey1.addQuestions(q1, q2);
+        AbstractSurveyResponse sr = new DynamicAnalysis.SurveyResponse("w1");
+        IQuestionResponse qr1 = new DynamicAnalysis.QuestionResponse(survey1, q1.quid, 0);
+        sr.addResponse(qr1);
+        Assert.assertTrue(sr.hasResponseForQuestion(q1));
+        Assert.assertFalse(sr.hasResponseForQuestion(q2));
+        Assert.assertSame(sr.getNonCustomResponses(), sr.getNonCustomResponses());
+        IQuestionResponse qr2 = new DynamicAnalysis.QuestionResponse(survey1, q2.quid, 1);
+        sr.getAllResponses().add(qr2);
+        Assert.assertSame(qr2, sr.getResponseForQuestion(q2));
+        Assert.assertEquals(2, sr.getNonCustomResponses().size());
+        // replacing a response in place leaves the size alone, but must still be seen
+        IQuestionResponse qr3 = new DynamicAnalysis.QuestionResponse(survey1, q2.quid, 1);
+        sr.getAllResponses().set(1, qr3);
+        Assert.assertSame(qr3, sr.getResponseForQuestion(q2));
+        Assert.assertSame(qr3, sr.getNonCustomResponses().get(1));
+    }
+
+    @Test
+    public void testSimulatedSurveyResponse()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(4, 3, true);
+        AbstractSurveyResponse sr = new RandomRespondent(survey1, RandomRespondent.AdversaryType.UNIFORM).getResponse();
+        Assert.assertTrue(sr instanceof SimulatedSurveyResponse);
+        List<IQuestionResponse> qrs = sr.getNonCustomResponses();
+        Assert.assertSame(qrs, sr.getNonCustomResponses());
+        Assert.assertEquals(4, qrs.size());
+        for (int i = 0 ; i < qrs.size() ; i++) {
+            Assert.assertEquals(i, qrs.get(i).getIndexSeen());
+            Assert.assertSame(qrs.get(i), sr.resultsAsMap().get(qrs.get(i).getQuestion().quid));
+            Assert.assertSame(qrs.get(i), sr.getResponseForQuestion(qrs.get(i).getQuestion()));
+        }
+        // changing the responses falls back on an ordinary list
+        SimulatedSurveyResponse ssr = (SimulatedSurveyResponse) sr;
+        IQuestionResponse first = qrs.get(0);
+        ssr.setResponses(new ArrayList<IQuestionResponse>(qrs.subList(1, qrs.size())));
+        Assert.assertEquals(3, ssr.size());
+        Assert.assertFalse(ssr.hasResponseForQuestion(first.getQuestion()));
+        Assert.assertFalse(ssr.resultsAsMap().containsKey(first.getQuestion().quid));
+        ssr.addResponse(first);
+        Assert.assertEquals(4, ssr.size());
+        Assert.assertSame(first.getQuestion(), ssr.getQuestion(3));
+        Assert.assertSame(first.getOpts().get(0).c, ssr.getOption(3, 0));
+        Assert.assertSame(first, ssr.getResponseForQuestion(first.getQuestion()));
+        Assert.assertTrue(ssr.surveyResponseContainsAnswer(Arrays.asList(first.getOpts().get(0).c)));
+        // adding to a fresh recording copies it first
+        SimulatedSurveyResponse fresh = (SimulatedSurveyResponse)
+                new RandomRespondent(survey1, RandomRespondent.AdversaryType.UNIFORM).getResponse();
+        fresh.addResponse(first);
+        Assert.assertEquals(5, fresh.getNonCustomResponses().size());
+    }
+
+    @Test
+    public void testMasterSeedReplaysSimulation()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(4, 4, true);
+        RandomSource.setMasterSeed(11L);
+        List<AbstractSurveyResponse> first = Simulation.simulate(survey1, 10, 0.5);
+        RandomSource.setMasterSeed(11L);
+        List<AbstractSurveyResponse> second = Simulation.simulate(survey1, 10, 0.5);
+        Assert.assertEquals(first.size(), second.size());
+        for (int i = 0 ; i < first.size() ; i++) {
+            List<IQuestionResponse> qrs1 = first.get(i).getNonCustomResponses();
+            List<IQuestionResponse> qrs2 = second.get(i).getNonCustomResponses();
+            Assert.assertEquals(qrs1.size(), qrs2.size());
+            for (int j = 0 ; j < qrs1.size() ; j++) {
+                Assert.assertSame(qrs1.get(j).getQuestion(), qrs2.get(j).getQuestion());
+                Assert.assertEquals(qrs1.get(j).getOpts(), qrs2.get(j).getOpts());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelStaticAnalysisIsReproducible()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(4, 4, true);
+        StaticAnalysis.Report serial =
+                StaticAnalysis.staticAnalysis(survey1, Classifier.LOG_LIKELIHOOD, 20, 0.25, 0.05, 1, 5L);
+        StaticAnalysis.Report parallel =
+                StaticAnalysis.staticAnalysis(survey1, Classifier.LOG_LIKELIHOOD, 20, 0.25, 0.05, 3, 5L);
+        // five sweep points, so each also classifies on two threads
+        StaticAnalysis.Report wide =
+                StaticAnalysis.staticAnalysis(survey1, Classifier.LOG_LIKELIHOOD, 20, 0.25, 0.05, 10, 5L);
+        Assert.assertEquals(serial.avgPathLength, parallel.avgPathLength, 0.0);
+        Assert.assertEquals(serial.rocList.size(), parallel.rocList.size());
+        for (int i = 0 ; i < serial.rocList.size() ; i++) {
+            Assert.assertEquals(serial.rocList.get(i).truePositive, parallel.rocList.get(i).truePositive);
+            Assert.assertEquals(serial.rocList.get(i).falsePositive, parallel.rocList.get(i).falsePositive);
+            Assert.assertEquals(serial.rocList.get(i).empiricalEntropy, parallel.rocList.get(i).empiricalEntropy, 0.0);
+            Assert.assertEquals(serial.rocList.get(i).truePositive, wide.rocList.get(i).truePositive);
+            Assert.assertEquals(serial.rocList.get(i).falsePositive, wide.rocList.get(i).falsePositive);
+        }
+    }
+
+    @Test
+    public void testExecutionPlanFollowsBranches()
+            throws SurveyException {
+        init();
+        ExecutionPlan plan = new ExecutionPlan(survey);
+        Assert.assertEquals(4, plan.getNumQuestions());
+        // a -> block 2, c -> block 3, then block 4
+        ExecutionPlan.Cursor cursor = plan.newCursor(new Random(5));
+        Assert.assertSame(branchQuestion1, cursor.getNextQuestion());
+        cursor.answer(branchQuestion1, new Component[]{ a });
+        Assert.assertSame(branchQuestion2, cursor.getNextQuestion());
+        cursor.answer(branchQuestion2, new Component[]{ c });
+        Assert.assertSame(noBranchQuestion1, cursor.getNextQuestion());
+        cursor.answer(noBranchQuestion1, new Component[0]);
+        Assert.assertSame(noBranchQuestion2, cursor.getNextQuestion());
+        Assert.assertTrue(cursor.terminated());
+        // b -> block 4, skipping blocks 2 and 3
+        cursor = plan.newCursor(new Random(5));
+        Assert.assertSame(branchQuestion1, cursor.getNextQuestion());
+        cursor.answer(branchQuestion1, new Component[]{ b });
+        Assert.assertFalse(cursor.terminated());
+        Assert.assertSame(noBranchQuestion2, cursor.getNextQuestion());
+        Assert.assertTrue(cursor.terminated());
+        AbstractSurveyResponse sr = cursor.getResponse();
+        Assert.assertEquals(1, sr.getNonCustomResponses().size());
+        Assert.assertSame(branchQuestion1, sr.getNonCustomResponses().get(0).getQuestion());
+    }
+
+    @Test
+    public void testRespondentSourceFoldsFrequencies()
+            throws SurveyException {
+        init();
+        Survey survey1 = makeSurvey(4, 3, true);
+        List<AbstractSurveyResponse> responses = Simulation.simulate(survey1, 50, 0.4, new Random(3));
+        RespondentSource source = new RespondentSource(survey1, 50, 0.4, new Random(3));
+        Assert.assertEquals(20, source.getNumRandomRespondents());
+        FrequencyTable frequencies = new FrequencyTable(survey1);
+        source.fold(frequencies);
+        Assert.assertFalse(source.hasNext());
+        Assert.assertEquals(50, frequencies.getNumResponses());
+        Assert.assertEquals(QCMetrics.makeFrequencies(responses, survey1), frequencies.getCounts());
+    }
+
+    @Test
+    public void testOptionSamplerDistributions() {
+        // INNER over 4 slots puts 1/3 and 2/3 on the first two slots before the cumulative scan reaches 1
+        double[] inner = OptionSampler.getSlotDistribution(RandomRespondent.AdversaryType.INNER, 4);
+        Assert.assertEquals(1.0 / 3.0, inner[0], 1e-9);
+        Assert.assertEquals(2.0 / 3.0, inner[1], 1e-9);
+        Assert.assertEquals(0.0, inner[2] + inner[3] + inner[4], 1e-9);
+        Component[] options = new Component[20];
+        for (int i = 0 ; i < options.length ; i++)
+            options[i] = new StringComponent("o" + i, i, 1);
+        Random random = new Random(8);
+        OptionSampler last = OptionSampler.get(RandomRespondent.AdversaryType.LAST, 20, false);
+        Assert.assertEquals(19, last.sample(options, random).size());
+        OptionSampler uniform = OptionSampler.get(RandomRespondent.AdversaryType.UNIFORM, 20, false);
+        Assert.assertSame(uniform, OptionSampler.get(RandomRespondent.AdversaryType.UNIFORM, 20, false));
+        int[] counts = new int[options.length];
+        int n = 20000;
+        for (int i = 0 ; i < n ; i++) {
+            List<Component> answer = uniform.sample(options, random);
+            Assert.assertFalse(answer.isEmpty());
+            for (int k = 0 ; k < options.length ; k++)
+                if (answer.contains(options[k]))
+                    counts[k]++;
+        }
+        // nearly every slot is a subset, each containing an option with probability close to 1/2
+        for (int count : counts)
+            Assert.assertEquals(0.5, count / (double) n, 0.02);
+    }
+
+    @Test
+    public void testPathAnalyzerMatchesSimulation()
+            throws SurveyException {
+        init();
+        PathAnalyzer pathAnalyzer = new PathAnalyzer(survey);
+        // 1-4 with probability 1/2, 1-2-4 and 1-2-3-4 with probability 1/4 each
+        Assert.assertEquals(2.75, pathAnalyzer.getExpectedPathLength(), 1e-9);
+        Assert.assertEquals(2, pathAnalyzer.getMinimumPathLength());
+        Assert.assertEquals(4, pathAnalyzer.getMaximumPathLength());
+        double[] distribution = pathAnalyzer.getPathLengthDistribution();
+        Assert.assertEquals(5, distribution.length);
+        Assert.assertEquals(0.5, distribution[2], 1e-9);
+        Assert.assertEquals(0.25, distribution[3], 1e-9);
+        Assert.assertEquals(0.25, distribution[4], 1e-9);
+        ExecutionPlan plan = new ExecutionPlan(survey);
+        Random random = new Random(6);
+        int n = 4000, total = 0;
+        for (int i = 0 ; i < n ; i++)
+            total += new RandomRespondent(plan, RandomRespondent.AdversaryType.UNIFORM, random).getResponse()
+                    .getNonCustomResponses().size();
+        Assert.assertEquals(pathAnalyzer.getExpectedPathLength(), total / (double) n, 0.05);
+    }
+
+    @Test
+    public void testPathAnalyzerCountsTopLevelVariants()
+            throws SurveyException {
+        init();
+        // respondents answer every question of a top-level ALL block, but one variant of an ALL sub-block
+        Block variantBlock = new Block("5");
+        for (int i = 0 ; i < 3 ; i++) {
+            Question v = new Question("v" + i, true, true);
+            v.addOptions("a" + i, "b" + i);
+            variantBlock.addQuestion(v);
+        }
+        variantBlock.branchParadigm = Block.BranchParadigm.ALL;
+        Block outer = new Block("6");
+        Block inner = new Block("6.1");
+        Question w = new Question("w", true, true);
+        w.addOptions("e", "f");
+        outer.addQuestion(w);
+        for (int i = 0 ; i < 2 ; i++) {
+            Question v = new Question("u" + i, true, true);
+            v.addOptions("c" + i, "d" + i);
+            inner.addQuestion(v);
+        }
+        inner.branchParadigm = Block.BranchParadigm.ALL;
+        outer.addBlock(inner);
+        survey.addBlock(variantBlock);
+        survey.addBlock(outer);
+        PathAnalyzer pathAnalyzer = new PathAnalyzer(survey);
+        Assert.assertEquals(2.75 + 3 + 2, pathAnalyzer.getExpectedPathLength(), 1e-9);
+        Assert.assertEquals(2 + 3 + 2, pathAnalyzer.getMinimumPathLength());
+        Assert.assertEquals(4 + 3 + 2, pathAnalyzer.getMaximumPathLength());
+        // one bit for each of the branch questions, the three top-level variants, w, and the one inner variant shown
+        Assert.assertEquals(2 + 3 + 2, pathAnalyzer.getMaxPossibleEntropy(), 1e-9);
+        ExecutionPlan plan = new ExecutionPlan(survey);
+        int n = 4000, total = 0;
+        for (AbstractSurveyResponse sr : new RespondentSource(plan, n, 1.0, new Random(15)))
+            total += sr.getNonCustomResponses().size();
+        Assert.assertEquals(pathAnalyzer.getExpectedPathLength(), total / (double) n, 0.05);
+    }
+
+    @Test
+    public void testPathAnalyzerCountsPathsWithoutEnumerating()
+            throws SurveyException {
+        init();
+        PathAnalyzer pathAnalyzer = new PathAnalyzer(survey);
+        Assert.assertEquals(3, pathAnalyzer.getNumPaths());
+        Assert.assertTrue(pathAnalyzer.getUnreachableBlocks().isEmpty());
+        // only the two branch questions have options, one bit each
+        Assert.assertEquals(2.0, pathAnalyzer.getMaxPossibleEntropy(), 1e-9);
+        int numPaths = 0;
+        for (List<Block> path : pathAnalyzer) {
+            Assert.assertEquals(block1, path.get(0));
+            Assert.assertEquals(block4, path.get(path.size() - 1));
+            numPaths++;
+        }
+        Assert.assertEquals(3, numPaths);
+        // a chain in which every block may skip the next one has Fibonacci-many paths
+        int n = 60;
+        Survey chain = new Survey();
+        Block[] blocks = new Block[n];
+        for (int i = 0 ; i < n ; i++)
+            blocks[i] = new Block(Integer.toString(i + 1));
+        for (int i = 0 ; i < n ; i++) {
+            Question q = new Question("q" + i, i + 1, 1);
+            if (i < n - 2) {
+                q.addOption(new StringComponent("next", i + 1, 2), blocks[i + 1]);
+                q.addOption(new StringComponent("skip", i + 1, 3), blocks[i + 2]);
+                blocks[i].addBranchQuestion(q);
+            } else blocks[i].addQuestion(q);
+            chain.addBlock(blocks[i]);
+        }
+        pathAnalyzer = new PathAnalyzer(chain);
+        Assert.assertEquals(1548008755920L, pathAnalyzer.getNumPaths());
+        Assert.assertEquals(31, pathAnalyzer.getMinimumPathLength());
+        Assert.assertEquals(n, pathAnalyzer.getMaximumPathLength());
+        Assert.assertEquals(n - 2, pathAnalyzer.getMaxPossibleEntropy(), 1e-9);
+        Assert.assertEquals(n, pathAnalyzer.iterator().next().size());
+        // the last block is reached by every path; the middle of the chain by skipping, too
+        Assert.assertTrue(pathAnalyzer.getUnreachableBlocks().isEmpty());
+    }
+
+    @Test
+    public void testReportCacheRoundTrip()
+            throws SurveyException, IOException {
+        Question[] questions = new Question[3];
+        Question.makeUnorderedRadioQuestions(questions, "1", "2", "3");
+        questions[0].addOptions("A", "B");
+        questions[1].addOptions("C", "D", "E");
+        questions[2].addOptions("F", "G");
+        Survey survey = new Survey(questions);
+        File dir = File.createTempFile("reports", "");
+        Assert.assertTrue(dir.delete());
+        ReportCache cache = new ReportCache(dir, ReportCache.DEFAULT_MAX_BYTES);
+        String key = ReportCache.getKey(survey, Classifier.LOG_LIKELIHOOD, 20, 0.5, 0.05, 3);
+        Assert.assertEquals(key, ReportCache.getKey(survey, Classifier.LOG_LIKELIHOOD, 20, 0.5, 0.05, 3));
+        Assert.assertFalse(key.equals(ReportCache.getKey(survey, Classifier.LOG_LIKELIHOOD, 20, 0.5, 0.05, 4)));
+        int iterations = QCMetrics.bootstrapIterations;
+        QCMetrics.bootstrapIterations = iterations + 1;
+        try {
+            Assert.assertFalse(key.equals(ReportCache.getKey(survey, Classifier.LOG_LIKELIHOOD, 20, 0.5, 0.05, 3)));
+        } finally {
+            QCMetrics.bootstrapIterations = iterations;
+        }
+        // the same survey text, with its second option laid out on a different source row
+        String[] shiftedKeys = new String[2];
+        for (int i = 0 ; i < shiftedKeys.length ; i++) {
+            Survey shifted = new Survey();
+            Question q = new Question("x", 1, 1);
+            q.addOption(new StringComponent("A", 1, 2));
+            q.addOption(new StringComponent("B", 2 + i, 2));
+            shifted.addQuestion(q);
+            shiftedKeys[i] = ReportCache.getKey(shifted, Classifier.LOG_LIKELIHOOD, 20, 0.5, 0.05, 3);
+        }
+        Assert.assertFalse(shiftedKeys[0].equals(shiftedKeys[1]));
+        Assert.assertNull(cache.get(key, survey));
+        StaticAnalysis.Report computed = StaticAnalysis.staticAnalysis(
+                survey, Classifier.LOG_LIKELIHOOD, 20, 0.5, 0.05, 1, 3, cache);
+        StaticAnalysis.Report cached = cache.get(key, survey);
+        Assert.assertNotNull(cached);
+        Assert.assertEquals(computed.minPathLength, cached.minPathLength);
+        Assert.assertEquals(computed.maxPathLength, cached.maxPathLength);
+        Assert.assertEquals(computed.avgPathLength, cached.avgPathLength, 0.0);
+        Assert.assertEquals(computed.maxPossibleEntropy, cached.maxPossibleEntropy, 0.0);
+        Assert.assertEquals(computed.rocList.size(), cached.rocList.size());
+        for (int i = 0 ; i < computed.rocList.size() ; i++) {
+            Assert.assertEquals(computed.rocList.get(i).empiricalEntropy, cached.rocList.get(i).empiricalEntropy, 0.0);
+            Assert.assertEquals(computed.rocList.get(i).truePositive, cached.rocList.get(i).truePositive);
+        }
+        Assert.assertEquals(computed.frequenciesOfRandomCorrelations.size(),
+                cached.frequenciesOfRandomCorrelations.size());
+        for (Question q1 : computed.frequenciesOfRandomCorrelations.keySet())
+            for (Map.Entry<Question, CorrelationStruct> e : computed.frequenciesOfRandomCorrelations.get(q1).entrySet())
+                Assert.assertEquals(e.getValue().coefficientValue,
+                        cached.frequenciesOfRandomCorrelations.get(q1).get(e.getKey()).coefficientValue, 0.0);
+        // a bound smaller than one report evicts everything
+        new ReportCache(dir, 1).put(key, computed);
+        Assert.assertNull(cache.get(key, survey));
+        cache.put(key, computed);
+        Assert.assertTrue(cache.invalidate(key));
+        Assert.assertNull(cache.get(key, survey));
+        cache.clear();
+        Assert.assertTrue(dir.delete());
+    }
+
     @Test
     public void testNonRandomRespondentFrequencies() {
 //        AbstractRespondent profile = new NonRandomRespondent(survey);
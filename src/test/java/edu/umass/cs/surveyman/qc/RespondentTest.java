@@ -14,6 +14,7 @@ import org.junit.runners.JUnit4;
 import edu.umass.cs.surveyman.analyses.IQuestionResponse;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.RegexGenerator;
 
 import java.io.IOException;
 import java.io.StringReader;
@@ -21,6 +22,8 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
 
 @RunWith(JUnit4.class)
 public class RespondentTest extends TestLog {
@@ -76,6 +79,28 @@ public class RespondentTest extends TestLog {
         }
     }
 
+    @Test
+    public void testFreetextPatternGeneration() {
+        String[] patterns = {
+                "[a-zA-Z]{3,6}", "\\d{3}-\\d{4}", "(yes|no|maybe)", "^[^aeiou\\s]+x?$", "\\w+@\\w+\\.(com|org)",
+                "a.b*c+", "(?:ab){2}[-_.]\\S\\W?"
+        };
+        Random random = new Random(4);
+        for (String regex : patterns) {
+            RegexGenerator generator = RegexGenerator.compile(regex);
+            for (int i = 0 ; i < 50 ; i++) {
+                String s = generator.generate(random);
+                assert Pattern.matches(regex, s) : String.format("Generated %s for pattern %s", s, regex);
+            }
+        }
+        try {
+            RegexGenerator.compile("(a)\\1");
+            assert false : "Back references should not be supported.";
+        } catch (IllegalArgumentException iae) {
+            LOGGER.debug(iae.getMessage());
+        }
+    }
+
     @Test
     public void testProfile() throws InvocationTargetException, SurveyException, IllegalAccessException,
             NoSuchMethodException, IOException {